@@ -0,0 +1,373 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSData;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSObjectCollection;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+import gurux.dlms.internal.GXCommon;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps parsed association views on the disk, so they are not read
+ * from the meter on every connection.
+ * Cache is keyed by manufacturer and logical device name.
+ * Cached view is used only if firmware version of the meter is not changed.
+ * Capture objects of the profile generics are cached with the association view.
+ * Scalers of the registers are kept in GXScalerCache and they are removed
+ * when logical device name or firmware version of the meter changes.
+ */
+public class GXAssociationCache
+{
+    private static final int MAGIC = 0x47584143;
+    private static final int VERSION = 1;
+
+    /**
+     * Cached association view of one meter.
+     */
+    public static class Entry
+    {
+        final String manufacturer;
+        final String logicalDeviceName;
+        final String firmwareVersion;
+        byte[] objects;
+        final Map<String, byte[]> attributes = new LinkedHashMap<String, byte[]>();
+        boolean changed;
+
+        Entry(String manufacturer, String logicalDeviceName, String firmwareVersion)
+        {
+            this.manufacturer = manufacturer;
+            this.logicalDeviceName = logicalDeviceName;
+            this.firmwareVersion = firmwareVersion;
+        }
+
+        static String getKey(GXDLMSObject target, int attributeIndex)
+        {
+            return target.getObjectType() + " " + target.getLogicalName() + " " + attributeIndex;
+        }
+
+        /**
+         * Returns cached attribute value.
+         * @param target Object.
+         * @param attributeIndex Attribute index.
+         * @return Cached value or null if value is not cached.
+         */
+        public synchronized byte[] get(GXDLMSObject target, int attributeIndex)
+        {
+            return attributes.get(getKey(target, attributeIndex));
+        }
+
+        /**
+         * Adds attribute value to the cache if value is static.
+         * @param target Object.
+         * @param attributeIndex Attribute index.
+         * @param data Read data.
+         */
+        public synchronized void put(GXDLMSObject target, int attributeIndex, byte[] data)
+        {
+            if (isStatic(target, attributeIndex))
+            {
+                attributes.put(getKey(target, attributeIndex), data);
+                changed = true;
+            }
+        }
+    }
+
+    private final Path path;
+    private String firmwareVersionLN = "1.0.0.2.0.255";
+
+    /**
+     * Constructor.
+     * @param path Directory where cached association views are saved.
+     */
+    public GXAssociationCache(String path)
+    {
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * @return Logical name of the object where firmware version is read.
+     */
+    public String getFirmwareVersionLN()
+    {
+        return firmwareVersionLN;
+    }
+
+    /**
+     * @param value Logical name of the object where firmware version is read.
+     */
+    public void setFirmwareVersionLN(String value)
+    {
+        firmwareVersionLN = value;
+    }
+
+    /**
+     * Is attribute value cached with the association view.
+     * Capture objects of profile generic do not usually change.
+     * @param target Object.
+     * @param attributeIndex Attribute index.
+     * @return True, if value is cached.
+     */
+    public static boolean isStatic(GXDLMSObject target, int attributeIndex)
+    {
+        return target instanceof GXDLMSProfileGeneric && attributeIndex == 3;
+    }
+
+    /**
+     * Returns association view of the meter.
+     * Cached view is used if it's found and firmware version is not changed.
+     * Otherwise view is read from the meter.
+     * Cached attribute values are used by GXCommunicate.readObject after this.
+     * Scaler cache of the connection is removed if identity of the meter can't be read.
+     * @param com Opened connection.
+     * @param manufacturer Manufacturer identification.
+     * @param refresh If true, view is read from the meter and the cache is updated.
+     * @return Association view.
+     * @throws Exception
+     */
+    public GXDLMSObjectCollection getObjects(GXCommunicate com, String manufacturer, boolean refresh) throws Exception
+    {
+        com.cacheEntry = null;
+        //Identity of the meter can't be read without association view when SN referencing is used.
+        if (com.dlms.getUseLogicalNameReferencing())
+        {
+            String ldn = readIdentity(com, "0.0.42.0.0.255");
+            if (ldn != null)
+            {
+                String firmware = readIdentity(com, firmwareVersionLN);
+                Entry e = refresh ? null : load(manufacturer, ldn);
+                if (e != null && !e.firmwareVersion.equals(firmware == null ? "" : firmware))
+                {
+                    e = null;
+                }
+                if (e == null)
+                {
+                    e = new Entry(manufacturer, ldn, firmware == null ? "" : firmware);
+                }
+                com.cacheEntry = e;
+                if (com.scalerCache != null)
+                {
+                    if (refresh)
+                    {
+                        com.scalerCache.invalidate();
+                    }
+                    com.scalerCache.setIdentity(manufacturer + " " + ldn + " " + e.firmwareVersion);
+                }
+            }
+        }
+        if (com.cacheEntry == null)
+        {
+            //Cached scalers are not used if it's not known that the meter is the same.
+            com.scalerCache = null;
+        }
+        Entry e = com.cacheEntry;
+        if (e != null && e.objects != null)
+        {
+            return com.dlms.parseObjects(e.objects, true);
+        }
+        byte[] reply = com.readDataBlock(com.dlms.getObjectsRequest());
+        if (e != null)
+        {
+            e.objects = reply;
+            e.changed = true;
+        }
+        return com.dlms.parseObjects(reply, true);
+    }
+
+    /**
+     * Reads identity value of the meter.
+     * @return Value or null if it can't be read.
+     */
+    private static String readIdentity(GXCommunicate com, String ln)
+    {
+        try
+        {
+            Object value = com.readObject(new GXDLMSData(ln), 2);
+            if (value instanceof byte[])
+            {
+                return GXCommon.toHex((byte[]) value);
+            }
+            return value == null ? null : value.toString();
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Saves association view and cached attributes of the connection
+     * if they have changed.
+     * @param com Connection.
+     * @throws IOException
+     */
+    public void save(GXCommunicate com) throws IOException
+    {
+        Entry e = com.cacheEntry;
+        if (e == null || !e.changed || e.objects == null)
+        {
+            return;
+        }
+        Files.createDirectories(path);
+        Path file = getFile(e.manufacturer, e.logicalDeviceName);
+        Path tmp = Files.createTempFile(path, "cache", ".tmp");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(e.manufacturer);
+                out.writeUTF(e.logicalDeviceName);
+                out.writeUTF(e.firmwareVersion);
+                out.writeInt(e.objects.length);
+                out.write(e.objects);
+                out.writeInt(e.attributes.size());
+                for (Map.Entry<String, byte[]> it : e.attributes.entrySet())
+                {
+                    out.writeUTF(it.getKey());
+                    out.writeInt(it.getValue().length);
+                    out.write(it.getValue());
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+        e.changed = false;
+    }
+
+    /**
+     * Removes cached association view of the meter.
+     * @param manufacturer Manufacturer identification.
+     * @param logicalDeviceName Logical device name of the meter.
+     * @throws IOException
+     */
+    public void invalidate(String manufacturer, String logicalDeviceName) throws IOException
+    {
+        Files.deleteIfExists(getFile(manufacturer, logicalDeviceName));
+    }
+
+    /**
+     * Removes cached association view of the connected meter.
+     * Association view is read from the meter on the next time.
+     * @param com Connection.
+     * @throws IOException
+     */
+    public void invalidate(GXCommunicate com) throws IOException
+    {
+        Entry e = com.cacheEntry;
+        if (e != null)
+        {
+            invalidate(e.manufacturer, e.logicalDeviceName);
+            com.cacheEntry = null;
+        }
+    }
+
+    private Path getFile(String manufacturer, String logicalDeviceName)
+    {
+        String name = (manufacturer + "_" + logicalDeviceName).replaceAll("[^A-Za-z0-9_\\-]", "");
+        return path.resolve(name + ".cache");
+    }
+
+    /**
+     * Loads cached association view.
+     * @return Cached entry or null if it's not found or it's invalid.
+     */
+    private Entry load(String manufacturer, String logicalDeviceName)
+    {
+        Path file = getFile(manufacturer, logicalDeviceName);
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                {
+                    return null;
+                }
+                String man = in.readUTF();
+                String ldn = in.readUTF();
+                if (!man.equals(manufacturer) || !ldn.equals(logicalDeviceName))
+                {
+                    return null;
+                }
+                Entry e = new Entry(man, ldn, in.readUTF());
+                e.objects = new byte[in.readInt()];
+                in.readFully(e.objects);
+                int count = in.readInt();
+                for (int pos = 0; pos != count; ++pos)
+                {
+                    String key = in.readUTF();
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    e.attributes.put(key, value);
+                }
+                return e;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Invalid association view cache " + file + ". " + ex.getMessage());
+            return null;
+        }
+    }
+}
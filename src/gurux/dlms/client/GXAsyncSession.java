@@ -0,0 +1,554 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSCaptureObject;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous interface for one meter session.
+ * DLMS association allows only one request at the time, so operations are
+ * queued and run one by one. Operations with higher priority are run first
+ * and operations with the same priority are run in deadline order.
+ * Long operations give way to queued operations with higher priority
+ * between the requests, so urgent reads don't wait until a profile harvest
+ * is completed.
+ * Operations of all sessions share the same executor. One operation is run
+ * at each turn, so thread is used only while the request is running
+ * and many meters can be read with a few threads.
+ */
+public class GXAsyncSession
+{
+    private final GXCommunicate com;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final PriorityQueue<GXFuture<?>> queue = new PriorityQueue<GXFuture<?>>(11, new Comparator<GXFuture<?>>()
+    {
+        @Override
+        public int compare(GXFuture<?> a, GXFuture<?> b)
+        {
+            if (a.getPriority() != b.getPriority())
+            {
+                return b.getPriority().compareTo(a.getPriority());
+            }
+            if (a.getDeadline() != b.getDeadline())
+            {
+                //Operations without deadline are run last.
+                if (a.getDeadline() == 0 || b.getDeadline() == 0)
+                {
+                    return a.getDeadline() == 0 ? 1 : -1;
+                }
+                return a.getDeadline() < b.getDeadline() ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+        }
+    });
+    private long sequence;
+    private boolean running;
+    private boolean closed;
+    private long timeout;
+    /**
+     * Operation that is running.
+     */
+    private GXFuture<?> current;
+    private final AtomicLong missedDeadlines = new AtomicLong();
+    private final Runnable next = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            runNext();
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param com Connected session.
+     * @param executor Executor that runs the operations.
+     * @param timer Timer that expires operations at the deadline.
+     * If null, deadline is checked only when operation is started.
+     */
+    public GXAsyncSession(GXCommunicate com, Executor executor, ScheduledExecutorService timer)
+    {
+        this.com = com;
+        this.executor = executor;
+        this.timer = timer;
+        com.setYieldHandler(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runUrgent();
+            }
+        });
+    }
+
+    /**
+     * Connects to the meter without blocking the caller.
+     * @param factory Session factory.
+     * @param meter Meter.
+     * @param executor Executor that runs the operations.
+     * @param timer Timer that expires operations at the deadline or null.
+     * @return Connected session.
+     */
+    public static GXFuture<GXAsyncSession> connect(final IGXSessionFactory factory,
+            final GXMeterEndpoint meter, final Executor executor, final ScheduledExecutorService timer)
+    {
+        GXFuture<GXAsyncSession> f = new GXFuture<GXAsyncSession>(new Callable<GXAsyncSession>()
+        {
+            @Override
+            public GXAsyncSession call() throws Exception
+            {
+                return new GXAsyncSession(factory.connect(meter), executor, timer);
+            }
+        }, 0);
+        executor.execute(f);
+        return f;
+    }
+
+    /**
+     * @return Session.
+     */
+    public GXCommunicate getSession()
+    {
+        return com;
+    }
+
+    /**
+     * @return Default time in milliseconds that operation can take including
+     * the time it waits in the queue. Zero if operations don't expire.
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * @param value Default time in milliseconds that operation can take including
+     * the time it waits in the queue. Zero if operations don't expire.
+     */
+    public void setTimeout(long value)
+    {
+        timeout = value;
+    }
+
+    /**
+     * @return Amount of the operations that are waiting in the queue.
+     */
+    public int getPending()
+    {
+        synchronized (queue)
+        {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return Amount of the operations that were not completed before the deadline.
+     */
+    public long getMissedDeadlines()
+    {
+        return missedDeadlines.get();
+    }
+
+    /**
+     * Adds operation to the queue.
+     * @param task Operation.
+     * @param priority Priority of the operation.
+     * @param timeout Time in milliseconds that operation can take including
+     * the time it waits in the queue. Zero if operation doesn't expire.
+     * @return Result of the operation.
+     */
+    public <T> GXFuture<T> submit(final IGXSessionTask<T> task, GXPriority priority, long timeout)
+    {
+        final GXFuture<T> f = new GXFuture<T>(new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                return task.run(com);
+            }
+        }, timeout <= 0 ? 0 : System.currentTimeMillis() + timeout, priority);
+        boolean start = false;
+        synchronized (queue)
+        {
+            if (closed)
+            {
+                f.fail(new IllegalStateException("Session is closed."));
+                return f;
+            }
+            f.sequence = sequence++;
+            queue.add(f);
+            if (!running)
+            {
+                running = start = true;
+            }
+        }
+        if (timer != null && timeout > 0)
+        {
+            final ScheduledFuture<?> expire = timer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    f.expire();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            f.addListener(new IGXFutureListener<T>()
+            {
+                @Override
+                public void onCompleted(GXFuture<T> future)
+                {
+                    expire.cancel(false);
+                }
+            });
+        }
+        if (timeout > 0)
+        {
+            f.addListener(new IGXFutureListener<T>()
+            {
+                @Override
+                public void onCompleted(GXFuture<T> future)
+                {
+                    if (!future.isCancelled() && System.currentTimeMillis() >= future.getDeadline())
+                    {
+                        missedDeadlines.incrementAndGet();
+                        com.getMetrics().onDeadlineMissed();
+                    }
+                }
+            });
+        }
+        if (start)
+        {
+            execute();
+        }
+        return f;
+    }
+
+    /**
+     * Adds operation to the queue using normal priority.
+     * @param task Operation.
+     * @param timeout Time in milliseconds that operation can take including
+     * the time it waits in the queue. Zero if operation doesn't expire.
+     * @return Result of the operation.
+     */
+    public <T> GXFuture<T> submit(IGXSessionTask<T> task, long timeout)
+    {
+        return submit(task, GXPriority.NORMAL, timeout);
+    }
+
+    /**
+     * Adds operation to the queue using normal priority and default timeout.
+     * @param task Operation.
+     * @return Result of the operation.
+     */
+    public <T> GXFuture<T> submit(IGXSessionTask<T> task)
+    {
+        return submit(task, GXPriority.NORMAL, timeout);
+    }
+
+    /**
+     * Runs the operation unless it's already done or expired.
+     */
+    private void run(GXFuture<?> f)
+    {
+        if (f != null && !f.isDone())
+        {
+            if (f.getDeadline() != 0 && System.currentTimeMillis() >= f.getDeadline())
+            {
+                f.expire();
+            }
+            else
+            {
+                GXFuture<?> previous = current;
+                current = f;
+                try
+                {
+                    f.run();
+                }
+                finally
+                {
+                    current = previous;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs queued operations that have higher priority than the running operation.
+     * This is called by the running operation between the requests.
+     */
+    private void runUrgent()
+    {
+        GXFuture<?> running = current;
+        if (running == null)
+        {
+            return;
+        }
+        while (true)
+        {
+            GXFuture<?> f;
+            synchronized (queue)
+            {
+                f = queue.peek();
+                if (f == null || f.getPriority().compareTo(running.getPriority()) <= 0)
+                {
+                    break;
+                }
+                queue.poll();
+            }
+            run(f);
+        }
+    }
+
+    /**
+     * Runs next operation from the queue.
+     */
+    private void runNext()
+    {
+        GXFuture<?> f;
+        synchronized (queue)
+        {
+            f = queue.poll();
+        }
+        try
+        {
+            run(f);
+        }
+        finally
+        {
+            boolean more;
+            synchronized (queue)
+            {
+                more = !queue.isEmpty();
+                running = more;
+            }
+            //Next operation is run at the next turn so sessions share threads fairly.
+            if (more)
+            {
+                execute();
+            }
+        }
+    }
+
+    private void execute()
+    {
+        try
+        {
+            executor.execute(next);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            synchronized (queue)
+            {
+                running = false;
+                for (GXFuture<?> it : queue)
+                {
+                    it.fail(ex);
+                }
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads attribute value.
+     * @param item Object to read.
+     * @param attributeIndex Attribute index.
+     * @return Read value.
+     */
+    public GXFuture<Object> readObject(final GXDLMSObject item, final int attributeIndex)
+    {
+        return submit(new IGXSessionTask<Object>()
+        {
+            @Override
+            public Object run(GXCommunicate com) throws Exception
+            {
+                return com.readObject(item, attributeIndex);
+            }
+        });
+    }
+
+    /**
+     * Reads several attributes with as few requests as possible.
+     * @param list Objects and attribute indexes to read.
+     * @return Read values. If attribute can't be read, value is the occurred exception.
+     */
+    public GXFuture<Object[]> readObjects(final List<Map.Entry<GXDLMSObject, Integer>> list)
+    {
+        return submit(new IGXSessionTask<Object[]>()
+        {
+            @Override
+            public Object[] run(GXCommunicate com) throws Exception
+            {
+                return com.readObjects(list);
+            }
+        });
+    }
+
+    /**
+     * Writes attribute value.
+     * @param item Object to write.
+     * @param attributeIndex Attribute index.
+     * @return Completed when value is written.
+     */
+    public GXFuture<Void> writeObject(final GXDLMSObject item, final int attributeIndex)
+    {
+        return submit(new IGXSessionTask<Void>()
+        {
+            @Override
+            public Void run(GXCommunicate com) throws Exception
+            {
+                com.writeObject(item, attributeIndex);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reads capture objects of the profile generic.
+     * @param pg Profile generic.
+     * @return Columns.
+     */
+    public GXFuture<List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>>> getColumns(final GXDLMSObject pg)
+    {
+        return submit(new IGXSessionTask<List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>>>()
+        {
+            @Override
+            public List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> run(GXCommunicate com) throws Exception
+            {
+                return com.GetColumns(pg);
+            }
+        });
+    }
+
+    /**
+     * Reads profile generic rows by entry.
+     * @param pg Profile generic.
+     * @param index First row index. Index starts from one.
+     * @param count Amount of rows.
+     * @return Read rows.
+     */
+    public GXFuture<Object[]> readRowsByEntry(final GXDLMSObject pg, final int index, final int count)
+    {
+        return submit(new IGXSessionTask<Object[]>()
+        {
+            @Override
+            public Object[] run(GXCommunicate com) throws Exception
+            {
+                return com.readRowsByEntry(pg, index, count);
+            }
+        });
+    }
+
+    /**
+     * Reads profile generic rows by range.
+     * @param pg Profile generic.
+     * @param sortedItem Column that is used in the range.
+     * @param start Start time.
+     * @param end End time.
+     * @return Read rows.
+     */
+    public GXFuture<Object[]> readRowsByRange(final GXDLMSObject pg, final GXDLMSObject sortedItem,
+            final Date start, final Date end)
+    {
+        return submit(new IGXSessionTask<Object[]>()
+        {
+            @Override
+            public Object[] run(GXCommunicate com) throws Exception
+            {
+                return com.readRowsByRange(pg, sortedItem, start, end);
+            }
+        });
+    }
+
+    /**
+     * Reads new rows of the profile generic with low priority.
+     * Operations with higher priority are run between the requests of the harvest.
+     * @param harvester Profile harvester.
+     * @param meter Meter identification.
+     * @param pg Profile generic.
+     * @return Amount of new rows.
+     */
+    public GXFuture<Integer> harvest(final GXProfileHarvester harvester, final String meter,
+            final GXDLMSProfileGeneric pg)
+    {
+        return submit(new IGXSessionTask<Integer>()
+        {
+            @Override
+            public Integer run(GXCommunicate com) throws Exception
+            {
+                return harvester.harvest(com, meter, pg);
+            }
+        }, GXPriority.LOW, 0);
+    }
+
+    /**
+     * Closes the session after the queued operations are run.
+     * New operations are not accepted after this.
+     * @return Completed when connection is closed.
+     */
+    public GXFuture<Void> close()
+    {
+        GXFuture<Void> f = submit(new IGXSessionTask<Void>()
+        {
+            @Override
+            public Void run(GXCommunicate com) throws Exception
+            {
+                com.close();
+                return null;
+            }
+        }, GXPriority.LOW, 0);
+        synchronized (queue)
+        {
+            closed = true;
+        }
+        return f;
+    }
+}
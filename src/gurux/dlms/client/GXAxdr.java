@@ -0,0 +1,334 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+/**
+ * Helpers for A-XDR encoded DLMS data.
+ * Methods return -1 if data is not complete yet.
+ */
+final class GXAxdr
+{
+    /**
+     * Time zone of the date-time values without deviation.
+     */
+    private static final java.util.TimeZone LOCAL = java.util.TimeZone.getDefault();
+
+    static final int NONE = 0;
+    static final int ARRAY = 1;
+    static final int STRUCTURE = 2;
+    static final int BOOLEAN = 3;
+    static final int BIT_STRING = 4;
+    static final int INT32 = 5;
+    static final int UINT32 = 6;
+    static final int OCTET_STRING = 9;
+    static final int STRING = 10;
+    static final int STRING_UTF8 = 12;
+    static final int BCD = 13;
+    static final int INT8 = 15;
+    static final int INT16 = 16;
+    static final int UINT8 = 17;
+    static final int UINT16 = 18;
+    static final int COMPACT_ARRAY = 19;
+    static final int INT64 = 20;
+    static final int UINT64 = 21;
+    static final int ENUM = 22;
+    static final int FLOAT32 = 23;
+    static final int FLOAT64 = 24;
+    static final int DATETIME = 25;
+    static final int DATE = 26;
+    static final int TIME = 27;
+
+    private GXAxdr()
+    {
+    }
+
+    /**
+     * Returns size of fixed size value.
+     * @param type Data type.
+     * @return Size in bytes or -1 if type is variable size.
+     */
+    static int getSize(int type)
+    {
+        switch (type)
+        {
+            case NONE:
+                return 0;
+            case BOOLEAN:
+            case BCD:
+            case INT8:
+            case UINT8:
+            case ENUM:
+                return 1;
+            case INT16:
+            case UINT16:
+                return 2;
+            case INT32:
+            case UINT32:
+            case FLOAT32:
+            case TIME:
+                return 4;
+            case DATE:
+                return 5;
+            case INT64:
+            case UINT64:
+            case FLOAT64:
+                return 8;
+            case DATETIME:
+                return 12;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns how many bytes are used for length.
+     * @param data Data.
+     * @param pos Position of the length.
+     * @param end End of data.
+     * @return Size of length or -1 if data is not complete.
+     */
+    static int getLengthSize(byte[] data, int pos, int end)
+    {
+        if (pos >= end)
+        {
+            return -1;
+        }
+        int size = 1;
+        if ((data[pos] & 0x80) != 0)
+        {
+            size += data[pos] & 0x7F;
+        }
+        return pos + size > end ? -1 : size;
+    }
+
+    /**
+     * Reads A-XDR length.
+     * @param data Data.
+     * @param pos Position of the length.
+     * @return Length.
+     */
+    static int getLength(byte[] data, int pos)
+    {
+        int value = data[pos] & 0xFF;
+        if ((value & 0x80) == 0)
+        {
+            return value;
+        }
+        int count = value & 0x7F;
+        value = 0;
+        for (int i = 1; i <= count; ++i)
+        {
+            value = (value << 8) | (data[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Writes A-XDR length.
+     * @param data Target buffer.
+     * @param pos Position where length is written.
+     * @param value Length.
+     * @return Position after the length.
+     */
+    static int setLength(byte[] data, int pos, int value)
+    {
+        if (value < 0x80)
+        {
+            data[pos++] = (byte) value;
+        }
+        else if (value < 0x100)
+        {
+            data[pos++] = (byte) 0x81;
+            data[pos++] = (byte) value;
+        }
+        else
+        {
+            data[pos++] = (byte) 0x82;
+            data[pos++] = (byte) (value >> 8);
+            data[pos++] = (byte) value;
+        }
+        return pos;
+    }
+
+    /**
+     * Converts DLMS date-time to milliseconds.
+     * If deviation is not given time is in local time.
+     * @param data Data.
+     * @param pos Position of the first byte of the 12 byte date-time.
+     * @return Time in milliseconds or Long.MIN_VALUE if date is not specified.
+     */
+    static long getDateTime(byte[] data, int pos)
+    {
+        int year = ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+        int month = data[pos + 2] & 0xFF;
+        int day = data[pos + 3] & 0xFF;
+        if (year == 0xFFFF || month < 1 || month > 12 || day < 1 || day > 31)
+        {
+            return Long.MIN_VALUE;
+        }
+        int hour = data[pos + 5] & 0xFF;
+        int minute = data[pos + 6] & 0xFF;
+        int second = data[pos + 7] & 0xFF;
+        int hundredths = data[pos + 8] & 0xFF;
+        int deviation = (short) (((data[pos + 9] & 0xFF) << 8) | (data[pos + 10] & 0xFF));
+        long value = toEpochDay(year, month, day) * 86400000L
+                + 3600000L * (hour == 0xFF ? 0 : hour)
+                + 60000L * (minute == 0xFF ? 0 : minute)
+                + 1000L * (second == 0xFF ? 0 : second);
+        if (deviation == (short) 0x8000)
+        {
+            //Time is local time. Time in daylight saving gap is moved forward as Calendar does.
+            int offset = LOCAL.getOffset(value - LOCAL.getRawOffset());
+            int tmp = LOCAL.getOffset(value - offset);
+            value -= tmp != offset ? tmp : offset;
+        }
+        if (hundredths != 0xFF)
+        {
+            value += 10 * hundredths;
+        }
+        if (deviation != (short) 0x8000)
+        {
+            //Deviation is minutes from local time to UTC.
+            value += 60000L * deviation;
+        }
+        return value;
+    }
+
+    /**
+     * Returns days from 1970-01-01. Calendar is not used,
+     * so date-time values can be decoded without allocating memory.
+     */
+    static long toEpochDay(int year, int month, int day)
+    {
+        if (month <= 2)
+        {
+            --year;
+        }
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Skips one encoded value.
+     * @param data Data.
+     * @param pos Position of the data type tag.
+     * @param end End of data.
+     * @return Position after the value or -1 if value is not complete.
+     */
+    static int skip(byte[] data, int pos, int end)
+    {
+        if (pos >= end)
+        {
+            return -1;
+        }
+        int type = data[pos++] & 0xFF;
+        int size = getSize(type);
+        if (size != -1)
+        {
+            return pos + size > end ? -1 : pos + size;
+        }
+        if (type == COMPACT_ARRAY)
+        {
+            //Type description is skipped and contents is handled like octet string.
+            pos = skipTypeDescription(data, pos, end);
+            if (pos == -1)
+            {
+                return -1;
+            }
+            type = OCTET_STRING;
+        }
+        int len = getLengthSize(data, pos, end);
+        if (len == -1)
+        {
+            return -1;
+        }
+        int count = getLength(data, pos);
+        pos += len;
+        switch (type)
+        {
+            case ARRAY:
+            case STRUCTURE:
+                for (int i = 0; i != count && pos != -1; ++i)
+                {
+                    pos = skip(data, pos, end);
+                }
+                return pos;
+            case BIT_STRING:
+                count = (count + 7) / 8;
+                break;
+            case OCTET_STRING:
+            case STRING:
+            case STRING_UTF8:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid data type: " + type);
+        }
+        return pos + count > end ? -1 : pos + count;
+    }
+
+    /**
+     * Skips type description of the compact array.
+     */
+    private static int skipTypeDescription(byte[] data, int pos, int end)
+    {
+        if (pos >= end)
+        {
+            return -1;
+        }
+        int type = data[pos++] & 0xFF;
+        if (type == ARRAY)
+        {
+            return pos + 2 > end ? -1 : skipTypeDescription(data, pos + 2, end);
+        }
+        if (type == STRUCTURE)
+        {
+            int len = getLengthSize(data, pos, end);
+            if (len == -1)
+            {
+                return -1;
+            }
+            int count = getLength(data, pos);
+            pos += len;
+            for (int i = 0; i != count && pos != -1; ++i)
+            {
+                pos = skipTypeDescription(data, pos, end);
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,706 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.common.IGXMedia;
+import gurux.dlms.GXDLMSClient;
+import gurux.dlms.enums.Authentication;
+import gurux.dlms.manufacturersettings.GXManufacturerCollection;
+import gurux.dlms.objects.GXDLMSClock;
+import gurux.dlms.objects.GXDLMSData;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSRegister;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures frame handling, data block reassembly, association view parsing
+ * and profile generic decoding. GXCommunicate is used against replayed
+ * replies, so no meter or network is needed.
+ *
+ * Usage: GXBenchmark [/s=seconds] [/r=trace.txt] [/m=meters /c=count /l=ms /j=ms /x=loss]
+ * /s Measurement time of each benchmark in seconds.
+ * /r Replay frames from the trace file.
+ * /m Poll given amount of simulated meters.
+ * /c Amount of meters that are read at the same time.
+ * /l Latency of the simulated meter in milliseconds.
+ * /j Jitter of the simulated meter in milliseconds.
+ * /x Probability (0 - 1) that reply is lost.
+ */
+public class GXBenchmark
+{
+    /**
+     * Benchmarked operation.
+     */
+    interface Task
+    {
+        /**
+         * Runs the operation once.
+         * @throws Exception
+         */
+        void run() throws Exception;
+    }
+
+    private static final int CLIENT = GXSimulatorMedia.CLIENT;
+    private static final int SERVER = 1;
+    /**
+     * Maximum size of the data block in the replies.
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    private final int seconds;
+    private GXReplayMedia media;
+    private GXCommunicate com;
+    private GXTraceWriter traceFile;
+    private File traceName;
+
+    /**
+     * Constructor.
+     * @param seconds Measurement time of each benchmark in seconds.
+     */
+    public GXBenchmark(int seconds)
+    {
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int seconds = 2;
+        String replay = null;
+        int meters = 0, concurrency = 10, latency = 20, jitter = 10;
+        double loss = 0;
+        for (String it : args)
+        {
+            if (it.startsWith("/s="))
+            {
+                seconds = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/r="))
+            {
+                replay = it.substring(3);
+            }
+            else if (it.startsWith("/m="))
+            {
+                meters = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/c="))
+            {
+                concurrency = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/l="))
+            {
+                latency = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/j="))
+            {
+                jitter = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/x="))
+            {
+                loss = Double.parseDouble(it.substring(3));
+            }
+            else
+            {
+                System.out.println("GXBenchmark [/s=seconds] [/r=trace.txt] [/m=meters /c=count /l=ms /j=ms /x=loss]");
+                return;
+            }
+        }
+        GXBenchmark b = new GXBenchmark(seconds);
+        if (getAllocatedBytes() < 0)
+        {
+            System.out.println("Allocated bytes can't be measured in this JVM.");
+        }
+        if (meters != 0)
+        {
+            b.runPolling(meters, concurrency, latency, jitter, loss);
+        }
+        else if (replay == null)
+        {
+            b.runAll();
+        }
+        else
+        {
+            b.runReplay(replay);
+        }
+    }
+
+    /**
+     * Runs benchmarks with generated replies.
+     * @throws Exception
+     */
+    public void runAll() throws Exception
+    {
+        connect(new GXReplayMedia(new ArrayList<byte[]>(), true));
+        try
+        {
+            benchmarkFrames();
+            benchmarkBlocks();
+            benchmarkAssociationView(300);
+            //1 day, 1 month and 1 year of 15 minute data.
+            int[] days = new int[] { 1, 31, 365 };
+            for (int it : days)
+            {
+                benchmarkProfile(it);
+            }
+        }
+        finally
+        {
+            disconnect();
+        }
+    }
+
+    /**
+     * Sends recorded requests and receives recorded replies.
+     * @param fileName Trace file.
+     * @throws Exception
+     */
+    public void runReplay(String fileName) throws Exception
+    {
+        GXReplayMedia m = GXReplayMedia.load(fileName, true);
+        if (m.getReplies().isEmpty())
+        {
+            throw new Exception("Trace file don't have received frames.");
+        }
+        //HDLC frame starts with 0x7E.
+        if (m.getReplies().get(0)[0] == 0x7E)
+        {
+            m = GXReplayMedia.load(fileName, false);
+        }
+        final List<byte[]> requests = m.getRequests();
+        final int count = Math.min(requests.size(), m.getReplies().size());
+        m.setLoopStart(0);
+        connect(m);
+        try
+        {
+            run("Replay " + count + " frames", new Task()
+            {
+                @Override
+                public void run() throws Exception
+                {
+                    media.setPosition(0);
+                    for (int pos = 0; pos != count; ++pos)
+                    {
+                        com.readPacket(requests.get(pos));
+                    }
+                }
+            }, count, "frames");
+        }
+        finally
+        {
+            disconnect();
+        }
+    }
+
+    /**
+     * Polls simulated meters and prints throughput and read time percentiles.
+     * @param meters Amount of meters.
+     * @param concurrency Amount of meters that are read at the same time.
+     * @param latency Latency of the meter in milliseconds.
+     * @param jitter Jitter of the meter in milliseconds.
+     * @param loss Probability (0 - 1) that reply is lost.
+     * @throws Exception
+     */
+    public void runPolling(int meters, int concurrency, final int latency, final int jitter, final double loss) throws Exception
+    {
+        final GXSimulatedMeter model = GXSimulatedMeter.createDefault("SIM0000001");
+        final List<GXMeterEndpoint> list = new ArrayList<GXMeterEndpoint>(meters);
+        for (int pos = 0; pos != meters; ++pos)
+        {
+            list.add(GXMeterEndpoint.parse("/m=sim /h=meter" + pos + " /p=4059"));
+        }
+        final long[] connectTimes = new long[meters];
+        final long[] readTimes = new long[meters];
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong values = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong frames = new AtomicLong();
+        IGXPollingSink sink = new IGXPollingSink()
+        {
+            @Override
+            public void onValue(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Object value)
+            {
+                values.incrementAndGet();
+            }
+
+            @Override
+            public void onError(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Exception ex)
+            {
+                errors.incrementAndGet();
+            }
+
+            @Override
+            public void onCompleted(GXMeterEndpoint meter, long connectTime, long readTime)
+            {
+                int pos = (int) completed.getAndIncrement();
+                connectTimes[pos] = connectTime;
+                readTimes[pos] = readTime;
+            }
+        };
+        GXManufacturerCollection manufacturers = new GXManufacturerCollection();
+        manufacturers.add(GXSimulatorMedia.createManufacturer("sim", true));
+        traceName = File.createTempFile("benchmark", ".txt");
+        traceFile = new GXTraceWriter(traceName.getPath());
+        GXPollingEngine engine = new GXPollingEngine(manufacturers, concurrency, sink, traceFile)
+        {
+            @Override
+            protected IGXMedia createMedia(GXMeterEndpoint meter)
+            {
+                GXSimulatorMedia m = new GXSimulatorMedia(model, true, list.indexOf(meter))
+                {
+                    @Override
+                    protected void onSend(byte[] data) throws Exception
+                    {
+                        frames.incrementAndGet();
+                        super.onSend(data);
+                    }
+                };
+                m.setLatency(latency);
+                m.setJitter(jitter);
+                m.setLoss(loss);
+                return m;
+            }
+        };
+        //Lost reply is noticed faster.
+        engine.setWaitTime(Math.max(200, 4 * (latency + jitter)));
+        long start = System.nanoTime();
+        try
+        {
+            engine.poll(list);
+        }
+        finally
+        {
+            traceFile.close();
+            traceName.delete();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d meters in %.2f s: %.1f meters/s, %.0f frames/s, %d values, %d errors",
+                meters, elapsed, meters / elapsed, frames.get() / elapsed, values.get(), errors.get()));
+        System.out.println("Connect time " + getPercentiles(connectTimes));
+        System.out.println("Read time    " + getPercentiles(readTimes));
+    }
+
+    /**
+     * Returns 50, 90, 99 percentiles and maximum value.
+     */
+    private static String getPercentiles(long[] values)
+    {
+        long[] tmp = values.clone();
+        Arrays.sort(tmp);
+        int last = tmp.length - 1;
+        return String.format("p50 %d ms, p90 %d ms, p99 %d ms, max %d ms",
+                tmp[last * 50 / 100], tmp[last * 90 / 100], tmp[last * 99 / 100], tmp[last]);
+    }
+
+    /**
+     * Reads one register value in each round trip.
+     */
+    private void benchmarkFrames() throws Exception
+    {
+        replay(getResponse(new byte[] { 6, 0, 0, 0x12, 0x34 }));
+        final GXDLMSRegister target = new GXDLMSRegister("1.0.1.8.0.255");
+        run("Frame round trip", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                com.readObject(target, 2);
+            }
+        }, 1, "frames");
+    }
+
+    /**
+     * Receives 64 kB value that is split to data blocks.
+     */
+    private void benchmarkBlocks() throws Exception
+    {
+        final byte[] value = getProfile(672);
+        replay(getResponse(value));
+        final byte[] request = com.dlms.read("1.0.99.1.0.255", gurux.dlms.enums.ObjectType.PROFILE_GENERIC, 2)[0];
+        run("Block reassembly " + value.length / 1024 + " kB", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                media.setPosition(0);
+                com.readDataBlock(request);
+            }
+        }, value.length / 1024.0, "kB");
+    }
+
+    /**
+     * Reads and parses association view.
+     * @param count Amount of objects.
+     */
+    private void benchmarkAssociationView(int count) throws Exception
+    {
+        replay(getResponse(getAssociationView(count)));
+        final byte[] request = com.dlms.getObjectsRequest();
+        run("Association view " + count + " objects", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                media.setPosition(0);
+                com.dlms.parseObjects(com.readDataBlock(request), true);
+            }
+        }, count, "objects");
+    }
+
+    /**
+     * Decodes profile generic rows.
+     * @param days Amount of days in 15 minute profile.
+     */
+    private void benchmarkProfile(int days) throws Exception
+    {
+        final int rows = 96 * days;
+        final byte[] value = getProfile(rows);
+        final GXDLMSObject[] columns = new GXDLMSObject[]
+        {
+            new GXDLMSClock("0.0.1.0.0.255"), new GXDLMSRegister("1.0.1.8.0.255"),
+            new GXDLMSRegister("1.0.2.8.0.255"), new GXDLMSData("0.0.96.10.1.255")
+        };
+        final IGXRowListener rowListener = new IGXRowListener()
+        {
+            @Override
+            public void onRow(Object[] row)
+            {
+            }
+        };
+        final GXProfileColumns store = new GXProfileColumns(columns, rows);
+        run("Decode " + days + " days to rows", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                GXRowDecoder decoder = new GXRowDecoder(columns, rowListener);
+                for (int pos = 0; pos < value.length; pos += BLOCK_SIZE)
+                {
+                    decoder.append(value, pos, Math.min(BLOCK_SIZE, value.length - pos));
+                }
+            }
+        }, rows, "rows");
+        run("Decode " + days + " days to columns", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                store.clear();
+                GXRowDecoder decoder = new GXRowDecoder(columns, store);
+                for (int pos = 0; pos < value.length; pos += BLOCK_SIZE)
+                {
+                    decoder.append(value, pos, Math.min(BLOCK_SIZE, value.length - pos));
+                }
+            }
+        }, rows, "rows");
+        replay(getResponse(value));
+        final byte[] request = com.dlms.readRowsByEntry("1.0.99.1.0.255", 1, rows);
+        run("Read " + days + " days to columns", new Task()
+        {
+            @Override
+            public void run() throws Exception
+            {
+                media.setPosition(0);
+                store.clear();
+                com.readDataBlock(request, new GXRowDecoder(columns, store));
+            }
+        }, rows, "rows");
+    }
+
+    /**
+     * Runs the task first without measuring and then measures it.
+     * @param name Benchmark name.
+     * @param task Benchmarked operation.
+     * @param units Amount of units in one operation.
+     * @param unit Unit name.
+     */
+    private void run(String name, Task task, double units, String unit) throws Exception
+    {
+        measure(task, Math.max(1, seconds / 2));
+        long[] result = measure(task, seconds);
+        double ops = result[0] * 1e9 / result[1];
+        String allocated = result[2] < 0 ? "-" :
+                String.format("%.0f B/%s", result[2] / (result[0] * units), unit.substring(0, unit.length() - 1));
+        System.out.println(String.format("%-36s %12.0f %s/s %12.0f ns/op %16s",
+                name, ops * units, unit, result[1] / (double) result[0], allocated));
+    }
+
+    /**
+     * Runs the task until given time is elapsed.
+     * @return Amount of operations, elapsed nanoseconds and allocated bytes.
+     */
+    private static long[] measure(Task task, int seconds) throws Exception
+    {
+        long end = System.nanoTime() + seconds * 1000000000L;
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        long count = 0;
+        long now;
+        do
+        {
+            task.run();
+            ++count;
+            now = System.nanoTime();
+        }
+        while (now < end);
+        long elapsed = now - start;
+        if (allocated >= 0)
+        {
+            allocated = getAllocatedBytes() - allocated;
+        }
+        return new long[] { count, elapsed, allocated };
+    }
+
+    /**
+     * @return Bytes allocated by the current thread or -1 if it's not supported.
+     */
+    static long getAllocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled())
+            {
+                return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Connects to the replayed meter.
+     */
+    private void connect(GXReplayMedia m) throws Exception
+    {
+        traceName = File.createTempFile("benchmark", ".txt");
+        traceFile = new GXTraceWriter(traceName.getPath());
+        media = m;
+        media.open();
+        com = new GXCommunicate(5000, new GXDLMSClient(), GXSimulatorMedia.createManufacturer("sim", m.isNet()),
+                false, Authentication.NONE, "", media, traceFile);
+        com.setTraceLevel(GXTraceLevel.OFF);
+    }
+
+    private void disconnect() throws Exception
+    {
+        media.close();
+        traceFile.close();
+        traceName.delete();
+    }
+
+    /**
+     * Sets replayed replies. Replies are repeated from the beginning.
+     */
+    private void replay(List<byte[]> replies)
+    {
+        media.getReplies().clear();
+        media.getReplies().addAll(replies);
+        media.setPosition(0);
+        media.setLoopStart(0);
+    }
+
+    /**
+     * Returns GET response. Value is split to data blocks if it's too big for one reply.
+     * @param value Encoded value.
+     * @return Replies.
+     */
+    static List<byte[]> getResponse(byte[] value)
+    {
+        List<byte[]> replies = new ArrayList<byte[]>();
+        if (value.length + 4 <= BLOCK_SIZE)
+        {
+            byte[] apdu = new byte[4 + value.length];
+            apdu[0] = (byte) 0xC4;
+            apdu[1] = 1;
+            apdu[2] = (byte) 0x81;
+            apdu[3] = 0;
+            System.arraycopy(value, 0, apdu, 4, value.length);
+            replies.add(wrap(apdu, apdu.length));
+            return replies;
+        }
+        int block = 1;
+        for (int pos = 0; pos < value.length; pos += BLOCK_SIZE, ++block)
+        {
+            int len = Math.min(BLOCK_SIZE, value.length - pos);
+            byte[] apdu = new byte[13 + len];
+            apdu[0] = (byte) 0xC4;
+            apdu[1] = 2;
+            apdu[2] = (byte) 0x81;
+            //Last block.
+            apdu[3] = (byte) (pos + len == value.length ? 1 : 0);
+            apdu[4] = (byte) (block >> 24);
+            apdu[5] = (byte) (block >> 16);
+            apdu[6] = (byte) (block >> 8);
+            apdu[7] = (byte) block;
+            //Raw data.
+            apdu[8] = 0;
+            int index = GXAxdr.setLength(apdu, 9, len);
+            System.arraycopy(value, pos, apdu, index, len);
+            replies.add(wrap(apdu, index + len));
+        }
+        return replies;
+    }
+
+    /**
+     * Adds IEC 62056-47 wrapper header to the APDU.
+     */
+    static byte[] wrap(byte[] apdu, int size)
+    {
+        byte[] data = new byte[8 + size];
+        data[1] = 1;
+        data[2] = (byte) (SERVER >> 8);
+        data[3] = (byte) SERVER;
+        data[4] = (byte) (CLIENT >> 8);
+        data[5] = (byte) CLIENT;
+        data[6] = (byte) (size >> 8);
+        data[7] = (byte) size;
+        System.arraycopy(apdu, 0, data, 8, size);
+        return data;
+    }
+
+    /**
+     * Returns encoded 15 minute profile with time, two register values and status.
+     * @param rows Amount of rows.
+     * @return Encoded buffer.
+     */
+    static byte[] getProfile(int rows)
+    {
+        ByteArrayOutputStream bb = new ByteArrayOutputStream(rows * 29 + 5);
+        byte[] tmp = new byte[5];
+        bb.write(GXAxdr.ARRAY);
+        bb.write(tmp, 0, GXAxdr.setLength(tmp, 0, rows));
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(2013, Calendar.JANUARY, 1);
+        for (int pos = 0; pos != rows; ++pos)
+        {
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(4);
+            bb.write(GXAxdr.OCTET_STRING);
+            bb.write(12);
+            int year = cal.get(Calendar.YEAR);
+            bb.write(year >> 8);
+            bb.write(year);
+            bb.write(cal.get(Calendar.MONTH) + 1);
+            bb.write(cal.get(Calendar.DAY_OF_MONTH));
+            bb.write(0xFF);
+            bb.write(cal.get(Calendar.HOUR_OF_DAY));
+            bb.write(cal.get(Calendar.MINUTE));
+            bb.write(0);
+            bb.write(0xFF);
+            //Deviation is not used.
+            bb.write(0x80);
+            bb.write(0);
+            bb.write(0);
+            for (int it = 0; it != 2; ++it)
+            {
+                int value = 1000 * it + pos;
+                bb.write(GXAxdr.UINT32);
+                bb.write(value >> 24);
+                bb.write(value >> 16);
+                bb.write(value >> 8);
+                bb.write(value);
+            }
+            bb.write(GXAxdr.UINT8);
+            bb.write(pos % 96 == 0 ? 0x80 : 0);
+            cal.add(Calendar.MINUTE, 15);
+        }
+        return bb.toByteArray();
+    }
+
+    /**
+     * Returns encoded association view of registers.
+     * @param count Amount of objects.
+     * @return Encoded object list.
+     */
+    static byte[] getAssociationView(int count)
+    {
+        ByteArrayOutputStream bb = new ByteArrayOutputStream();
+        byte[] tmp = new byte[5];
+        bb.write(GXAxdr.ARRAY);
+        bb.write(tmp, 0, GXAxdr.setLength(tmp, 0, count));
+        for (int pos = 0; pos != count; ++pos)
+        {
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(4);
+            //Class ID.
+            bb.write(GXAxdr.UINT16);
+            bb.write(0);
+            bb.write(3);
+            //Version.
+            bb.write(GXAxdr.UINT8);
+            bb.write(0);
+            bb.write(GXAxdr.OCTET_STRING);
+            bb.write(6);
+            bb.write(1);
+            bb.write(0);
+            bb.write(1 + pos / 200);
+            bb.write(8);
+            bb.write(pos % 200);
+            bb.write(255);
+            //Access rights.
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(2);
+            bb.write(GXAxdr.ARRAY);
+            bb.write(3);
+            for (int index = 1; index != 4; ++index)
+            {
+                bb.write(GXAxdr.STRUCTURE);
+                bb.write(3);
+                bb.write(GXAxdr.INT8);
+                bb.write(index);
+                bb.write(GXAxdr.ENUM);
+                bb.write(1);
+                bb.write(GXAxdr.NONE);
+            }
+            bb.write(GXAxdr.ARRAY);
+            bb.write(1);
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(2);
+            bb.write(GXAxdr.INT8);
+            bb.write(1);
+            bb.write(GXAxdr.BOOLEAN);
+            bb.write(1);
+        }
+        return bb.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Byte array output stream that gives access to the internal buffer
+ * so data can be used without copying it.
+ */
+class GXByteArrayOutputStream extends ByteArrayOutputStream
+{
+    /**
+     * Constructor.
+     */
+    GXByteArrayOutputStream()
+    {
+        super();
+    }
+
+    /**
+     * Constructor.
+     * @param size Initial size of the buffer.
+     */
+    GXByteArrayOutputStream(int size)
+    {
+        super(size);
+    }
+
+    /**
+     * Resets the stream so that the buffer can be reused.
+     * If the buffer has grown bigger than the given size,
+     * it's released so that memory is not kept after a big read.
+     * @param maxSize Maximum size of the buffer that is kept.
+     */
+    void reset(int maxSize)
+    {
+        reset();
+        if (buf.length > maxSize)
+        {
+            buf = new byte[maxSize];
+        }
+    }
+
+    /**
+     * Removes bytes from the beginning of the buffer.
+     * @param count Amount of removed bytes.
+     */
+    void remove(int count)
+    {
+        System.arraycopy(buf, count, buf, 0, this.count - count);
+        this.count -= count;
+    }
+
+    /**
+     * @return Internal buffer. Only size() first bytes are valid.
+     */
+    byte[] getBuffer()
+    {
+        return buf;
+    }
+}
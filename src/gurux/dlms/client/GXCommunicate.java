@@ -45,21 +45,18 @@ import gurux.dlms.enums.DataType;
 import gurux.dlms.manufacturersettings.*;
 import gurux.dlms.objects.GXDLMSCaptureObject;
 import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
 import gurux.net.GXNet;
 import gurux.serial.GXSerial;
 import gurux.io.Parity;
 import gurux.io.StopBits;
-import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public class GXCommunicate
 {
@@ -69,18 +66,103 @@ public class GXCommunicate
     GXManufacturer manufacturer;
     public GXDLMSClient dlms;
     boolean iec;
-    java.nio.ByteBuffer replyBuff;
+    /**
+     * Received data is collected here. Buffer is sized from the
+     * negotiated frame size and it's reused for each request.
+     */
+    GXByteArrayOutputStream replyBuff;
+    /**
+     * Size of the reply buffer that is kept between the requests.
+     */
+    int replyBuffSize;
+    /**
+     * Receive parameters are reused for each request.
+     */
+    final ReceiveParameters<byte[]> receiveParameters = new ReceiveParameters<byte[]>(byte[].class);
     int WaitTime = 5000;
+    GXTraceWriter traceFile;
+    GXTraceEncoder trace;
+    /**
+     * Is trace file closed when connection is closed.
+     */
+    boolean ownsTraceFile;
+    /**
+     * Cached association view. Static attribute values are read from here.
+     */
+    GXAssociationCache.Entry cacheEntry;
+    /**
+     * Scalers and units of the registers.
+     */
+    GXScalerCache scalerCache;
+    /**
+     * Max PDU size that the meter can receive. Zero if unknown.
+     */
+    int maxPduSize;
+    /**
+     * Does the meter support GET-WITH-LIST requests.
+     */
+    boolean multipleReferences;
+    /**
+     * How many GET requests are sent before the first reply is read.
+     */
+    int pipelineDepth = 1;
+    /**
+     * Bytes that are received after the previous IEC 62056-47 frame.
+     */
+    byte[] received;
+    /**
+     * Round trip time and resends of the meter.
+     */
+    GXLinkStatistics statistics = new GXLinkStatistics();
+    /**
+     * How requests are resent.
+     */
+    GXRetryPolicy retryPolicy = new GXRetryPolicy();
+    /**
+     * Counters and histograms of the session.
+     */
+    GXMetrics metrics = new GXMetrics();
+    /**
+     * Called between the requests of long operations. Null if not used.
+     */
+    Runnable yieldHandler;
+    /**
+     * OBIS code lookup table. Built from the OBIS codes of the manufacturer if not set.
+     */
+    GXObisMap obisMap;
+    /**
+     * When the last request was sent or zero if round trip time is not measured.
+     */
+    long sent;
+    /**
+     * When received data was decoded after the request was sent or zero if it was not.
+     */
+    long decoded;
 
     public GXCommunicate(int waitTime, gurux.dlms.GXDLMSClient dlms, GXManufacturer manufacturer, boolean iec, Authentication auth, String pw, IGXMedia media) throws Exception
+    {
+        this(waitTime, dlms, manufacturer, iec, auth, pw, media, new GXTraceWriter("trace.txt"));
+        ownsTraceFile = true;
+    }
+
+    /**
+     * Constructor.
+     * @param traceFile Trace file that is shared with other connections.
+     */
+    public GXCommunicate(int waitTime, gurux.dlms.GXDLMSClient dlms, GXManufacturer manufacturer, boolean iec, Authentication auth, String pw, IGXMedia media, GXTraceWriter traceFile) throws Exception
     {       
-        Files.deleteIfExists(Paths.get("trace.txt"));
+        this.traceFile = traceFile;
+        trace = new GXTraceEncoder(traceFile);
         Media = media;
         WaitTime = waitTime;
         this.dlms = dlms;
         this.manufacturer = manufacturer;
         this.iec = iec;
-        boolean useIec47 = manufacturer.getUseIEC47() && media instanceof gurux.net.GXNet;  
+        boolean useIec47 = manufacturer.getUseIEC47() && isNet(media);  
+        if (media instanceof GXNioMedia)
+        {
+            ((GXNioMedia) media).setClient(dlms);
+        }
         dlms.setInterfaceType(useIec47 ? InterfaceType.NET : InterfaceType.GENERAL);
         dlms.setUseLogicalNameReferencing(manufacturer.getUseLogicalNameReferencing());
         Object val = manufacturer.getAuthentication(auth).getClientID();
@@ -107,53 +189,220 @@ public class GXCommunicate
         System.out.println("ServerID: 0x" + Integer.toHexString(Integer.parseInt(dlms.getServerID().toString())));
         if (dlms.getInterfaceType() == InterfaceType.NET)
         {
-            replyBuff = java.nio.ByteBuffer.allocate(8 + 1024);
+            replyBuffSize = 8 + 1024;
         }
         else
         {
-            replyBuff = java.nio.ByteBuffer.allocate(100);
+            replyBuffSize = 100;
         }
+        replyBuff = new GXByteArrayOutputStream(replyBuffSize);
+        receiveParameters.setAllData(true);
+    }
+
+    /**
+     * Is media a network connection where IEC 62056-47 wrapper can be used.
+     * @param media Media.
+     * @return True, if media is a network connection.
+     */
+    static boolean isNet(IGXMedia media)
+    {
+        return media instanceof GXNet || media instanceof GXNioMedia
+                || (media instanceof GXMemoryMedia && ((GXMemoryMedia) media).isNet());
     }
 
     void close() throws Exception
     {
-        if (Media != null)
+        try
         {
-            System.out.println("DisconnectRequest");
-            readDLMSPacket(dlms.disconnectRequest());
-            Media.close();
+            if (Media != null)
+            {
+                System.out.println("DisconnectRequest");
+                readDLMSPacket(dlms.disconnectRequest());
+                Media.close();
+            }
+        }
+        finally
+        {
+            if (ownsTraceFile)
+            {
+                traceFile.close();
+                if (traceFile.getDropped() != 0)
+                {
+                    System.out.println("Trace lines dropped: " + traceFile.getDropped());
+                }
+            }
         }
     }
     
-    String now()
+    /**
+     * @return Scalers and units of the registers. Null, if scalers are always read from the meter.
+     */
+    public GXScalerCache getScalerCache()
     {
-        return new SimpleDateFormat("HH:mm:ss.SSS").format(java.util.Calendar.getInstance().getTime());
+        return scalerCache;
     }
-    
-    void writeTrace(String line)
+
+    /**
+     * @param value Scalers and units of the registers. Null, if scalers are always read from the meter.
+     */
+    public void setScalerCache(GXScalerCache value)
     {
-        if (Trace)
-        {   
-            System.out.println(line);
-        }
-        PrintWriter logFile = null;
-        try 
+        scalerCache = value;
+    }
+
+    /**
+     * @return Where sent and received frames are traced.
+     */
+    public GXTraceLevel getTraceLevel()
+    {
+        return trace.getLevel();
+    }
+
+    /**
+     * @param value Where sent and received frames are traced.
+     */
+    public void setTraceLevel(GXTraceLevel value)
+    {
+        trace.setLevel(value);
+    }
+
+    /**
+     * @return How many GET requests are sent before the first reply is read.
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * Set how many GET requests are sent before the first reply is read.
+     * Requests are pipelined only in IEC 62056-47 connections.
+     * Default is one, when reply is read before the next request is sent.
+     * Invoke ID has four bits, so at most 16 requests can be pipelined.
+     * @param value Pipeline depth.
+     */
+    public void setPipelineDepth(int value)
+    {
+        if (value < 1 || value > 16)
         {
-            logFile = new PrintWriter(new BufferedWriter(new FileWriter("trace.txt", true)));
-            logFile.println(line);            
+            throw new IllegalArgumentException("Pipeline depth must be between 1 and 16.");
         }
-        catch (IOException ex) 
+        pipelineDepth = value;
+    }
+
+    /**
+     * @return Round trip time, resends and timeouts of the meter.
+     */
+    public GXLinkStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Statistics can be shared between the sessions of the same meter
+     * so that measured round trip time is used when meter is connected again.
+     * @param value Round trip time, resends and timeouts of the meter.
+     */
+    public void setStatistics(GXLinkStatistics value)
+    {
+        statistics = value;
+    }
+
+    /**
+     * @return Counters and histograms of the session.
+     */
+    public GXMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Metrics can be shared between the sessions of the same meter.
+     * @param value Counters and histograms of the session.
+     */
+    public void setMetrics(GXMetrics value)
+    {
+        metrics = value;
+    }
+
+    /**
+     * @return OBIS code lookup table.
+     */
+    public GXObisMap getObisMap()
+    {
+        return obisMap;
+    }
+
+    /**
+     * Lookup table can be shared between the sessions of the same manufacturer.
+     * @param value OBIS code lookup table.
+     */
+    public void setObisMap(GXObisMap value)
+    {
+        obisMap = value;
+    }
+
+    /**
+     * Returns description of the object from the manufacturer settings.
+     * @param item Object.
+     * @return Description or null if OBIS code is not found.
+     */
+    String getDescription(GXDLMSObject item)
+    {
+        if (obisMap == null)
         {
-            throw new RuntimeException(ex.getMessage());
+            obisMap = new GXObisMap(manufacturer.getObisCodes());
         }
-        finally
+        return obisMap.getDescription(item.getObjectType(), item.getLogicalName());
+    }
+
+    /**
+     * @return Handler that is called between the requests of long operations.
+     */
+    public Runnable getYieldHandler()
+    {
+        return yieldHandler;
+    }
+
+    /**
+     * Scheduler uses yield handler to run urgent operations
+     * between the requests of long operations.
+     * Handler is called only when no request is waiting for a reply.
+     * @param value Handler that is called between the requests of long operations.
+     */
+    public void setYieldHandler(Runnable value)
+    {
+        yieldHandler = value;
+    }
+
+    /**
+     * Lets the scheduler run urgent operations.
+     * This is called only between the requests. A new request
+     * can't be sent in the middle of a block transfer because
+     * it would abort the transfer.
+     */
+    void yieldPoint()
+    {
+        if (yieldHandler != null)
         {
-            if (logFile != null)
-            {
-                logFile.close();
-            }
+            yieldHandler.run();
         }
-                
+    }
+
+    /**
+     * @return How requests are resent.
+     */
+    public GXRetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * @param value How requests are resent.
+     */
+    public void setRetryPolicy(GXRetryPolicy value)
+    {
+        retryPolicy = value;
     }
     
     public byte[] readDLMSPacket(byte[][] data) throws Exception
@@ -171,67 +420,240 @@ public class GXCommunicate
      * If access is denied return null.
      */
     public byte[] readDLMSPacket(byte[] data) throws Exception
+    {
+        byte[] reply = readPacket(data);
+        if (reply == null)
+        {
+            return null;
+        }
+        Object[][] errors = dlms.checkReplyErrors(data, reply);
+        if (errors != null)
+        {
+            throw getError((Integer) errors[0][0]);
+        }
+        return reply;
+    }
+
+    /**
+     * Counts the error that the meter has returned.
+     * @param errorCode Error code.
+     * @return Exception to throw or return.
+     */
+    GXDLMSException getError(int errorCode)
+    {
+        metrics.onError(errorCode);
+        return new GXDLMSException(errorCode);
+    }
+
+    /**
+     * Sends the request and decodes already received data
+     * while the reply is on the way.
+     * @param data Request.
+     * @param allData Received data.
+     * @param decoder Row decoder or null if received data is kept.
+     * @return Received reply.
+     * @throws Exception
+     */
+    private byte[] readDLMSPacket(byte[] data, GXByteArrayOutputStream allData, GXRowDecoder decoder) throws Exception
+    {
+        if (decoder == null || allData.size() == 0)
+        {
+            return readDLMSPacket(data);
+        }
+        byte[] reply;
+        synchronized (Media.getSynchronous())
+        {
+            sendPacket(data);
+            try
+            {
+                decode(allData, decoder);
+            }
+            finally
+            {
+                decoded = System.nanoTime();
+                //Reply is read even if decoding fails so it's not left to the media.
+                reply = receivePacket(data);
+            }
+        }
+        Object[][] errors = dlms.checkReplyErrors(data, reply);
+        if (errors != null)
+        {
+            throw getError((Integer) errors[0][0]);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends data to the device and waits until whole reply is received.
+     * Reply is not checked for errors.
+     * @param data Sent data.
+     * @return Received reply.
+     * @throws Exception
+     */
+    byte[] readPacket(byte[] data) throws Exception
     {
         if (data == null || data.length == 0)
         {
             return null;
         }
+        synchronized (Media.getSynchronous())
+        {
+            sendPacket(data);
+            return receivePacket(data);
+        }
+    }
+
+    /**
+     * Sends the request without waiting the reply.
+     * Caller must hold the synchronous lock of the media
+     * until the reply is received with receivePacket.
+     * @param data Request.
+     * @throws Exception
+     */
+    void sendPacket(byte[] data) throws Exception
+    {
+        trace.frame(true, data);
+        sent = System.nanoTime();
+        metrics.onSent(data.length);
+        Media.send(data, null);
+    }
+
+    /**
+     * Receives reply for the sent request.
+     * Request is sent again if the reply is not received in given time.
+     * Reply timeout is counted from the measured round trip time.
+     * @param data Sent request. Null if request is not sent again.
+     * @return Received reply.
+     * @throws Exception
+     */
+    byte[] receivePacket(byte[] data) throws Exception
+    {
+        statistics.onRequest();
         Object eop = (byte) 0x7E;
         //In network connection terminator is not used.
-        if (dlms.getInterfaceType() == InterfaceType.NET && Media instanceof GXNet)
+        boolean net = dlms.getInterfaceType() == InterfaceType.NET && isNet(Media);
+        if (net)
         {
             eop = null;
+            byte[] reply = getReceived();
+            if (reply != null)
+            {
+                decoded = 0;
+                metrics.onReceived(reply.length);
+                trace.frame(false, reply);
+                return reply;
+            }
         }
-        Integer pos = 0;
+        int pos = 0;
         boolean succeeded = false;        
-	ReceiveParameters<byte[]> p = new ReceiveParameters<byte[]>(byte[].class);
-        p.setAllData(true);
+        ReceiveParameters<byte[]> p = receiveParameters;
+        p.setReply(received);
+        received = null;
         p.setEop(eop);
         p.setCount(5);
-        p.setWaitTime(WaitTime);        
-        synchronized (Media.getSynchronous())
+        int timeout = retryPolicy.getTimeout(statistics.getRtt().getTimeout(WaitTime), 0);
+        p.setWaitTime(timeout);
+        long time = 0;
+        while (!succeeded)
         {
-            while (!succeeded)
+            if (p.getEop() == null)
             {
-                writeTrace("<- " + now() + "\t" + GXDLMSClient.toHex(data));
-             
-                Media.send(data, null);
-                if (p.getEop() == null)
-                {
-                    p.setCount(1);
-                }
-                succeeded = Media.receive(p);
-                if (!succeeded)
-                {
-                    //Try to read again...
-                    if (pos++ != 3)
-                    {
-                        System.out.println("Data send failed. Try to resend " + pos.toString() + "/3");
-                        continue;
-                    }   
-                    throw new Exception("Failed to receive reply from the device in given time.");
-                }
+                p.setCount(1);
             }
-            //Loop until whole Cosem packet is received.                
-            while (!dlms.isDLMSPacketComplete(p.getReply()))
+            succeeded = Media.receive(p);
+            time = System.nanoTime();
+            if (!succeeded)
             {
-                if (p.getEop() == null)
-                {
-                    p.setCount(1);
-                }
-                if (!Media.receive(p))
+                //Try to read again...
+                if (data != null && pos++ != retryPolicy.getRetries())
                 {
-                    throw new Exception("Failed to receive reply from the device in given time.");
-                }
+                    statistics.onRetry();
+                    metrics.onRetry();
+                    int tmp = retryPolicy.getTimeout(timeout, pos);
+                    statistics.getRtt().setBackoff(tmp);
+                    p.setWaitTime(tmp);
+                    System.out.println("Data send failed. Try to resend " + pos + "/" + retryPolicy.getRetries());
+                    sendPacket(data);
+                    continue;
+                }   
+                statistics.onTimeout();
+                metrics.onTimeout();
+                p.setReply(null);
+                throw new Exception("Failed to receive reply from the device in given time.");
             }
         }
-        writeTrace("-> " + now() + "\t" + GXDLMSClient.toHex(p.getReply()));
-        Object[][] errors = dlms.checkReplyErrors(data, p.getReply());
-        if (errors != null)
+        //Round trip time is not measured from resent requests.
+        //If the reply was received already while data was decoded, it's not known
+        //when it arrived and decode time is not counted to the round trip time.
+        if (pos == 0 && sent != 0 && (decoded == 0 || time - decoded > 1000000))
+        {
+            time -= sent;
+            statistics.getRtt().update((int) (time / 1000000));
+            metrics.onRoundTrip(time / 1000);
+        }
+        sent = 0;
+        decoded = 0;
+        //Meter sends the rest of the packet without a new request, so it's not resent
+        //and fixed wait time is used instead of the round trip time.
+        p.setWaitTime(WaitTime);
+        //Loop until whole Cosem packet is received.                
+        while (!dlms.isDLMSPacketComplete(p.getReply()))
+        {
+            if (p.getEop() == null)
+            {
+                p.setCount(1);
+            }
+            if (!Media.receive(p))
+            {
+                statistics.onTimeout();
+                metrics.onTimeout();
+                p.setReply(null);
+                throw new Exception("Failed to receive reply from the device in given time.");
+            }
+        }
+        byte[] reply = p.getReply();
+        //Reply is not kept after it's returned.
+        p.setReply(null);
+        if (net)
         {
-            throw new GXDLMSException((Integer) errors[0][0]);
+            //If requests are pipelined, next replies might be received already.
+            received = reply;
+            reply = getReceived();
         }
-        return p.getReply();       
+        if (pos != 0)
+        {
+            //Late reply to the resent request would be taken as the reply of the next request.
+            drain();
+        }
+        metrics.onReceived(reply.length);
+        trace.frame(false, reply);
+        return reply;
+    }
+
+    /**
+     * Returns the first IEC 62056-47 frame from the received bytes
+     * and keeps the rest of the bytes for the next reply.
+     * @return Received frame or null if whole frame is not received yet.
+     */
+    private byte[] getReceived()
+    {
+        byte[] data = received;
+        if (data == null || data.length < 8)
+        {
+            return null;
+        }
+        int size = 8 + (((data[6] & 0xFF) << 8) | (data[7] & 0xFF));
+        if (data.length < size)
+        {
+            return null;
+        }
+        if (data.length == size)
+        {
+            received = null;
+            return data;
+        }
+        received = Arrays.copyOfRange(data, size, data.length);
+        return Arrays.copyOf(data, size);
     }       
     
     /**
@@ -257,16 +679,47 @@ public class GXCommunicate
      * @throws Exception
      */
     byte[] readDataBlock(byte[] data) throws Exception
+    {
+        return readDataBlock(data, null);
+    }
+
+    /**
+     * Reads next data block.
+     * If decoder is given, received data is decoded after each frame
+     * and data block and it's not kept in the memory.
+     * Data is decoded before the next reply is waited, so if the connection
+     * is lost, all rows that were received completely are already decoded.
+     * @param data
+     * @param decoder Row decoder or null if all data is returned.
+     * @return All data or empty array if decoder is used.
+     * @throws Exception
+     */
+    byte[] readDataBlock(byte[] data, GXRowDecoder decoder) throws Exception
     {
         if (data.length == 0)
         {
             return new byte[0];
         }
+        GXByteArrayOutputStream allData = replyBuff;
+        allData.reset();
+        try
+        {
+            return readDataBlock(data, decoder, allData);
+        }
+        finally
+        {
+            allData.reset(replyBuffSize);
+        }
+    }
+
+    private byte[] readDataBlock(byte[] data, GXRowDecoder decoder, GXByteArrayOutputStream allData) throws Exception
+    {
         reOpen();
         byte[] reply = readDLMSPacket(data);
-        ByteArrayOutputStream allData = new ByteArrayOutputStream();
+        int blocks = 1;
         java.util.Set<RequestTypes> moredata = dlms.getDataFromPacket(reply, allData);
-        int maxProgress = dlms.getMaxProgressStatus(allData);        
+        //Progress can't be counted when data is decoded while it's received.
+        int maxProgress = decoder == null ? dlms.getMaxProgressStatus(allData) : 1;
         int lastProgress = 0;
         float progress;
         while (!moredata.isEmpty())
@@ -274,7 +727,9 @@ public class GXCommunicate
             while (moredata.contains(RequestTypes.FRAME))
             {                
                 data = dlms.receiverReady(RequestTypes.FRAME);
-                reply = readDLMSPacket(data);
+                //Received data is decoded while next frame is sent.
+                reply = readDLMSPacket(data, allData, decoder);
+                ++blocks;
                 //Show progress.
                 if (maxProgress != 1)
                 {
@@ -292,7 +747,8 @@ public class GXCommunicate
                         lastProgress = (int) progress;
                     }
                 }                
-                if (!dlms.getDataFromPacket(reply, allData).contains(RequestTypes.FRAME))
+                java.util.Set<RequestTypes> tmp = dlms.getDataFromPacket(reply, allData);
+                if (!tmp.contains(RequestTypes.FRAME))
                 {
                     moredata.remove(RequestTypes.FRAME);                    
                     break;
@@ -303,7 +759,9 @@ public class GXCommunicate
             {             
                 //Send Receiver Ready.
                 data = dlms.receiverReady(RequestTypes.DATABLOCK);
-                reply = readDLMSPacket(data);
+                //Received data is decoded while next data block is sent.
+                reply = readDLMSPacket(data, allData, decoder);
+                ++blocks;
                 moredata = dlms.getDataFromPacket(reply, allData);
                 //Show progress.
                 if (maxProgress != 1)
@@ -331,9 +789,29 @@ public class GXCommunicate
                 System.out.println("");
             }
         }
+        metrics.onBlocks(blocks);
+        if (decoder != null)
+        {
+            decode(allData, decoder);
+            return new byte[0];
+        }
         return allData.toByteArray();
     }
 
+    /**
+     * Gives received data to the decoder and releases it.
+     */
+    private void decode(GXByteArrayOutputStream allData, GXRowDecoder decoder) throws Exception
+    {
+        if (decoder != null && allData.size() != 0)
+        {
+            long start = System.nanoTime();
+            decoder.append(allData.getBuffer(), 0, allData.size());
+            allData.reset();
+            metrics.onDecode((System.nanoTime() - start) / 1000);
+        }
+    }
+
     /**
      * Initializes connection.
      * @param port
@@ -342,6 +820,7 @@ public class GXCommunicate
     @SuppressWarnings("SleepWhileHoldingLock")
     void initializeConnection() throws Exception
     {       
+        long start = System.nanoTime();
         Media.open();
         if (Media instanceof GXSerial)
         {
@@ -359,13 +838,16 @@ public class GXCommunicate
                 synchronized (Media.getSynchronous())
                 {
                     data = "/?!\r\n";
-                    writeTrace("<- " + now() + "\t" + GXDLMSClient.toHex(data.getBytes("ASCII")));
+                    if (trace.getLevel() != GXTraceLevel.OFF)
+                    {
+                        trace.frame(true, data.getBytes("ASCII"));
+                    }
                     Media.send(data, null);
                     if (!Media.receive(p))
                     {
                         throw new Exception("Invalid meter type.");                    
                     }
-                    writeTrace("->" + now() + "\t" + GXDLMSClient.toHex(p.getReply()));
+                    trace.frame(false, p.getReply());
                     //If echo is used.
                     replyStr = new String(p.getReply());
                     if (data.equals(replyStr))
@@ -375,7 +857,7 @@ public class GXCommunicate
                         {
                             throw new Exception("Invalid meter type.");                    
                         }
-                        writeTrace("-> " + now() + "\t" + GXDLMSClient.toHex(p.getReply()));
+                        trace.frame(false, p.getReply());
                         replyStr = new String(p.getReply());
                     }
                 }
@@ -429,7 +911,7 @@ public class GXCommunicate
                 synchronized (Media.getSynchronous())
                 {
                     Media.send(tmp, null);
-                    writeTrace("<- " + now() + "\t" + GXDLMSClient.toHex(tmp));
+                    trace.frame(true, tmp);
                     //This sleep is in standard. Do not remove.
                     Thread.sleep(1000);
                     serial.setBaudRate(bitrate);
@@ -437,7 +919,7 @@ public class GXCommunicate
                     {
                         throw new Exception("Invalid meter type.");
                     }
-                    writeTrace("-> " + now() + "\t" + GXDLMSClient.toHex(p.getReply()));
+                    trace.frame(false, p.getReply());
                 }
                 serial.setDtrEnable(false);
                 serial.setRtsEnable(false);
@@ -459,8 +941,8 @@ public class GXCommunicate
 
             //Allocate buffer to same size as transmit buffer of the meter.
             //Size of replyBuff is payload and frame (Bop, EOP, crc).            
-            int size = (int) ((((Number)dlms.getLimits().getMaxInfoTX()).intValue() & 0xFFFFFFFFL) + 40);
-            replyBuff = java.nio.ByteBuffer.allocate(size);
+            replyBuffSize = (int) ((((Number)dlms.getLimits().getMaxInfoTX()).intValue() & 0xFFFFFFFFL) + 40);
+            replyBuff = new GXByteArrayOutputStream(replyBuffSize);
         }
         //Generate AARQ request.
         //Split requests to multible packets if needed.
@@ -471,6 +953,7 @@ public class GXCommunicate
         }
         //Parse reply.
         dlms.parseAAREResponse(reply);
+        parseInitiateResponse(reply);
         //Get challenge Is HLS authentication is used.
         if (dlms.getIsAuthenticationRequired())
         {
@@ -480,8 +963,103 @@ public class GXCommunicate
             }
             dlms.parseApplicationAssociationResponse(reply);
         }        
+        metrics.onAssociation((System.nanoTime() - start) / 1000);
     }   
 
+    /**
+     * Finds negotiated conformance and max PDU size from the AARE.
+     * They are not found if AARE is ciphered.
+     * @param reply AARE.
+     */
+    void parseInitiateResponse(byte[] reply)
+    {
+        maxPduSize = 0;
+        multipleReferences = false;
+        //Conformance tag, length and unused bits.
+        for (int pos = 0; pos + 9 <= reply.length; ++pos)
+        {
+            if (reply[pos] == 0x5F && reply[pos + 1] == 0x1F && reply[pos + 2] == 4 && reply[pos + 3] == 0)
+            {
+                //Multiple references is bit 14 of the conformance block.
+                multipleReferences = (reply[pos + 5] & 0x02) != 0;
+                maxPduSize = ((reply[pos + 7] & 0xFF) << 8) | (reply[pos + 8] & 0xFF);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Are GET-WITH-LIST requests used.
+     * List requests are made only for IEC 62056-47 connections
+     * because HDLC frame sequence numbers are kept by GXDLMSClient.
+     */
+    boolean getUseReadList()
+    {
+        return multipleReferences && maxPduSize != 0
+                && dlms.getInterfaceType() == InterfaceType.NET
+                && dlms.getUseLogicalNameReferencing();
+    }
+
+    /**
+     * Are single GET requests pipelined.
+     * Requests are pipelined only for IEC 62056-47 connections
+     * because HDLC frame sequence numbers are kept by GXDLMSClient.
+     */
+    boolean getUsePipeline()
+    {
+        return pipelineDepth > 1
+                && dlms.getInterfaceType() == InterfaceType.NET && isNet(Media)
+                && dlms.getUseLogicalNameReferencing();
+    }
+
+    /**
+     * Returns cached value of the attribute.
+     * @return Cached data or null if value must be read from the meter.
+     */
+    byte[] getCached(GXDLMSObject item, int attributeIndex)
+    {
+        if (scalerCache != null && GXScalerCache.isScaler(item, attributeIndex))
+        {
+            return scalerCache.get(item, attributeIndex);
+        }
+        if (cacheEntry != null)
+        {
+            return cacheEntry.get(item, attributeIndex);
+        }
+        return null;
+    }
+
+    /**
+     * Adds read value to the cache if it's cached.
+     */
+    void setCached(GXDLMSObject item, int attributeIndex, byte[] data)
+    {
+        if (scalerCache != null && GXScalerCache.isScaler(item, attributeIndex))
+        {
+            scalerCache.put(item, attributeIndex, data);
+        }
+        else if (cacheEntry != null)
+        {
+            cacheEntry.put(item, attributeIndex, data);
+        }
+    }
+
+    /**
+     * Updates read data to the object.
+     */
+    Object updateValue(GXDLMSObject item, int attributeIndex, byte[] data) throws Exception
+    {
+        //Update data type on read.
+        if (item.getDataType(attributeIndex) == DataType.NONE)
+        {
+            item.setDataType(attributeIndex, dlms.getDLMSDataType(data));
+        }
+        long start = System.nanoTime();
+        Object value = dlms.updateValue(data, item, attributeIndex);
+        metrics.onDecode((System.nanoTime() - start) / 1000);
+        return value;
+    }
+
     /**
      * Reads selected DLMS object with selected attribute index.
      * @param item
@@ -491,14 +1069,393 @@ public class GXCommunicate
      */
     public Object readObject(GXDLMSObject item, int attributeIndex) throws Exception
     {
-        byte[] data = dlms.read(item.getName(), item.getObjectType(), attributeIndex)[0];
-        data = readDataBlock(data);
-        //Update data type on read.
-        if (item.getDataType(attributeIndex) == DataType.NONE)
+        byte[] data = getCached(item, attributeIndex);
+        if (data == null)
         {
-            item.setDataType(attributeIndex, dlms.getDLMSDataType(data));
+            data = dlms.read(item.getName(), item.getObjectType(), attributeIndex)[0];
+            data = readDataBlock(data);
+            setCached(item, attributeIndex, data);
+        }
+        return updateValue(item, attributeIndex, data);
+    }
+
+    /**
+     * Reads several attributes with as few requests as possible.
+     * Attributes are read with GET-WITH-LIST requests if the meter supports them.
+     * Requests are split so that they fit to the negotiated PDU size.
+     * If the meter doesn't support list requests attributes are read one by one.
+     * @param list Objects and attribute indexes to read.
+     * @return Read values in the same order. If attribute can't be read, value is the occurred exception.
+     * @throws Exception
+     */
+    public Object[] readObjects(List<Map.Entry<GXDLMSObject, Integer>> list) throws Exception
+    {
+        Object[] values = new Object[list.size()];
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int pos = 0; pos != list.size(); ++pos)
+        {
+            Map.Entry<GXDLMSObject, Integer> it = list.get(pos);
+            byte[] data = getCached(it.getKey(), it.getValue());
+            if (data == null)
+            {
+                pending.add(pos);
+            }
+            else
+            {
+                try
+                {
+                    values[pos] = updateValue(it.getKey(), it.getValue(), data);
+                }
+                catch (Exception ex)
+                {
+                    values[pos] = ex;
+                }
+            }
+        }
+        int start = 0;
+        if (getUseReadList())
+        {
+            //Class ID, logical name, attribute index and access selection take 10 bytes.
+            //Command, type, invoke ID and count take 6 bytes.
+            int max = Math.max(1, (maxPduSize - 6) / 10);
+            while (start != pending.size())
+            {
+                int count = Math.min(max, pending.size() - start);
+                if (!readList(list, pending.subList(start, start + count), values))
+                {
+                    //Meter doesn't support list requests.
+                    multipleReferences = false;
+                    break;
+                }
+                start += count;
+                yieldPoint();
+            }
+        }
+        if (start != pending.size() && getUsePipeline())
+        {
+            start = readPipelined(list, pending, start, values);
+        }
+        for (; start != pending.size(); ++start)
+        {
+            int pos = pending.get(start);
+            try
+            {
+                values[pos] = readObject(list.get(pos).getKey(), list.get(pos).getValue());
+            }
+            catch (Exception ex)
+            {
+                values[pos] = ex;
+            }
+            yieldPoint();
+        }
+        return values;
+    }
+
+    /**
+     * Reads attributes with single GET requests so that several requests
+     * are sent before the replies are read.
+     * Attributes that are replied with data blocks are read again one by one
+     * because the next request aborts the block transfer.
+     * @param list Objects and attribute indexes.
+     * @param pending Indexes of the list items to read.
+     * @param start Index of the first pending item.
+     * @param values Read values.
+     * @return Index of the first pending item whose reply is not received.
+     * @throws Exception
+     */
+    int readPipelined(List<Map.Entry<GXDLMSObject, Integer>> list, List<Integer> pending, int start, Object[] values) throws Exception
+    {
+        List<Integer> blocks = new ArrayList<Integer>();
+        byte[][] requests = new byte[pipelineDepth][];
+        try
+        {
+            while (start != pending.size())
+            {
+                int count = Math.min(pipelineDepth, pending.size() - start);
+                int first = start;
+                synchronized (Media.getSynchronous())
+                {
+                    for (int pos = 0; pos != count; ++pos)
+                    {
+                        requests[pos] = getRequest(list.get(pending.get(first + pos)), pos);
+                        sendPacket(requests[pos]);
+                    }
+                    //Replies are queued, so round trip time is not measured.
+                    sent = 0;
+                    for (int pos = 0; pos != count; ++pos)
+                    {
+                        //Resending one request would mix the order of the replies.
+                        byte[] reply = receivePacket(null);
+                        int it = pending.get(first + pos);
+                        //Invoke ID must match to the request.
+                        if (reply.length < 13 || reply[8] != (byte) 0xC4 || reply[10] != requests[pos][10])
+                        {
+                            throw new Exception("Invalid reply.");
+                        }
+                        if (reply[9] != 1)
+                        {
+                            //Data blocks or exception.
+                            blocks.add(it);
+                        }
+                        else if (reply[11] != 0)
+                        {
+                            //Data access result.
+                            values[it] = getError(reply[12] & 0xFF);
+                        }
+                        else
+                        {
+                            GXDLMSObject target = list.get(it).getKey();
+                            int index = list.get(it).getValue();
+                            byte[] value = Arrays.copyOfRange(reply, 12, reply.length);
+                            setCached(target, index, value);
+                            try
+                            {
+                                values[it] = updateValue(target, index, value);
+                            }
+                            catch (Exception ex)
+                            {
+                                values[it] = ex;
+                            }
+                        }
+                        //Items before start are not read again if next reply fails.
+                        ++start;
+                    }
+                }
+                yieldPoint();
+            }
+        }
+        catch (Exception ex)
+        {
+            //Replies are out of sync. Rest of the items are read one by one.
+            System.out.println("Pipelined read failed. " + ex.getMessage());
+            drain();
+            pipelineDepth = 1;
+        }
+        for (int pos : blocks)
+        {
+            try
+            {
+                values[pos] = readObject(list.get(pos).getKey(), list.get(pos).getValue());
+            }
+            catch (Exception ex)
+            {
+                values[pos] = ex;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Discards the replies of the pipelined or resent requests that are still coming.
+     * Replies are received until nothing is received in the reply timeout.
+     */
+    void drain()
+    {
+        received = null;
+        ReceiveParameters<byte[]> p = new ReceiveParameters<byte[]>(byte[].class);
+        p.setEop(null);
+        p.setCount(1);
+        p.setWaitTime(retryPolicy.getTimeout(statistics.getRtt().getTimeout(WaitTime), 0));
+        synchronized (Media.getSynchronous())
+        {
+            while (Media.receive(p))
+            {
+                p.setReply(null);
+            }
+        }
+    }
+
+    /**
+     * Returns GET request for one attribute.
+     * @param it Object and attribute index.
+     * @param invokeId Invoke ID of the request.
+     * @return Request with IEC 62056-47 wrapper header.
+     */
+    byte[] getRequest(Map.Entry<GXDLMSObject, Integer> it, int invokeId)
+    {
+        byte[] data = new byte[8 + 13];
+        int pos = setWrapperHeader(data, 13);
+        data[pos++] = (byte) 0xC0;
+        data[pos++] = 1;
+        //High priority, confirmed service.
+        data[pos++] = (byte) (0xC0 | (invokeId & 0x0F));
+        int type = it.getKey().getObjectType().getValue();
+        data[pos++] = (byte) (type >> 8);
+        data[pos++] = (byte) type;
+        for (String part : it.getKey().getLogicalName().split("\\."))
+        {
+            data[pos++] = (byte) Integer.parseInt(part);
         }
-        return dlms.updateValue(data, item, attributeIndex);
+        data[pos++] = (byte) (int) it.getValue();
+        //No access selection.
+        data[pos] = 0;
+        return data;
+    }
+
+    /**
+     * Reads attributes using one GET-WITH-LIST request.
+     * @param list Objects and attribute indexes.
+     * @param indexes Indexes of the list items to read.
+     * @param values Read values.
+     * @return False, if the meter rejected the request.
+     * @throws Exception
+     */
+    boolean readList(List<Map.Entry<GXDLMSObject, Integer>> list, List<Integer> indexes, Object[] values) throws Exception
+    {
+        int size = 6 + 10 * indexes.size();
+        byte[] data = new byte[8 + size];
+        int pos = setWrapperHeader(data, size);
+        data[pos++] = (byte) 0xC0;
+        data[pos++] = 3;
+        data[pos++] = (byte) 0xC1;
+        pos = GXAxdr.setLength(data, pos, indexes.size());
+        for (int it : indexes)
+        {
+            GXDLMSObject target = list.get(it).getKey();
+            int type = target.getObjectType().getValue();
+            data[pos++] = (byte) (type >> 8);
+            data[pos++] = (byte) type;
+            for (String part : target.getLogicalName().split("\\."))
+            {
+                data[pos++] = (byte) Integer.parseInt(part);
+            }
+            data[pos++] = (byte) (int) list.get(it).getValue();
+            //No access selection.
+            data[pos++] = 0;
+        }
+        data = Arrays.copyOf(data, pos);
+        setWrapperHeader(data, pos - 8);
+        byte[] reply = readPacket(data);
+        if (reply == null || reply.length < 11 || reply[8] != (byte) 0xC4)
+        {
+            return false;
+        }
+        byte[] results;
+        int offset, count;
+        if (reply[9] == 3)
+        {
+            results = reply;
+            offset = 11;
+            count = reply.length;
+        }
+        else if (reply[9] == 2)
+        {
+            //Reply is split to several data blocks.
+            GXByteArrayOutputStream blocks = replyBuff;
+            blocks.reset();
+            while (true)
+            {
+                //Block number is in bytes 12-15, choice in byte 16 and length after it.
+                if (reply.length < 18 || reply[8] != (byte) 0xC4 || reply[9] != 2)
+                {
+                    throw new Exception("Invalid reply.");
+                }
+                if (reply[16] != 0)
+                {
+                    //Data access result.
+                    throw getError(reply[17] & 0xFF);
+                }
+                int len = GXAxdr.getLengthSize(reply, 17, reply.length);
+                if (len == -1)
+                {
+                    throw new Exception("Invalid reply.");
+                }
+                blocks.write(reply, 17 + len, GXAxdr.getLength(reply, 17));
+                if (reply[11] != 0)
+                {
+                    //Last block.
+                    break;
+                }
+                byte[] next = new byte[8 + 7];
+                pos = setWrapperHeader(next, 7);
+                next[pos++] = (byte) 0xC0;
+                next[pos++] = 2;
+                next[pos++] = (byte) 0xC1;
+                //Block number.
+                System.arraycopy(reply, 12, next, pos, 4);
+                reply = readPacket(next);
+            }
+            results = blocks.getBuffer();
+            offset = 0;
+            count = blocks.size();
+        }
+        else
+        {
+            return false;
+        }
+        try
+        {
+            return readResults(list, indexes, values, results, offset, count);
+        }
+        finally
+        {
+            replyBuff.reset(replyBuffSize);
+        }
+    }
+
+    private boolean readResults(List<Map.Entry<GXDLMSObject, Integer>> list, List<Integer> indexes,
+            Object[] values, byte[] results, int offset, int count) throws Exception
+    {
+        int len = GXAxdr.getLengthSize(results, offset, count);
+        if (len == -1 || GXAxdr.getLength(results, offset) != indexes.size())
+        {
+            throw new Exception("Invalid reply.");
+        }
+        offset += len;
+        for (int it : indexes)
+        {
+            if (offset + 2 > count)
+            {
+                throw new Exception("Invalid reply.");
+            }
+            if (results[offset] != 0)
+            {
+                //Data access result.
+                values[it] = getError(results[offset + 1] & 0xFF);
+                offset += 2;
+                continue;
+            }
+            int end = GXAxdr.skip(results, offset + 1, count);
+            if (end == -1)
+            {
+                throw new Exception("Invalid reply.");
+            }
+            byte[] value = Arrays.copyOfRange(results, offset + 1, end);
+            offset = end;
+            GXDLMSObject target = list.get(it).getKey();
+            int index = list.get(it).getValue();
+            setCached(target, index, value);
+            try
+            {
+                values[it] = updateValue(target, index, value);
+            }
+            catch (Exception ex)
+            {
+                values[it] = ex;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes IEC 62056-47 wrapper header.
+     * @param data Target buffer.
+     * @param size Size of the APDU.
+     * @return Position after the header.
+     */
+    int setWrapperHeader(byte[] data, int size)
+    {
+        int client = ((Number) dlms.getClientID()).intValue();
+        int server = ((Number) dlms.getServerID()).intValue();
+        data[0] = 0;
+        data[1] = 1;
+        data[2] = (byte) (client >> 8);
+        data[3] = (byte) client;
+        data[4] = (byte) (server >> 8);
+        data[5] = (byte) server;
+        data[6] = (byte) (size >> 8);
+        data[7] = (byte) size;
+        return 8;
     }
     
      /**
@@ -520,10 +1477,10 @@ public class GXCommunicate
     public List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> GetColumns(GXDLMSObject pg) throws Exception
     {
         Object entries = readObject(pg, 7);
-        GXObisCode code = manufacturer.getObisCodes().findByLN(pg.getObjectType(), pg.getLogicalName(), null);
-        if (code != null)
+        String description = getDescription(pg);
+        if (description != null)
         {
-            System.out.println("Reading Profile Generic: " + pg.getLogicalName() + " " + code.getDescription() + " entries:" + entries.toString());
+            System.out.println("Reading Profile Generic: " + pg.getLogicalName() + " " + description + " entries:" + entries.toString());
         }
         else
         {
@@ -564,4 +1521,79 @@ public class GXCommunicate
         data = readDataBlock(data);
         return (Object[])dlms.updateValue(data, pg, 2);        
     }
+
+    /**
+     * Read Profile Generic's data by entry start and count.
+     * Rows are given to the listener as soon as they are received.
+     * Capture objects of the profile generic must be read first.
+     * @param pg
+     * @param index
+     * @param count
+     * @param listener
+     * @return Amount of read rows.
+     * @throws Exception
+     */
+    public int readRowsByEntry(GXDLMSProfileGeneric pg, int index, int count, IGXRowListener listener) throws Exception
+    {
+        GXRowDecoder decoder = new GXRowDecoder(pg.getCaptureObjects(), listener);
+        readDataBlock(dlms.readRowsByEntry(pg.getName(), index, count), decoder);
+        return decoder.getCount();
+    }
+
+    /**
+     * Read Profile Generic's data by range (start and end time).
+     * Rows are given to the listener as soon as they are received.
+     * Capture objects of the profile generic must be read first.
+     * @param pg
+     * @param sortedItem
+     * @param start
+     * @param end
+     * @param listener
+     * @return Amount of read rows.
+     * @throws Exception
+     */
+    public int readRowsByRange(GXDLMSProfileGeneric pg, GXDLMSObject sortedItem, Date start, Date end, IGXRowListener listener) throws Exception
+    {
+        GXRowDecoder decoder = new GXRowDecoder(pg.getCaptureObjects(), listener);
+        byte[] data = dlms.readRowsByRange(pg.getName(), sortedItem.getLogicalName(), pg.getObjectType(), sortedItem.getVersion(), start, end);
+        readDataBlock(data, decoder);
+        return decoder.getCount();
+    }
+    /**
+     * Read Profile Generic's data by entry start and count.
+     * Cells are given to the listener without boxing as soon as they are received.
+     * Capture objects of the profile generic must be read first.
+     * @param pg
+     * @param index
+     * @param count
+     * @param listener Cell listener, for example GXProfileColumns.
+     * @return Amount of read rows.
+     * @throws Exception
+     */
+    public int readRowsByEntry(GXDLMSProfileGeneric pg, int index, int count, IGXCellListener listener) throws Exception
+    {
+        GXRowDecoder decoder = new GXRowDecoder(pg.getCaptureObjects(), listener);
+        readDataBlock(dlms.readRowsByEntry(pg.getName(), index, count), decoder);
+        return decoder.getCount();
+    }
+
+    /**
+     * Read Profile Generic's data by range (start and end time).
+     * Cells are given to the listener without boxing as soon as they are received.
+     * Capture objects of the profile generic must be read first.
+     * @param pg
+     * @param sortedItem
+     * @param start
+     * @param end
+     * @param listener Cell listener, for example GXProfileColumns.
+     * @return Amount of read rows.
+     * @throws Exception
+     */
+    public int readRowsByRange(GXDLMSProfileGeneric pg, GXDLMSObject sortedItem, Date start, Date end, IGXCellListener listener) throws Exception
+    {
+        GXRowDecoder decoder = new GXRowDecoder(pg.getCaptureObjects(), listener);
+        byte[] data = dlms.readRowsByRange(pg.getName(), sortedItem.getLogicalName(), pg.getObjectType(), sortedItem.getVersion(), start, end);
+        readDataBlock(data, decoder);
+        return decoder.getCount();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of the asynchronous operation.
+ * Listeners are called when the operation is done, so the caller
+ * doesn't need a thread that waits the result.
+ * Running request is never interrupted, because the association would be
+ * left waiting a reply. If the operation is cancelled or its deadline is exceeded
+ * while it's running, request is completed and the result is discarded.
+ * @param <T> Result type.
+ */
+public class GXFuture<T> extends FutureTask<T>
+{
+    private final List<IGXFutureListener<T>> listeners = new ArrayList<IGXFutureListener<T>>();
+    private final long deadline;
+    private final GXPriority priority;
+    private boolean completed;
+    /**
+     * Order in which operation was queued.
+     */
+    long sequence;
+
+    /**
+     * Constructor.
+     * @param callable Operation.
+     * @param deadline Time in milliseconds when operation expires. Zero if it never expires.
+     */
+    public GXFuture(Callable<T> callable, long deadline)
+    {
+        this(callable, deadline, GXPriority.NORMAL);
+    }
+
+    /**
+     * Constructor.
+     * @param callable Operation.
+     * @param deadline Time in milliseconds when operation expires. Zero if it never expires.
+     * @param priority Priority of the operation.
+     */
+    public GXFuture(Callable<T> callable, long deadline, GXPriority priority)
+    {
+        super(callable);
+        this.deadline = deadline;
+        this.priority = priority;
+    }
+
+    /**
+     * @return Priority of the operation.
+     */
+    public GXPriority getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * @return Time in milliseconds when operation expires. Zero if it never expires.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Adds listener that is called when the operation is done.
+     * If operation is already done, listener is called immediately.
+     * @param listener Listener.
+     */
+    public void addListener(IGXFutureListener<T> listener)
+    {
+        synchronized (listeners)
+        {
+            if (!completed)
+            {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onCompleted(this);
+    }
+
+    @Override
+    protected void done()
+    {
+        List<IGXFutureListener<T>> tmp;
+        synchronized (listeners)
+        {
+            completed = true;
+            tmp = new ArrayList<IGXFutureListener<T>>(listeners);
+            listeners.clear();
+        }
+        for (IGXFutureListener<T> it : tmp)
+        {
+            it.onCompleted(this);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return super.cancel(false);
+    }
+
+    /**
+     * Fails the operation if it's not done yet.
+     * @param ex Occurred exception.
+     */
+    void fail(Exception ex)
+    {
+        setException(ex);
+    }
+
+    /**
+     * Fails the operation with TimeoutException if it's not done yet.
+     */
+    void expire()
+    {
+        setException(new TimeoutException("Deadline exceeded."));
+    }
+}
@@ -0,0 +1,264 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps track of the profile generic rows that are already read.
+ * Last read time stamp or entry index is saved for each meter and profile.
+ * Marks of each meter are saved to own file, so meters that are harvested
+ * at the same time don't wait for each other and a commit writes only the marks of one meter.
+ */
+public class GXHighWaterMarks
+{
+    private final Path dir;
+    /**
+     * Loaded marks by the meter identification.
+     */
+    private final Map<String, Properties> meters = new HashMap<String, Properties>();
+
+    /**
+     * Constructor.
+     * @param path Directory where marks are saved.
+     */
+    public GXHighWaterMarks(String path)
+    {
+        dir = Paths.get(path);
+    }
+
+    private static String getKey(String logicalName, String type)
+    {
+        return logicalName + "/" + type;
+    }
+
+    private Path getFile(String meter) throws IOException
+    {
+        return dir.resolve(URLEncoder.encode(meter, "UTF-8") + ".properties");
+    }
+
+    /**
+     * Returns marks of the meter. Saved marks are loaded on the first call.
+     */
+    private Properties getMarks(String meter) throws IOException
+    {
+        synchronized (meters)
+        {
+            Properties marks = meters.get(meter);
+            if (marks == null)
+            {
+                marks = new Properties();
+                Path file = getFile(meter);
+                if (Files.exists(file))
+                {
+                    InputStream in = Files.newInputStream(file);
+                    try
+                    {
+                        marks.load(in);
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                meters.put(meter, marks);
+            }
+            return marks;
+        }
+    }
+
+    private long get(String meter, String key) throws IOException
+    {
+        Properties marks = getMarks(meter);
+        synchronized (marks)
+        {
+            String value = marks.getProperty(key);
+            return value == null ? -1 : Long.parseLong(value);
+        }
+    }
+
+    /**
+     * Returns time stamp of the last stored row.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @return Time in milliseconds or -1 if rows are not read.
+     * @throws IOException
+     */
+    public long getTime(String meter, String logicalName) throws IOException
+    {
+        return get(meter, getKey(logicalName, "time"));
+    }
+
+    /**
+     * Returns index of the last stored entry.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @return Entry index or -1 if rows are not read.
+     * @throws IOException
+     */
+    public long getEntry(String meter, String logicalName) throws IOException
+    {
+        return get(meter, getKey(logicalName, "entry"));
+    }
+
+    /**
+     * Returns hash of the last stored entry.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @return Hash of the row or -1 if it's not saved.
+     * @throws IOException
+     */
+    public long getRow(String meter, String logicalName) throws IOException
+    {
+        return get(meter, getKey(logicalName, "row"));
+    }
+
+    /**
+     * Commits time stamp of the last stored row and saves the marks.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @param value Time in milliseconds.
+     * @throws IOException
+     */
+    public void setTime(String meter, String logicalName, long value) throws IOException
+    {
+        set(meter, new String[]{getKey(logicalName, "time")}, new long[]{value});
+    }
+
+    /**
+     * Commits index of the last stored entry and saves the marks.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @param value Entry index.
+     * @throws IOException
+     */
+    public void setEntry(String meter, String logicalName, long value) throws IOException
+    {
+        set(meter, new String[]{getKey(logicalName, "entry")}, new long[]{value});
+    }
+
+    /**
+     * Commits index and hash of the last stored entry and saves the marks.
+     * Hash is used to notice if old entries are shifted out of the buffer.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @param value Entry index.
+     * @param row Hash of the entry.
+     * @throws IOException
+     */
+    public void setEntry(String meter, String logicalName, long value, long row) throws IOException
+    {
+        set(meter, new String[]{getKey(logicalName, "entry"), getKey(logicalName, "row")}, new long[]{value, row});
+    }
+
+    /**
+     * Removes marks of the profile. All rows are read on the next time.
+     * @param meter Meter identification.
+     * @param logicalName Logical name of the profile generic.
+     * @throws IOException
+     */
+    public void reset(String meter, String logicalName) throws IOException
+    {
+        Properties marks = getMarks(meter);
+        synchronized (marks)
+        {
+            marks.remove(getKey(logicalName, "time"));
+            marks.remove(getKey(logicalName, "entry"));
+            marks.remove(getKey(logicalName, "row"));
+            save(meter, marks);
+        }
+    }
+
+    private void set(String meter, String[] keys, long[] values) throws IOException
+    {
+        Properties marks = getMarks(meter);
+        synchronized (marks)
+        {
+            Properties old = (Properties) marks.clone();
+            for (int pos = 0; pos != keys.length; ++pos)
+            {
+                marks.setProperty(keys[pos], String.valueOf(values[pos]));
+            }
+            try
+            {
+                save(meter, marks);
+            }
+            catch (IOException ex)
+            {
+                //Marks are not committed if they can't be saved.
+                marks.clear();
+                marks.putAll(old);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Saves marks of the meter. Old file is replaced only after new one is written.
+     */
+    private void save(String meter, Properties marks) throws IOException
+    {
+        Path file = getFile(meter).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "marks", ".tmp");
+        try
+        {
+            OutputStream out = Files.newOutputStream(tmp);
+            try
+            {
+                marks.store(out, "Profile generic high-water marks of " + meter);
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
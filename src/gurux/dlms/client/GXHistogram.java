@@ -0,0 +1,173 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram where bucket width grows with the value.
+ * Each power of two is split to eight buckets,
+ * so percentiles are accurate within 12.5 percent.
+ * Recording a value doesn't allocate memory.
+ */
+public class GXHistogram
+{
+    /**
+     * Sub bucket bits for each power of two.
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds new value to the histogram.
+     * @param value Value. Negative values are counted as zero.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        counts.incrementAndGet(getIndex(value));
+        sum.addAndGet(value);
+        long tmp = max.get();
+        while (value > tmp && !max.compareAndSet(tmp, value))
+        {
+            tmp = max.get();
+        }
+    }
+
+    /**
+     * @return Amount of recorded values.
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for (int pos = 0; pos != BUCKETS; ++pos)
+        {
+            count += counts.get(pos);
+        }
+        return count;
+    }
+
+    /**
+     * @return Sum of recorded values.
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * @return Biggest recorded value.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the value that is bigger or equal than given percent of the recorded values.
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound of the bucket where the percentile is. Zero if values are not recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Invalid percentile.");
+        }
+        long[] tmp = new long[BUCKETS];
+        long count = 0;
+        for (int pos = 0; pos != BUCKETS; ++pos)
+        {
+            tmp[pos] = counts.get(pos);
+            count += tmp[pos];
+        }
+        if (count == 0)
+        {
+            return 0;
+        }
+        long limit = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        count = 0;
+        for (int pos = 0; pos != BUCKETS; ++pos)
+        {
+            count += tmp[pos];
+            if (count >= limit)
+            {
+                return Math.min(getUpperBound(pos), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns bucket index of the value.
+     */
+    static int getIndex(long value)
+    {
+        if (value < SUB_COUNT)
+        {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns biggest value that is counted to the bucket.
+     */
+    static long getUpperBound(int index)
+    {
+        if (index < SUB_COUNT)
+        {
+            return index;
+        }
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT;
+        if (exp == 62 && sub == SUB_COUNT - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+        return ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+}
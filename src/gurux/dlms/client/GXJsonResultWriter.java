@@ -0,0 +1,443 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.GXDateTime;
+import gurux.dlms.objects.GXDLMSObject;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Writes read values as newline delimited JSON.
+ * Each value is one line:
+ * {"meter":"lgz localhost:4060","ln":"1.0.1.8.0.255","type":"REGISTER","index":2,"time":1400000000000,"value":123.456}
+ * Failed reads have "error" instead of "value".
+ * Values are encoded straight to the byte buffer of the calling thread
+ * and only the copying to the output is synchronized,
+ * so several polling threads can write at the same time.
+ */
+public class GXJsonResultWriter implements IGXPollingSink
+{
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+    private static final long[] POWERS = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000 };
+
+    /**
+     * Line buffer of one thread. Bytes are added without locking.
+     */
+    static class Buffer
+    {
+        byte[] data = new byte[256];
+        int size;
+        /**
+         * Digits are written backwards here.
+         */
+        final byte[] digits = new byte[20];
+
+        void put(int value)
+        {
+            if (size == data.length)
+            {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = (byte) value;
+        }
+
+        void put(byte[] value, int offset, int count)
+        {
+            if (size + count > data.length)
+            {
+                data = Arrays.copyOf(data, Math.max(size + count, 2 * data.length));
+            }
+            System.arraycopy(value, offset, data, size, count);
+            size += count;
+        }
+    }
+
+    private final OutputStream out;
+    private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>()
+    {
+        @Override
+        protected Buffer initialValue()
+        {
+            return new Buffer();
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param fileName Result file. Values are appended to the existing file.
+     * @throws IOException
+     */
+    public GXJsonResultWriter(String fileName) throws IOException
+    {
+        this(new FileOutputStream(fileName, true));
+    }
+
+    /**
+     * Constructor.
+     * @param out Output stream where values are written.
+     */
+    public GXJsonResultWriter(OutputStream out)
+    {
+        this.out = new BufferedOutputStream(out, 0x10000);
+    }
+
+    @Override
+    public void onValue(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Object value)
+    {
+        write(meter.toString(), target, attributeIndex, value, null, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onError(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Exception ex)
+    {
+        write(meter.toString(), target, attributeIndex, null, ex, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onCompleted(GXMeterEndpoint meter, long connectTime, long readTime)
+    {
+        flush();
+    }
+
+    /**
+     * Writes one read value.
+     * @param meter Meter name.
+     * @param target Read object or null if connection failed.
+     * @param attributeIndex Attribute index.
+     * @param value Read value.
+     * @param error Occurred exception or null if value was read.
+     * @param time Read time in milliseconds.
+     */
+    public void write(String meter, GXDLMSObject target, int attributeIndex, Object value, Exception error, long time)
+    {
+        Buffer buff = buffers.get();
+        buff.size = 0;
+        if (buff.data.length > 0x10000)
+        {
+            //Memory is released after a big value.
+            buff.data = new byte[256];
+        }
+        buff.put('{');
+        appendName(buff, "meter");
+        appendString(buff, meter);
+        if (target != null)
+        {
+            buff.put(',');
+            appendName(buff, "ln");
+            appendString(buff, target.getLogicalName());
+            buff.put(',');
+            appendName(buff, "type");
+            appendString(buff, target.getObjectType().name());
+            buff.put(',');
+            appendName(buff, "index");
+            appendLong(buff, attributeIndex);
+        }
+        buff.put(',');
+        appendName(buff, "time");
+        appendLong(buff, time);
+        buff.put(',');
+        if (error != null)
+        {
+            appendName(buff, "error");
+            appendString(buff, error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage());
+        }
+        else
+        {
+            appendName(buff, "value");
+            appendValue(buff, value);
+        }
+        buff.put('}');
+        buff.put('\n');
+        try
+        {
+            synchronized (out)
+            {
+                out.write(buff.data, 0, buff.size);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Result write failed. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes buffered values to the output.
+     */
+    public void flush()
+    {
+        try
+        {
+            synchronized (out)
+            {
+                out.flush();
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Result write failed. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes buffered values and closes the output.
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        synchronized (out)
+        {
+            out.close();
+        }
+    }
+
+    private static void appendName(Buffer buff, String name)
+    {
+        buff.put('"');
+        appendAscii(buff, name);
+        buff.put('"');
+        buff.put(':');
+    }
+
+    private static void appendValue(Buffer buff, Object value)
+    {
+        if (value == null)
+        {
+            appendNull(buff);
+        }
+        else if (value instanceof Boolean)
+        {
+            appendAscii(buff, (Boolean) value ? "true" : "false");
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            appendDouble(buff, ((Number) value).doubleValue());
+        }
+        else if (value instanceof BigDecimal)
+        {
+            appendAscii(buff, ((BigDecimal) value).toPlainString());
+        }
+        else if (value instanceof Number)
+        {
+            appendLong(buff, ((Number) value).longValue());
+        }
+        else if (value instanceof byte[])
+        {
+            byte[] tmp = (byte[]) value;
+            buff.put('"');
+            for (byte it : tmp)
+            {
+                buff.put(HEX[(it >> 4) & 0xF]);
+                buff.put(HEX[it & 0xF]);
+            }
+            buff.put('"');
+        }
+        else if (value instanceof GXDateTime)
+        {
+            Date tmp = ((GXDateTime) value).getValue();
+            if (tmp == null)
+            {
+                appendNull(buff);
+            }
+            else
+            {
+                appendLong(buff, tmp.getTime());
+            }
+        }
+        else if (value instanceof Date)
+        {
+            appendLong(buff, ((Date) value).getTime());
+        }
+        else if (value instanceof Enum)
+        {
+            appendString(buff, ((Enum<?>) value).name());
+        }
+        else if (value.getClass().isArray())
+        {
+            buff.put('[');
+            int count = Array.getLength(value);
+            for (int pos = 0; pos != count; ++pos)
+            {
+                if (pos != 0)
+                {
+                    buff.put(',');
+                }
+                appendValue(buff, Array.get(value, pos));
+            }
+            buff.put(']');
+        }
+        else if (value instanceof CharSequence)
+        {
+            appendString(buff, (CharSequence) value);
+        }
+        else
+        {
+            appendString(buff, String.valueOf(value));
+        }
+    }
+
+    private static void appendNull(Buffer buff)
+    {
+        appendAscii(buff, "null");
+    }
+
+    /**
+     * Writes ASCII text without quotes.
+     */
+    private static void appendAscii(Buffer buff, String value)
+    {
+        for (int pos = 0; pos != value.length(); ++pos)
+        {
+            buff.put(value.charAt(pos));
+        }
+    }
+
+    private static void appendString(Buffer buff, CharSequence value)
+    {
+        buff.put('"');
+        for (int pos = 0; pos != value.length(); ++pos)
+        {
+            char ch = value.charAt(pos);
+            if (ch == '"' || ch == '\\')
+            {
+                buff.put('\\');
+                buff.put(ch);
+            }
+            else if (ch < 0x20)
+            {
+                buff.put('\\');
+                buff.put('u');
+                buff.put('0');
+                buff.put('0');
+                buff.put(HEX[ch >> 4]);
+                buff.put(HEX[ch & 0xF]);
+            }
+            else if (ch < 0x80)
+            {
+                buff.put(ch);
+            }
+            else if (ch < 0x800)
+            {
+                buff.put(0xC0 | (ch >> 6));
+                buff.put(0x80 | (ch & 0x3F));
+            }
+            else if (Character.isHighSurrogate(ch) && pos + 1 != value.length())
+            {
+                int cp = Character.toCodePoint(ch, value.charAt(++pos));
+                buff.put(0xF0 | (cp >> 18));
+                buff.put(0x80 | ((cp >> 12) & 0x3F));
+                buff.put(0x80 | ((cp >> 6) & 0x3F));
+                buff.put(0x80 | (cp & 0x3F));
+            }
+            else
+            {
+                buff.put(0xE0 | (ch >> 12));
+                buff.put(0x80 | ((ch >> 6) & 0x3F));
+                buff.put(0x80 | (ch & 0x3F));
+            }
+        }
+        buff.put('"');
+    }
+
+    private static void appendLong(Buffer buff, long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            appendAscii(buff, "-9223372036854775808");
+            return;
+        }
+        if (value < 0)
+        {
+            buff.put('-');
+            value = -value;
+        }
+        byte[] tmp = buff.digits;
+        int pos = tmp.length;
+        do
+        {
+            tmp[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+        buff.put(tmp, pos, tmp.length - pos);
+    }
+
+    /**
+     * Writes double with the fewest decimals that give the same value back.
+     * Scaled register values have only a few decimals, so Double.toString is seldom needed.
+     */
+    private static void appendDouble(Buffer buff, double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            appendNull(buff);
+            return;
+        }
+        if (Math.abs(value) < 1e9)
+        {
+            for (int decimals = 0; decimals != POWERS.length; ++decimals)
+            {
+                long scaled = Math.round(value * POWERS[decimals]);
+                if ((double) scaled / POWERS[decimals] == value)
+                {
+                    if (scaled < 0 || (scaled == 0 && 1 / value < 0))
+                    {
+                        buff.put('-');
+                        scaled = -scaled;
+                    }
+                    appendLong(buff, scaled / POWERS[decimals]);
+                    if (decimals != 0)
+                    {
+                        buff.put('.');
+                        long fraction = scaled % POWERS[decimals];
+                        for (int pos = decimals - 1; pos >= 0; --pos)
+                        {
+                            buff.put((int) ('0' + fraction / POWERS[pos] % 10));
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+        appendAscii(buff, Double.toString(value));
+    }
+}
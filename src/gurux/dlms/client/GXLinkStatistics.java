@@ -0,0 +1,104 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trip time, resends and timeouts of one meter.
+ * Statistics are kept over the sessions, so reply timeout
+ * is known already when the meter is connected next time.
+ */
+public class GXLinkStatistics
+{
+    private final GXRttEstimator rtt = new GXRttEstimator();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @return Round trip time estimator.
+     */
+    public GXRttEstimator getRtt()
+    {
+        return rtt;
+    }
+
+    /**
+     * @return Amount of the sent requests without resends.
+     */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return Amount of the resent requests.
+     */
+    public long getRetries()
+    {
+        return retries.get();
+    }
+
+    /**
+     * @return Amount of the requests that were not replied after all resends.
+     */
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    void onRequest()
+    {
+        requests.incrementAndGet();
+    }
+
+    void onRetry()
+    {
+        retries.incrementAndGet();
+    }
+
+    void onTimeout()
+    {
+        timeouts.incrementAndGet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Requests: %d Retries: %d Timeouts: %d RTT: %.1f ms Timeout: %d ms",
+                getRequests(), getRetries(), getTimeouts(), rtt.getSmoothedRtt(), rtt.getTimeout(0));
+    }
+}
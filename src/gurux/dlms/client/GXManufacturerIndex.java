@@ -0,0 +1,305 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+
+package gurux.dlms.client;
+
+import gurux.dlms.enums.Authentication;
+import gurux.dlms.enums.ObjectType;
+import gurux.dlms.manufacturersettings.GXAuthentication;
+import gurux.dlms.manufacturersettings.GXManufacturer;
+import gurux.dlms.manufacturersettings.GXManufacturerCollection;
+import gurux.dlms.manufacturersettings.GXObisCode;
+import gurux.dlms.manufacturersettings.GXServerAddress;
+import gurux.dlms.manufacturersettings.HDLCAddressType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Manufacturer settings in a binary file, so they are loaded without
+ * parsing the manufacturer XML files. File is used only if it's made from
+ * the setting files that have the same fingerprint.
+ * Only the settings that the client uses are saved: identification, name,
+ * referencing, IEC 62056-47, authentications, server addresses and OBIS codes.
+ */
+public class GXManufacturerIndex
+{
+    private static final int MAGIC = 0x47584D49;
+    private static final int VERSION = 1;
+
+    private GXManufacturerIndex()
+    {
+    }
+
+    /**
+     * Loads manufacturer settings.
+     * @param fileName Index file.
+     * @param fingerprint Fingerprint of the manufacturer setting files.
+     * @return Manufacturer settings or null if file doesn't exist or it's made from different files.
+     */
+    public static GXManufacturerCollection load(String fileName, long fingerprint)
+    {
+        Path file = Paths.get(fileName);
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fingerprint)
+                {
+                    return null;
+                }
+                GXManufacturerCollection items = new GXManufacturerCollection();
+                int count = in.readInt();
+                for (int pos = 0; pos != count; ++pos)
+                {
+                    items.add(readManufacturer(in));
+                }
+                return items;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Invalid manufacturer index " + file + ". " + ex.getMessage());
+        }
+        catch (RuntimeException ex)
+        {
+            System.out.println("Invalid manufacturer index " + file + ". " + ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Saves manufacturer settings. Old file is replaced only after new one is written.
+     * File is not written if settings have values that can't be saved.
+     * Failures are not thrown, because settings are then parsed from the XML files.
+     * @param items Manufacturer settings.
+     * @param fileName Index file.
+     * @param fingerprint Fingerprint of the manufacturer setting files.
+     */
+    public static void save(GXManufacturerCollection items, String fileName, long fingerprint)
+    {
+        Path file = Paths.get(fileName).toAbsolutePath();
+        Path tmp = null;
+        try
+        {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), "manufacturers", ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(items.size());
+                for (GXManufacturer it : items)
+                {
+                    writeManufacturer(out, it);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Failed to write manufacturer index. " + ex.getMessage());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.out.println("Failed to write manufacturer index. " + ex.getMessage());
+        }
+        finally
+        {
+            if (tmp != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(tmp);
+                }
+                catch (IOException ex)
+                {
+                    System.out.println(ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void writeManufacturer(DataOutputStream out, GXManufacturer m) throws IOException
+    {
+        writeString(out, m.getIdentification());
+        writeString(out, m.getName());
+        out.writeBoolean(m.getUseLogicalNameReferencing());
+        out.writeBoolean(m.getUseIEC47());
+        out.writeInt(m.getSettings().size());
+        for (GXAuthentication it : m.getSettings())
+        {
+            writeString(out, it.getType() == null ? null : it.getType().name());
+            writeNumber(out, it.getClientID());
+        }
+        out.writeInt(m.getServerSettings().size());
+        for (GXServerAddress it : m.getServerSettings())
+        {
+            writeString(out, it.getHDLCAddress() == null ? null : it.getHDLCAddress().name());
+            writeNumber(out, it.getPhysicalAddress());
+            out.writeInt(it.getLogicalAddress());
+        }
+        out.writeInt(m.getObisCodes().size());
+        for (GXObisCode it : m.getObisCodes())
+        {
+            writeString(out, it.getLogicalName());
+            out.writeInt(it.getObjectType() == null ? -1 : it.getObjectType().getValue());
+            writeString(out, it.getDescription());
+        }
+    }
+
+    private static GXManufacturer readManufacturer(DataInputStream in) throws IOException
+    {
+        GXManufacturer m = new GXManufacturer();
+        m.setIdentification(readString(in));
+        m.setName(readString(in));
+        m.setUseLogicalNameReferencing(in.readBoolean());
+        m.setUseIEC47(in.readBoolean());
+        int count = in.readInt();
+        for (int pos = 0; pos != count; ++pos)
+        {
+            String type = readString(in);
+            m.getSettings().add(new GXAuthentication(type == null ? null : Authentication.valueOf(type), readNumber(in)));
+        }
+        count = in.readInt();
+        for (int pos = 0; pos != count; ++pos)
+        {
+            String type = readString(in);
+            GXServerAddress it = new GXServerAddress(type == null ? null : HDLCAddressType.valueOf(type), readNumber(in), true);
+            it.setLogicalAddress(in.readInt());
+            m.getServerSettings().add(it);
+        }
+        count = in.readInt();
+        for (int pos = 0; pos != count; ++pos)
+        {
+            GXObisCode it = new GXObisCode();
+            it.setLogicalName(readString(in));
+            int type = in.readInt();
+            it.setObjectType(type == -1 ? null : ObjectType.forValue(type));
+            it.setDescription(readString(in));
+            m.getObisCodes().add(it);
+        }
+        return m;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+        {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes address or client ID. Type is saved, because it's used when address is counted.
+     */
+    private static void writeNumber(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(0);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(1);
+            out.writeByte((Byte) value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(2);
+            out.writeShort((Short) value);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(4);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(8);
+            out.writeLong((Long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Invalid address type " + value.getClass().getName() + ".");
+        }
+    }
+
+    private static Object readNumber(DataInputStream in) throws IOException
+    {
+        switch (in.readByte())
+        {
+            case 0:
+                return null;
+            case 1:
+                return in.readByte();
+            case 2:
+                return in.readShort();
+            case 4:
+                return in.readInt();
+            case 8:
+                return in.readLong();
+            default:
+                throw new IOException("Invalid address type.");
+        }
+    }
+}
@@ -0,0 +1,320 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.manufacturersettings.GXManufacturer;
+import gurux.dlms.manufacturersettings.GXManufacturerCollection;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manufacturer settings that are shared by all sessions of the process.
+ * Settings are read only once and read again only when the setting files change.
+ * Files are compared by their names, sizes and modification times.
+ * Parsed settings are saved to a binary index, so XML files are parsed
+ * only when they have changed after the index was saved.
+ * OBIS code lookup tables are built once for each manufacturer from the loaded settings.
+ * Settings are updated from the Gurux web service in the background,
+ * so update never blocks the caller. Files are not read while they are updated.
+ */
+public class GXManufacturerRegistry
+{
+    private static final Map<String, GXManufacturerRegistry> registries = new HashMap<String, GXManufacturerRegistry>();
+
+    private final String path;
+    private volatile GXManufacturerCollection manufacturers;
+    /**
+     * OBIS code lookup tables by the manufacturer identification.
+     */
+    private volatile Map<String, GXObisMap> maps = new HashMap<String, GXObisMap>();
+    private volatile long checked;
+    private long fingerprint;
+    private long checkInterval = 10000;
+    private long updateTimeout = 60000;
+    private volatile Thread update;
+
+    /**
+     * Constructor.
+     * @param path Directory of the manufacturer settings.
+     */
+    public GXManufacturerRegistry(String path)
+    {
+        this.path = path;
+    }
+
+    /**
+     * Returns registry of the directory. Same registry is returned for each call.
+     * @param path Directory of the manufacturer settings.
+     * @return Registry.
+     */
+    public static GXManufacturerRegistry getInstance(String path)
+    {
+        String key = Paths.get(path).toAbsolutePath().normalize().toString();
+        synchronized (registries)
+        {
+            GXManufacturerRegistry r = registries.get(key);
+            if (r == null)
+            {
+                r = new GXManufacturerRegistry(path);
+                registries.put(key, r);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * @return How often in milliseconds setting files are checked for changes.
+     */
+    public long getCheckInterval()
+    {
+        return checkInterval;
+    }
+
+    /**
+     * @param value How often in milliseconds setting files are checked for changes.
+     */
+    public void setCheckInterval(long value)
+    {
+        checkInterval = value;
+    }
+
+    /**
+     * @return How long in milliseconds manufacturer is waited
+     * if it's not found while settings are updated.
+     */
+    public long getUpdateTimeout()
+    {
+        return updateTimeout;
+    }
+
+    /**
+     * @param value How long in milliseconds manufacturer is waited
+     * if it's not found while settings are updated.
+     */
+    public void setUpdateTimeout(long value)
+    {
+        updateTimeout = value;
+    }
+
+    /**
+     * Returns manufacturer settings. Settings are read if setting files have changed.
+     * @return Manufacturer settings.
+     * @throws Exception
+     */
+    public GXManufacturerCollection getManufacturers() throws Exception
+    {
+        GXManufacturerCollection items = manufacturers;
+        if (items != null && (update != null || System.currentTimeMillis() - checked < checkInterval))
+        {
+            return items;
+        }
+        Thread t = update;
+        if (items == null && t != null)
+        {
+            //Settings are read first time after the update is completed.
+            t.join(updateTimeout);
+        }
+        synchronized (this)
+        {
+            if (manufacturers == null || (update == null && System.currentTimeMillis() - checked >= checkInterval))
+            {
+                long value = getFingerprint(Paths.get(path));
+                if (manufacturers == null || value != fingerprint)
+                {
+                    load(value);
+                }
+                checked = System.currentTimeMillis();
+            }
+            return manufacturers;
+        }
+    }
+
+    /**
+     * Returns OBIS code lookup table of the manufacturer.
+     * Table is built only once for each manufacturer and shared by all sessions.
+     * @param manufacturer Manufacturer settings.
+     * @return OBIS code lookup table.
+     * @throws Exception
+     */
+    public GXObisMap getObisMap(GXManufacturer manufacturer) throws Exception
+    {
+        getManufacturers();
+        String key = manufacturer.getIdentification() == null ? "" : manufacturer.getIdentification().toUpperCase();
+        synchronized (this)
+        {
+            GXObisMap map = maps.get(key);
+            if (map == null)
+            {
+                map = new GXObisMap(manufacturer.getObisCodes());
+                maps.put(key, map);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Finds manufacturer settings.
+     * If manufacturer is not found while settings are updated, update is waited.
+     * @param identification Manufacturer identification.
+     * @return Manufacturer settings or null if manufacturer is not found.
+     * @throws Exception
+     */
+    public GXManufacturer findByIdentification(String identification) throws Exception
+    {
+        GXManufacturer man = getManufacturers().findByIdentification(identification);
+        if (man == null)
+        {
+            Thread t = update;
+            if (t != null)
+            {
+                t.join(updateTimeout);
+                man = getManufacturers().findByIdentification(identification);
+            }
+        }
+        return man;
+    }
+
+    /**
+     * Updates manufacturer settings from the Gurux web service in the background.
+     * Settings are read again when the update is completed.
+     */
+    public synchronized void update()
+    {
+        if (update != null)
+        {
+            return;
+        }
+        update = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    GXManufacturerCollection.updateManufactureSettings(path);
+                }
+                catch (Exception ex)
+                {
+                    System.out.println("Failed to update manufacturer settings. " + ex.getMessage());
+                }
+                finally
+                {
+                    synchronized (GXManufacturerRegistry.this)
+                    {
+                        update = null;
+                        //Files are checked at the next call.
+                        checked = 0;
+                    }
+                }
+            }
+        }, "GXManufacturerRegistry update");
+        update.setDaemon(true);
+        update.start();
+    }
+
+    /**
+     * Reads the settings. Settings are parsed from the XML files and
+     * the index is rebuilt if it's not made from the same setting files.
+     */
+    private void load(long value) throws Exception
+    {
+        String name = Paths.get(path).toAbsolutePath().normalize().toString();
+        GXManufacturerCollection items = GXManufacturerIndex.load(name + ".dat", value);
+        if (items == null)
+        {
+            items = new GXManufacturerCollection();
+            if (Files.isDirectory(Paths.get(path)))
+            {
+                GXManufacturerCollection.readManufacturerSettings(items, path);
+            }
+            GXManufacturerIndex.save(items, name + ".dat", value);
+        }
+        maps = new HashMap<String, GXObisMap>();
+        manufacturers = items;
+        fingerprint = value;
+    }
+
+    /**
+     * Counts fingerprint from the names, sizes and modification times of the setting files.
+     * @param dir Directory of the manufacturer settings.
+     * @return Fingerprint or zero if directory doesn't exist.
+     * @throws IOException
+     */
+    static long getFingerprint(final Path dir) throws IOException
+    {
+        if (!Files.isDirectory(dir))
+        {
+            return 0;
+        }
+        final List<String> files = new ArrayList<String>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                if (attrs.isRegularFile())
+                {
+                    files.add(dir.relativize(file) + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        //Order of the files is not defined.
+        Collections.sort(files);
+        //64-bit FNV-1a hash.
+        long hash = 0xcbf29ce484222325L;
+        for (String it : files)
+        {
+            for (int pos = 0; pos != it.length(); ++pos)
+            {
+                hash ^= it.charAt(pos);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= '\n';
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
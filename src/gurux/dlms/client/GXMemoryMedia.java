@@ -0,0 +1,348 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.common.IGXMedia;
+import gurux.common.IGXMediaListener;
+import gurux.common.ReceiveParameters;
+import gurux.common.enums.TraceLevel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Media that is used without a real connection.
+ * Derived class answers to the sent data by adding replies to the queue.
+ * Each reply is returned from one receive call, so a reply that is split
+ * to several parts is received same way as from the serial port or network.
+ */
+public abstract class GXMemoryMedia implements IGXMedia
+{
+    /**
+     * Queued reply.
+     */
+    static class Reply
+    {
+        final byte[] data;
+        /**
+         * Time in milliseconds when reply can be received.
+         */
+        final long time;
+
+        Reply(byte[] data, long time)
+        {
+            this.data = data;
+            this.time = time;
+        }
+    }
+
+    private final Object synchronous = new Object();
+    private final List<IGXMediaListener> listeners = new ArrayList<IGXMediaListener>();
+    private final LinkedList<Reply> replies = new LinkedList<Reply>();
+    private final boolean net;
+    private volatile boolean open;
+    private long bytesSent;
+    private long bytesReceived;
+    private TraceLevel trace = TraceLevel.OFF;
+    private Object eop;
+    private int configurableSettings;
+
+    /**
+     * Constructor.
+     * @param net Is IEC 62056-47 wrapper used instead of HDLC framing.
+     */
+    protected GXMemoryMedia(boolean net)
+    {
+        this.net = net;
+    }
+
+    /**
+     * @return Is IEC 62056-47 wrapper used instead of HDLC framing.
+     */
+    public boolean isNet()
+    {
+        return net;
+    }
+
+    /**
+     * Handles sent data.
+     * @param data Sent data.
+     * @throws Exception
+     */
+    protected abstract void onSend(byte[] data) throws Exception;
+
+    /**
+     * Adds new reply to the receive queue.
+     * @param data Reply.
+     */
+    protected void addReply(byte[] data)
+    {
+        addReply(data, 0);
+    }
+
+    /**
+     * Adds new reply to the receive queue.
+     * Reply can't be received before the given delay is elapsed.
+     * @param data Reply.
+     * @param delay Delay in milliseconds.
+     */
+    protected void addReply(byte[] data, long delay)
+    {
+        synchronized (replies)
+        {
+            replies.add(new Reply(data, delay <= 0 ? 0 : System.currentTimeMillis() + delay));
+            replies.notifyAll();
+        }
+    }
+
+    @Override
+    public void send(Object data, String receiver) throws Exception
+    {
+        if (!open)
+        {
+            throw new Exception("Media is closed.");
+        }
+        byte[] tmp;
+        if (data instanceof String)
+        {
+            tmp = ((String) data).getBytes(StandardCharsets.US_ASCII);
+        }
+        else
+        {
+            tmp = (byte[]) data;
+        }
+        bytesSent += tmp.length;
+        onSend(tmp);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> boolean receive(ReceiveParameters<T> args)
+    {
+        byte[] data = null;
+        synchronized (replies)
+        {
+            long now = System.currentTimeMillis();
+            long end = now + args.getWaitTime();
+            while (true)
+            {
+                Reply r = replies.peek();
+                if (r != null && r.time <= now)
+                {
+                    data = replies.poll().data;
+                    break;
+                }
+                //Wait until reply is received or it's time to return it.
+                boolean infinite = args.getWaitTime() < 0;
+                long wait = infinite ? 0 : end - now;
+                if (!infinite && wait <= 0)
+                {
+                    return false;
+                }
+                if (r != null && (infinite || r.time - now < wait))
+                {
+                    wait = r.time - now;
+                }
+                try
+                {
+                    replies.wait(wait);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                now = System.currentTimeMillis();
+            }
+        }
+        bytesReceived += data.length;
+        byte[] reply = (byte[]) args.getReply();
+        if (args.getAllData() && reply != null)
+        {
+            byte[] tmp = new byte[reply.length + data.length];
+            System.arraycopy(reply, 0, tmp, 0, reply.length);
+            System.arraycopy(data, 0, tmp, reply.length, data.length);
+            data = tmp;
+        }
+        args.setReply((T) data);
+        return true;
+    }
+
+    @Override
+    public void open() throws Exception
+    {
+        open = true;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    @Override
+    public void close()
+    {
+        open = false;
+        resetSynchronousBuffer();
+    }
+
+    @Override
+    public void addListener(IGXMediaListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(IGXMediaListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void copy(Object target)
+    {
+    }
+
+    @Override
+    public String getName()
+    {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public TraceLevel getTrace()
+    {
+        return trace;
+    }
+
+    @Override
+    public void setTrace(TraceLevel value)
+    {
+        trace = value;
+    }
+
+    @Override
+    public String getMediaType()
+    {
+        return "Memory";
+    }
+
+    @Override
+    public String getSettings()
+    {
+        return "";
+    }
+
+    @Override
+    public void setSettings(String value)
+    {
+    }
+
+    @Override
+    public Object getSynchronous()
+    {
+        return synchronous;
+    }
+
+    @Override
+    public boolean getIsSynchronous()
+    {
+        return Thread.holdsLock(synchronous);
+    }
+
+    @Override
+    public void resetSynchronousBuffer()
+    {
+        synchronized (replies)
+        {
+            replies.clear();
+        }
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return bytesSent;
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return bytesReceived;
+    }
+
+    @Override
+    public void resetByteCounters()
+    {
+        bytesSent = bytesReceived = 0;
+    }
+
+    @Override
+    public void validate()
+    {
+    }
+
+    @Override
+    public Object getEop()
+    {
+        return eop;
+    }
+
+    @Override
+    public void setEop(Object value)
+    {
+        eop = value;
+    }
+
+    @Override
+    public int getConfigurableSettings()
+    {
+        return configurableSettings;
+    }
+
+    @Override
+    public void setConfigurableSettings(int value)
+    {
+        configurableSettings = value;
+    }
+
+    @Override
+    public boolean properties(javax.swing.JFrame parent)
+    {
+        return false;
+    }
+}
@@ -0,0 +1,301 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.common.IGXMedia;
+import gurux.dlms.enums.Authentication;
+import gurux.io.Parity;
+import gurux.io.StopBits;
+import gurux.net.GXNet;
+import gurux.net.NetworkType;
+import gurux.serial.GXSerial;
+import gurux.terminal.GXTerminal;
+
+/**
+ * Connection settings of one meter.
+ */
+public class GXMeterEndpoint
+{
+    String manufacturer = "";
+    String host = "";
+    //4059 is Official DLMS port.
+    String port = "4059";
+    String number;
+    boolean net;
+    boolean serial;
+    boolean iec = true;
+    int baudRate = 9600;
+    Authentication authentication = Authentication.NONE;
+    String password = "";
+    /**
+     * Round trip time and resends are kept over the sessions.
+     */
+    final GXLinkStatistics statistics = new GXLinkStatistics();
+    /**
+     * Counters and histograms of the meter. Created when meter is read first time.
+     */
+    GXMetrics metrics;
+    /**
+     * When readout plan entries were read last time.
+     */
+    GXReadoutPlan.State readoutState;
+    /**
+     * Identification of the meter connection. Settings are not changed after parse,
+     * so identification is made only once.
+     */
+    private String identification;
+
+    /**
+     * Parses meter settings from the line.
+     * Line uses same arguments as sampleclient.
+     * Example: /m=lgz /h=localhost /p=4060 /a=Low /pw=12345678
+     * @param line Meter settings.
+     * @return Meter endpoint.
+     */
+    public static GXMeterEndpoint parse(String line)
+    {
+        GXMeterEndpoint e = new GXMeterEndpoint();
+        for (String it : line.trim().split("\\s+"))
+        {
+            if (it.startsWith("/m="))//Manufacturer
+            {
+                e.manufacturer = it.substring(3);
+            }
+            else if (it.startsWith("/h="))//Host
+            {
+                e.host = it.substring(3);
+            }
+            else if (it.startsWith("/p="))// TCP/IP Port
+            {
+                e.net = true;
+                e.port = it.substring(3);
+            }
+            else if (it.startsWith("/sp="))//Serial Port
+            {
+                e.serial = true;
+                e.port = it.substring(4);
+            }
+            else if (it.startsWith("/n="))//Phone number for terminal.
+            {
+                e.number = it.substring(3);
+            }
+            else if (it.startsWith("/b="))//Baud rate
+            {
+                e.baudRate = Integer.parseInt(it.substring(3));
+            }
+            else if (it.startsWith("/s="))//Start
+            {
+                e.iec = !it.substring(3).toLowerCase().equals("dlms");
+            }
+            else if (it.startsWith("/a="))//Authentication
+            {
+                e.authentication = Authentication.valueOf(it.substring(3).toUpperCase());
+            }
+            else if (it.startsWith("/pw="))//Password
+            {
+                e.password = it.substring(4);
+            }
+            else if (!it.isEmpty())
+            {
+                throw new IllegalArgumentException("Invalid meter setting: " + it);
+            }
+        }
+        if (e.manufacturer.isEmpty() || e.port.isEmpty() || (!e.net && !e.serial && e.number == null)
+                || (e.isNet() && e.host.isEmpty()))
+        {
+            throw new IllegalArgumentException("Invalid meter settings: " + line);
+        }
+        e.identification = getIdentification(e.manufacturer, e.isNet() ? e.host : null, e.port, e.number);
+        return e;
+    }
+
+    /**
+     * @return Manufacturer identification.
+     */
+    public String getManufacturer()
+    {
+        return manufacturer;
+    }
+
+    /**
+     * @return Is meter read using TCP/IP connection.
+     */
+    public boolean isNet()
+    {
+        return number == null && net;
+    }
+
+    /**
+     * @return Used authentication.
+     */
+    public Authentication getAuthentication()
+    {
+        return authentication;
+    }
+
+    /**
+     * @return Password for authentication.
+     */
+    public String getPassword()
+    {
+        return password;
+    }
+
+    /**
+     * @return Round trip time, resends and timeouts of the meter.
+     */
+    public GXLinkStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * @return Counters and histograms of the meter. Null if meter is not read yet.
+     */
+    public synchronized GXMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns metrics of the meter. Metrics are created if they don't exist.
+     * @param parent Metrics where values of all meters are added.
+     * @return Counters and histograms of the meter.
+     */
+    synchronized GXMetrics getMetrics(GXMetrics parent)
+    {
+        //Metrics are made again if idle metrics were removed.
+        if (metrics == null || metrics.isRemoved())
+        {
+            metrics = new GXMetrics(toString(), parent);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return Is IEC 62056-21 start protocol used with serial port.
+     */
+    public boolean getIec()
+    {
+        return iec;
+    }
+
+    /**
+     * Creates new media for the meter.
+     * @param reactor Reactor for non-blocking TCP/IP connections. If null, GXNet is used.
+     * @return Unopened media.
+     */
+    public IGXMedia createMedia(GXNioReactor reactor)
+    {
+        if (reactor != null && isNet())
+        {
+            return new GXNioMedia(reactor, host, Integer.parseInt(port));
+        }
+        return createMedia();
+    }
+
+    /**
+     * Creates new media for the meter.
+     * @return Unopened media.
+     */
+    public IGXMedia createMedia()
+    {
+        if (number != null)
+        {
+            GXTerminal terminal = new GXTerminal();
+            terminal.setPortName(port);
+            terminal.setBaudRate(baudRate);
+            terminal.setDataBits(8);
+            terminal.setParity(Parity.NONE);
+            terminal.setStopBits(StopBits.ONE);
+            terminal.setPhoneNumber(number);
+            return terminal;
+        }
+        if (isNet())
+        {
+            GXNet net = new GXNet();
+            net.setPort(Integer.parseInt(port));
+            net.setHostName(host);
+            net.setProtocol(NetworkType.TCP);
+            return net;
+        }
+        GXSerial serial = new GXSerial();
+        serial.setPortName(port);
+        if (iec)
+        {
+            serial.setBaudRate(300);
+            serial.setDataBits(7);
+            serial.setParity(Parity.EVEN);
+            serial.setStopBits(StopBits.ONE);
+        }
+        else
+        {
+            serial.setBaudRate(baudRate);
+            serial.setDataBits(8);
+            serial.setParity(Parity.NONE);
+            serial.setStopBits(StopBits.ONE);
+        }
+        return serial;
+    }
+
+    /**
+     * Returns identification of the meter connection.
+     * Same identification is used for cached scalers and harvested rows
+     * when one meter or a list of meters is read.
+     * @param manufacturer Manufacturer identification.
+     * @param host Host name or null if TCP/IP connection is not used.
+     * @param port TCP/IP or serial port.
+     * @param number Phone number or null if terminal is not used.
+     * @return Identification of the meter connection.
+     */
+    public static String getIdentification(String manufacturer, String host, String port, String number)
+    {
+        if (number != null)
+        {
+            return manufacturer + " " + number;
+        }
+        if (host != null)
+        {
+            return manufacturer + " " + host + ":" + port;
+        }
+        return manufacturer + " " + port;
+    }
+
+    @Override
+    public String toString()
+    {
+        return identification;
+    }
+}
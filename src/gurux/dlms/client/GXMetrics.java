@@ -0,0 +1,633 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of the meter sessions.
+ * Metrics of one meter are also added to the parent metrics,
+ * so the parent has the total of all meters.
+ * Counters are striped by thread and histograms are lock-free,
+ * so metrics can be kept on while the meters are read.
+ * Metrics are written in Prometheus text format or shown through JMX.
+ * Totals are written with dlms_ prefix and metrics of each meter with dlms_meter_ prefix,
+ * so totals are not counted twice when metrics are summed.
+ * Metrics of the meters that are not read any more can be removed with removeIdle.
+ */
+public class GXMetrics implements GXMetricsMBean
+{
+    static final int FRAMES_SENT = 0;
+    static final int FRAMES_RECEIVED = 1;
+    static final int BYTES_SENT = 2;
+    static final int BYTES_RECEIVED = 3;
+    static final int RETRIES = 4;
+    static final int TIMEOUTS = 5;
+    static final int ERRORS = 6;
+    static final int DEADLINES_MISSED = 7;
+
+    private static final String[] COUNTERS = new String[]
+    {
+        "frames_sent_total",
+        "frames_received_total",
+        "bytes_sent_total",
+        "bytes_received_total",
+        "retries_total",
+        "timeouts_total",
+        "errors_total",
+        "deadlines_missed_total"
+    };
+
+    /**
+     * Counters of one stripe are on own cache line.
+     */
+    private static final int STRIPE_SIZE = 16;
+    private static final int STRIPES;
+
+    static
+    {
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors() && count < 64)
+        {
+            count <<= 1;
+        }
+        STRIPES = count;
+    }
+
+    private final String name;
+    private final GXMetrics parent;
+    private final List<GXMetrics> children = new CopyOnWriteArrayList<GXMetrics>();
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+    /**
+     * Errors by GXDLMSException error code. Last item counts unknown codes.
+     */
+    private final AtomicLongArray errors = new AtomicLongArray(256);
+    private final GXHistogram roundTripTime = new GXHistogram();
+    private final GXHistogram associationTime = new GXHistogram();
+    private final GXHistogram decodeTime = new GXHistogram();
+    private final GXHistogram blocks = new GXHistogram();
+    private ObjectName objectName;
+    /**
+     * When request was sent last time.
+     */
+    private volatile long lastUsed = System.currentTimeMillis();
+    /**
+     * Are metrics removed from the parent.
+     */
+    private volatile boolean removed;
+
+    /**
+     * Constructor for total metrics.
+     */
+    public GXMetrics()
+    {
+        this(null, null);
+    }
+
+    /**
+     * Constructor.
+     * @param name Name of the meter. Null for total metrics.
+     * @param parent Metrics where values are also added or null.
+     */
+    public GXMetrics(String name, GXMetrics parent)
+    {
+        this.name = name;
+        this.parent = parent;
+        if (parent != null)
+        {
+            parent.children.add(this);
+        }
+    }
+
+    /**
+     * @return Name of the meter. Null for total metrics.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return Metrics where values are also added or null.
+     */
+    public GXMetrics getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * Removes metrics from the parent. Values that are already added to the parent are kept.
+     */
+    public void remove()
+    {
+        if (parent != null)
+        {
+            removed = true;
+            parent.children.remove(this);
+        }
+    }
+
+    /**
+     * @return Are metrics removed from the parent.
+     */
+    public boolean isRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Removes metrics of the meters where nothing is sent in given time.
+     * @param idleTime Idle time in milliseconds.
+     * @return Amount of removed meters.
+     */
+    public int removeIdle(long idleTime)
+    {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (GXMetrics it : children)
+        {
+            if (now - it.lastUsed >= idleTime)
+            {
+                it.remove();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private void add(int counter, long value)
+    {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counters.addAndGet(stripe * STRIPE_SIZE + counter, value);
+        if (parent != null)
+        {
+            parent.add(counter, value);
+        }
+    }
+
+    /**
+     * Returns value of the counter.
+     * @param counter Counter index.
+     * @return Sum of all stripes.
+     */
+    long get(int counter)
+    {
+        long value = 0;
+        for (int pos = counter; pos < counters.length(); pos += STRIPE_SIZE)
+        {
+            value += counters.get(pos);
+        }
+        return value;
+    }
+
+    void onSent(int size)
+    {
+        lastUsed = System.currentTimeMillis();
+        add(FRAMES_SENT, 1);
+        add(BYTES_SENT, size);
+    }
+
+    void onReceived(int size)
+    {
+        add(FRAMES_RECEIVED, 1);
+        add(BYTES_RECEIVED, size);
+    }
+
+    void onRetry()
+    {
+        add(RETRIES, 1);
+    }
+
+    void onTimeout()
+    {
+        add(TIMEOUTS, 1);
+    }
+
+    void onDeadlineMissed()
+    {
+        add(DEADLINES_MISSED, 1);
+    }
+
+    /**
+     * Counts error that the meter has returned.
+     * @param errorCode GXDLMSException error code.
+     */
+    void onError(int errorCode)
+    {
+        add(ERRORS, 1);
+        for (GXMetrics it = this; it != null; it = it.parent)
+        {
+            it.errors.incrementAndGet(errorCode < 0 || errorCode > 254 ? 255 : errorCode);
+        }
+    }
+
+    /**
+     * @param value Round trip time in microseconds.
+     */
+    void onRoundTrip(long value)
+    {
+        for (GXMetrics it = this; it != null; it = it.parent)
+        {
+            it.roundTripTime.record(value);
+        }
+    }
+
+    /**
+     * @param value Association setup time in microseconds.
+     */
+    void onAssociation(long value)
+    {
+        for (GXMetrics it = this; it != null; it = it.parent)
+        {
+            it.associationTime.record(value);
+        }
+    }
+
+    /**
+     * @param value Time in microseconds that received data was decoded.
+     */
+    void onDecode(long value)
+    {
+        for (GXMetrics it = this; it != null; it = it.parent)
+        {
+            it.decodeTime.record(value);
+        }
+    }
+
+    /**
+     * @param value Amount of frames and data blocks in one read.
+     */
+    void onBlocks(int value)
+    {
+        for (GXMetrics it = this; it != null; it = it.parent)
+        {
+            it.blocks.record(value);
+        }
+    }
+
+    @Override
+    public long getFramesSent()
+    {
+        return get(FRAMES_SENT);
+    }
+
+    @Override
+    public long getFramesReceived()
+    {
+        return get(FRAMES_RECEIVED);
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return get(BYTES_SENT);
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return get(BYTES_RECEIVED);
+    }
+
+    @Override
+    public long getRetries()
+    {
+        return get(RETRIES);
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return get(TIMEOUTS);
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return get(ERRORS);
+    }
+
+    @Override
+    public long getDeadlinesMissed()
+    {
+        return get(DEADLINES_MISSED);
+    }
+
+    /**
+     * Returns amount of errors with given error code.
+     * @param errorCode GXDLMSException error code.
+     * @return Amount of errors.
+     */
+    public long getErrors(int errorCode)
+    {
+        return errors.get(errorCode < 0 || errorCode > 254 ? 255 : errorCode);
+    }
+
+    @Override
+    public long getRoundTripTimeMedian()
+    {
+        return roundTripTime.getPercentile(50);
+    }
+
+    @Override
+    public long getRoundTripTime99()
+    {
+        return roundTripTime.getPercentile(99);
+    }
+
+    @Override
+    public long getAssociationTimeMedian()
+    {
+        return associationTime.getPercentile(50);
+    }
+
+    /**
+     * @return Round trip times in microseconds.
+     */
+    public GXHistogram getRoundTripTime()
+    {
+        return roundTripTime;
+    }
+
+    /**
+     * @return Association setup times in microseconds.
+     */
+    public GXHistogram getAssociationTime()
+    {
+        return associationTime;
+    }
+
+    /**
+     * @return Times in microseconds that received data was decoded.
+     */
+    public GXHistogram getDecodeTime()
+    {
+        return decodeTime;
+    }
+
+    /**
+     * @return Amount of frames and data blocks in one read.
+     */
+    public GXHistogram getBlocks()
+    {
+        return blocks;
+    }
+
+    @Override
+    public String getText()
+    {
+        StringBuilder sb = new StringBuilder();
+        try
+        {
+            write(sb);
+        }
+        catch (IOException ex)
+        {
+            //StringBuilder doesn't throw.
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes these metrics and metrics of all meters in Prometheus text format.
+     * @param out Output.
+     * @throws IOException
+     */
+    public void write(Appendable out) throws IOException
+    {
+        List<GXMetrics> list = new ArrayList<GXMetrics>();
+        list.add(this);
+        write(out, list, "dlms_");
+        list = new ArrayList<GXMetrics>(children);
+        if (!list.isEmpty())
+        {
+            write(out, list, "dlms_meter_");
+        }
+    }
+
+    private static void write(Appendable out, List<GXMetrics> list, String prefix) throws IOException
+    {
+        for (int counter = 0; counter != COUNTERS.length; ++counter)
+        {
+            out.append("# TYPE ").append(prefix).append(COUNTERS[counter]).append(" counter\n");
+            for (GXMetrics it : list)
+            {
+                out.append(prefix).append(COUNTERS[counter]);
+                it.appendLabels(out, null, null);
+                out.append(' ').append(String.valueOf(it.get(counter))).append('\n');
+            }
+        }
+        out.append("# TYPE ").append(prefix).append("errors_by_code_total counter\n");
+        for (GXMetrics it : list)
+        {
+            for (int code = 0; code != 256; ++code)
+            {
+                long value = it.errors.get(code);
+                if (value != 0)
+                {
+                    out.append(prefix).append("errors_by_code_total");
+                    it.appendLabels(out, "code", code == 255 ? "other" : String.valueOf(code));
+                    out.append(' ').append(String.valueOf(value)).append('\n');
+                }
+            }
+        }
+        writeSummary(out, list, prefix + "round_trip_microseconds", 0);
+        writeSummary(out, list, prefix + "association_microseconds", 1);
+        writeSummary(out, list, prefix + "decode_microseconds", 2);
+        writeSummary(out, list, prefix + "blocks_per_read", 3);
+    }
+
+    private GXHistogram getHistogram(int index)
+    {
+        switch (index)
+        {
+            case 0:
+                return roundTripTime;
+            case 1:
+                return associationTime;
+            case 2:
+                return decodeTime;
+            default:
+                return blocks;
+        }
+    }
+
+    private static void writeSummary(Appendable out, List<GXMetrics> list, String name, int index) throws IOException
+    {
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (GXMetrics it : list)
+        {
+            GXHistogram h = it.getHistogram(index);
+            if (h.getCount() == 0)
+            {
+                continue;
+            }
+            for (String q : new String[]{"0.5", "0.9", "0.99"})
+            {
+                out.append(name);
+                it.appendLabels(out, "quantile", q);
+                out.append(' ').append(String.valueOf(h.getPercentile(100 * Double.parseDouble(q)))).append('\n');
+            }
+            out.append(name).append("_sum");
+            it.appendLabels(out, null, null);
+            out.append(' ').append(String.valueOf(h.getSum())).append('\n');
+            out.append(name).append("_count");
+            it.appendLabels(out, null, null);
+            out.append(' ').append(String.valueOf(h.getCount())).append('\n');
+        }
+    }
+
+    private void appendLabels(Appendable out, String label, String value) throws IOException
+    {
+        if (name == null && label == null)
+        {
+            return;
+        }
+        out.append('{');
+        if (name != null)
+        {
+            out.append("meter=\"");
+            for (int pos = 0; pos != name.length(); ++pos)
+            {
+                char ch = name.charAt(pos);
+                if (ch == '"' || ch == '\\')
+                {
+                    out.append('\\').append(ch);
+                }
+                else if (ch == '\n')
+                {
+                    out.append("\\n");
+                }
+                else
+                {
+                    out.append(ch);
+                }
+            }
+            out.append('"');
+            if (label != null)
+            {
+                out.append(',');
+            }
+        }
+        if (label != null)
+        {
+            out.append(label).append("=\"").append(value).append('"');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Writes metrics to the scrape file.
+     * File is written first to the temporary file and then renamed,
+     * so reader never sees half written file.
+     * @param fileName File name.
+     * @throws IOException
+     */
+    public void write(String fileName) throws IOException
+    {
+        Path path = Paths.get(fileName);
+        Path tmp = Paths.get(fileName + ".tmp");
+        Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+        try
+        {
+            write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        try
+        {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Registers metrics to the platform MBean server.
+     * @throws Exception
+     */
+    public void register() throws Exception
+    {
+        if (objectName == null)
+        {
+            String tmp = "gurux.dlms.client:type=GXMetrics";
+            if (name != null)
+            {
+                tmp += ",name=" + ObjectName.quote(name);
+            }
+            ObjectName on = new ObjectName(tmp);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        }
+    }
+
+    /**
+     * Removes metrics from the platform MBean server.
+     * @throws Exception
+     */
+    public void unregister() throws Exception
+    {
+        if (objectName != null)
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Frames: %d/%d Bytes: %d/%d Retries: %d Timeouts: %d Errors: %d Missed deadlines: %d RTT p50: %d us p99: %d us",
+                getFramesSent(), getFramesReceived(), getBytesSent(), getBytesReceived(),
+                getRetries(), getTimeouts(), getErrors(), getDeadlinesMissed(), getRoundTripTimeMedian(), getRoundTripTime99());
+    }
+}
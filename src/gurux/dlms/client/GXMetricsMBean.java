@@ -0,0 +1,101 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+/**
+ * Metrics that are shown through JMX.
+ */
+public interface GXMetricsMBean
+{
+    /**
+     * @return Amount of the sent frames.
+     */
+    long getFramesSent();
+
+    /**
+     * @return Amount of the received frames.
+     */
+    long getFramesReceived();
+
+    /**
+     * @return Amount of the sent bytes.
+     */
+    long getBytesSent();
+
+    /**
+     * @return Amount of the received bytes.
+     */
+    long getBytesReceived();
+
+    /**
+     * @return Amount of the resent requests.
+     */
+    long getRetries();
+
+    /**
+     * @return Amount of the requests that were not replied after all resends.
+     */
+    long getTimeouts();
+
+    /**
+     * @return Amount of the errors that the meters have returned.
+     */
+    long getErrors();
+
+    /**
+     * @return Amount of the operations that were not completed before the deadline.
+     */
+    long getDeadlinesMissed();
+
+    /**
+     * @return Median round trip time in microseconds.
+     */
+    long getRoundTripTimeMedian();
+
+    /**
+     * @return 99th percentile of the round trip time in microseconds.
+     */
+    long getRoundTripTime99();
+
+    /**
+     * @return Median association setup time in microseconds.
+     */
+    long getAssociationTimeMedian();
+
+    /**
+     * @return All metrics in text format.
+     */
+    String getText();
+}
@@ -0,0 +1,739 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.common.IGXMedia;
+import gurux.common.IGXMediaListener;
+import gurux.common.ReceiveParameters;
+import gurux.common.enums.TraceLevel;
+import gurux.dlms.GXDLMSClient;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * TCP/IP media that uses non-blocking socket channel.
+ * Socket I/O is made by GXNioReactor threads, so connected meters don't need own threads.
+ * Replies can be received synchronously with receive, same way as with GXNet,
+ * or with IGXReplyHandler that is called when whole reply is received.
+ * One connection should use only one of these ways at the time.
+ */
+public class GXNioMedia implements IGXMedia
+{
+    private final Object synchronous = new Object();
+    private final Object lock = new Object();
+    private final List<IGXMediaListener> listeners = new ArrayList<IGXMediaListener>();
+    private final GXNioReactor reactor;
+    private String hostName;
+    private int port;
+    private int connectTimeout = 10000;
+    private GXDLMSClient client;
+    private GXNioReactor.Worker worker;
+    private SocketChannel channel;
+    private volatile SelectionKey key;
+    private boolean connected;
+    private IOException error;
+    /**
+     * Received bytes that are not handled yet.
+     */
+    private final GXByteArrayOutputStream received = new GXByteArrayOutputStream();
+    /**
+     * Handlers that are waiting replies in the sending order.
+     */
+    private final LinkedList<IGXReplyHandler> handlers = new LinkedList<IGXReplyHandler>();
+    /**
+     * Data that is waiting until the socket can be written again.
+     */
+    private final LinkedList<ByteBuffer> writes = new LinkedList<ByteBuffer>();
+    private long bytesSent;
+    private long bytesReceived;
+    private TraceLevel trace = TraceLevel.OFF;
+    private Object eop;
+    private int configurableSettings;
+
+    /**
+     * Constructor.
+     * @param reactor Reactor that runs socket I/O.
+     * @param hostName Host name of the meter.
+     * @param port TCP/IP port of the meter.
+     */
+    public GXNioMedia(GXNioReactor reactor, String hostName, int port)
+    {
+        this.reactor = reactor;
+        this.hostName = hostName;
+        this.port = port;
+    }
+
+    /**
+     * @return Host name of the meter.
+     */
+    public String getHostName()
+    {
+        return hostName;
+    }
+
+    /**
+     * @param value Host name of the meter.
+     */
+    public void setHostName(String value)
+    {
+        hostName = value;
+    }
+
+    /**
+     * @return TCP/IP port of the meter.
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @param value TCP/IP port of the meter.
+     */
+    public void setPort(int value)
+    {
+        port = value;
+    }
+
+    /**
+     * @return How long connection establishment is waited in milliseconds.
+     */
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * @param value How long connection establishment is waited in milliseconds.
+     */
+    public void setConnectTimeout(int value)
+    {
+        connectTimeout = value;
+    }
+
+    /**
+     * @return DLMS client that tells when reply is complete. Null if only frame size is checked.
+     */
+    public GXDLMSClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * @param value DLMS client that tells when reply is complete.
+     */
+    public void setClient(GXDLMSClient value)
+    {
+        client = value;
+    }
+
+    /**
+     * Sends data and calls the handler when the reply is received.
+     * Replies are given to the handlers in the same order as the requests are sent.
+     * @param data Sent data.
+     * @param handler Reply handler.
+     * @throws Exception
+     */
+    public void send(byte[] data, IGXReplyHandler handler) throws Exception
+    {
+        synchronized (lock)
+        {
+            handlers.add(handler);
+        }
+        try
+        {
+            send(data, (String) null);
+        }
+        catch (Exception ex)
+        {
+            synchronized (lock)
+            {
+                handlers.remove(handler);
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void send(Object data, String receiver) throws Exception
+    {
+        byte[] tmp;
+        if (data instanceof String)
+        {
+            tmp = ((String) data).getBytes(StandardCharsets.US_ASCII);
+        }
+        else
+        {
+            tmp = (byte[]) data;
+        }
+        ByteBuffer buff = ByteBuffer.wrap(tmp);
+        synchronized (lock)
+        {
+            if (!connected)
+            {
+                throw new Exception("Media is closed.");
+            }
+            bytesSent += tmp.length;
+            //Data is written directly if nothing is waiting before it.
+            if (writes.isEmpty())
+            {
+                channel.write(buff);
+            }
+            if (!buff.hasRemaining())
+            {
+                return;
+            }
+            writes.add(buff);
+        }
+        worker.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SelectionKey k = key;
+                if (k != null && k.isValid())
+                {
+                    k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> boolean receive(ReceiveParameters<T> args)
+    {
+        byte[] data;
+        synchronized (lock)
+        {
+            long end = System.currentTimeMillis() + args.getWaitTime();
+            int count = Math.max(1, args.getCount());
+            while (received.size() < count || (args.getEop() != null
+                    && indexOf(received.getBuffer(), received.size(), args.getEop()) == -1))
+            {
+                if (!connected)
+                {
+                    return false;
+                }
+                long wait = args.getWaitTime() < 0 ? 0 : end - System.currentTimeMillis();
+                if (args.getWaitTime() >= 0 && wait <= 0)
+                {
+                    return false;
+                }
+                try
+                {
+                    lock.wait(wait);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            data = received.toByteArray();
+            received.reset();
+        }
+        byte[] reply = (byte[]) args.getReply();
+        if (args.getAllData() && reply != null)
+        {
+            byte[] tmp = new byte[reply.length + data.length];
+            System.arraycopy(reply, 0, tmp, 0, reply.length);
+            System.arraycopy(data, 0, tmp, reply.length, data.length);
+            data = tmp;
+        }
+        args.setReply((T) data);
+        return true;
+    }
+
+    /**
+     * Finds end of packet from the received data.
+     */
+    private static int indexOf(byte[] data, int count, Object eop)
+    {
+        if (eop instanceof Number)
+        {
+            byte value = ((Number) eop).byteValue();
+            for (int pos = 0; pos != count; ++pos)
+            {
+                if (data[pos] == value)
+                {
+                    return pos;
+                }
+            }
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Handles selected key in the selector thread.
+     * @param key Selected key.
+     * @param buff Read buffer of the selector thread.
+     */
+    void handle(SelectionKey key, ByteBuffer buff)
+    {
+        try
+        {
+            if (key.isConnectable())
+            {
+                if (!channel.finishConnect())
+                {
+                    //Connection is not established yet.
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                synchronized (lock)
+                {
+                    connected = true;
+                    lock.notifyAll();
+                }
+            }
+            if (key.isValid() && key.isWritable())
+            {
+                synchronized (lock)
+                {
+                    while (!writes.isEmpty())
+                    {
+                        channel.write(writes.peek());
+                        if (writes.peek().hasRemaining())
+                        {
+                            return;
+                        }
+                        writes.poll();
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            if (key.isValid() && key.isReadable())
+            {
+                buff.clear();
+                int count = channel.read(buff);
+                if (count == -1)
+                {
+                    throw new ClosedChannelException();
+                }
+                onReceived(buff.array(), count);
+            }
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+        catch (CancelledKeyException ex)
+        {
+            //Connection was closed from other thread while it was selected.
+            fail(new ClosedChannelException());
+        }
+        catch (RuntimeException ex)
+        {
+            //Only this connection is closed and the selector thread continues.
+            fail(new IOException("Connection failed. " + ex.getMessage(), ex));
+        }
+    }
+
+    /**
+     * Adds received bytes and gives whole replies to the waiting handlers.
+     */
+    private void onReceived(byte[] data, int count)
+    {
+        List<IGXReplyHandler> completed = null;
+        List<byte[]> replies = null;
+        synchronized (lock)
+        {
+            bytesReceived += count;
+            received.write(data, 0, count);
+            while (!handlers.isEmpty())
+            {
+                byte[] reply = getReply();
+                if (reply == null)
+                {
+                    break;
+                }
+                if (completed == null)
+                {
+                    completed = new ArrayList<IGXReplyHandler>();
+                    replies = new ArrayList<byte[]>();
+                }
+                completed.add(handlers.poll());
+                replies.add(reply);
+            }
+            lock.notifyAll();
+        }
+        //Handlers are called without holding the lock.
+        if (completed != null)
+        {
+            RuntimeException error = null;
+            for (int pos = 0; pos != completed.size(); ++pos)
+            {
+                try
+                {
+                    completed.get(pos).onReply(replies.get(pos));
+                }
+                catch (RuntimeException ex)
+                {
+                    //Rest of the handlers get their replies before the connection is failed.
+                    if (error == null)
+                    {
+                        error = ex;
+                    }
+                }
+            }
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Removes first whole reply from the received data.
+     * Size of the frame is taken from IEC 62056-47 wrapper or HDLC header.
+     * @return Reply or null if whole reply is not received yet.
+     */
+    private byte[] getReply()
+    {
+        byte[] data = received.getBuffer();
+        int count = received.size();
+        int size;
+        if (count > 2 && data[0] == 0x7E)
+        {
+            //HDLC frame format field has the frame length.
+            size = (((data[1] & 0x07) << 8) | (data[2] & 0xFF)) + 2;
+        }
+        else if (count >= 8 && data[0] == 0 && data[1] == 1)
+        {
+            size = 8 + (((data[6] & 0xFF) << 8) | (data[7] & 0xFF));
+        }
+        else if (count != 0 && client != null)
+        {
+            //Unknown framing is left to the DLMS client.
+            size = count;
+        }
+        else
+        {
+            return null;
+        }
+        if (size > count)
+        {
+            return null;
+        }
+        byte[] reply = Arrays.copyOf(data, size);
+        if (client != null && !client.isDLMSPacketComplete(reply))
+        {
+            return null;
+        }
+        received.remove(size);
+        return reply;
+    }
+
+    /**
+     * Closes the connection after an I/O error.
+     */
+    private void fail(IOException ex)
+    {
+        List<IGXReplyHandler> failed;
+        SocketChannel ch;
+        synchronized (lock)
+        {
+            ch = channel;
+            if (error == null)
+            {
+                error = ex;
+            }
+            connected = false;
+            failed = new ArrayList<IGXReplyHandler>(handlers);
+            handlers.clear();
+            writes.clear();
+            lock.notifyAll();
+        }
+        try
+        {
+            ch.close();
+        }
+        catch (IOException e)
+        {
+            //Original error is reported.
+        }
+        for (IGXReplyHandler it : failed)
+        {
+            try
+            {
+                it.onError(ex);
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("Reply handler failed. " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void open() throws Exception
+    {
+        final SocketChannel ch = SocketChannel.open();
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final boolean done = ch.connect(new InetSocketAddress(hostName, port));
+        synchronized (lock)
+        {
+            channel = ch;
+            error = null;
+            connected = false;
+            received.reset();
+            worker = reactor.getWorker();
+        }
+        if (worker.isClosed())
+        {
+            close();
+            throw new IOException("Reactor is closed.");
+        }
+        worker.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    key = ch.register(worker.selector,
+                            done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, GXNioMedia.this);
+                    if (done)
+                    {
+                        synchronized (lock)
+                        {
+                            connected = true;
+                            lock.notifyAll();
+                        }
+                    }
+                }
+                catch (IOException ex)
+                {
+                    fail(ex);
+                }
+            }
+        });
+        synchronized (lock)
+        {
+            long end = System.currentTimeMillis() + connectTimeout;
+            while (!connected && error == null)
+            {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                {
+                    break;
+                }
+                lock.wait(wait);
+            }
+            if (!connected)
+            {
+                IOException ex = error;
+                close();
+                if (ex != null)
+                {
+                    throw ex;
+                }
+                throw new IOException("Failed to connect " + hostName + ":" + port + ".");
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        synchronized (lock)
+        {
+            return connected;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        SocketChannel ch;
+        synchronized (lock)
+        {
+            ch = channel;
+        }
+        if (ch != null)
+        {
+            fail(new ClosedChannelException());
+        }
+    }
+
+    @Override
+    public void addListener(IGXMediaListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(IGXMediaListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void copy(Object target)
+    {
+    }
+
+    @Override
+    public String getName()
+    {
+        return hostName + ":" + port;
+    }
+
+    @Override
+    public TraceLevel getTrace()
+    {
+        return trace;
+    }
+
+    @Override
+    public void setTrace(TraceLevel value)
+    {
+        trace = value;
+    }
+
+    @Override
+    public String getMediaType()
+    {
+        return "Net";
+    }
+
+    @Override
+    public String getSettings()
+    {
+        return "";
+    }
+
+    @Override
+    public void setSettings(String value)
+    {
+    }
+
+    @Override
+    public Object getSynchronous()
+    {
+        return synchronous;
+    }
+
+    @Override
+    public boolean getIsSynchronous()
+    {
+        return Thread.holdsLock(synchronous);
+    }
+
+    @Override
+    public void resetSynchronousBuffer()
+    {
+        synchronized (lock)
+        {
+            received.reset();
+        }
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        synchronized (lock)
+        {
+            return bytesSent;
+        }
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        synchronized (lock)
+        {
+            return bytesReceived;
+        }
+    }
+
+    @Override
+    public void resetByteCounters()
+    {
+        synchronized (lock)
+        {
+            bytesSent = bytesReceived = 0;
+        }
+    }
+
+    @Override
+    public void validate()
+    {
+    }
+
+    @Override
+    public Object getEop()
+    {
+        return eop;
+    }
+
+    @Override
+    public void setEop(Object value)
+    {
+        eop = value;
+    }
+
+    @Override
+    public int getConfigurableSettings()
+    {
+        return configurableSettings;
+    }
+
+    @Override
+    public void setConfigurableSettings(int value)
+    {
+        configurableSettings = value;
+    }
+
+    @Override
+    public boolean properties(javax.swing.JFrame parent)
+    {
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs non-blocking socket I/O of GXNioMedia connections.
+ * Each thread has own selector and connections are divided between them,
+ * so a few threads can serve thousands of meters.
+ */
+public class GXNioReactor
+{
+    /**
+     * Selector thread.
+     */
+    static class Worker implements Runnable
+    {
+        /**
+         * Selector is closed after this many failed selects in a row.
+         */
+        static final int MAX_FAILURES = 10;
+        final Selector selector;
+        final Thread thread;
+        /**
+         * Tasks that are run in the selector thread.
+         */
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        /**
+         * Read buffer is shared by all connections of the thread.
+         */
+        private final ByteBuffer buff = ByteBuffer.allocate(0x10000);
+        private volatile boolean closed;
+
+        Worker(String name) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Runs the task in the selector thread.
+         * Selection keys are changed only from the selector thread.
+         * @param task Task to run.
+         */
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            int failures = 0;
+            while (!closed)
+            {
+                try
+                {
+                    selector.select();
+                    failures = 0;
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                    {
+                        try
+                        {
+                            task.run();
+                        }
+                        catch (RuntimeException ex)
+                        {
+                            System.out.println("Selector task failed. " + ex.getMessage());
+                        }
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext())
+                    {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        GXNioMedia media = (GXNioMedia) key.attachment();
+                        try
+                        {
+                            media.handle(key, buff);
+                        }
+                        catch (RuntimeException ex)
+                        {
+                            //Failed connection is closed and the other connections are served.
+                            System.out.println("Connection failed. " + ex.getMessage());
+                            media.close();
+                        }
+                    }
+                }
+                catch (IOException ex)
+                {
+                    System.out.println("Selector failed. " + ex.getMessage());
+                    //Failing selector is not retried at full speed.
+                    if (++failures == MAX_FAILURES)
+                    {
+                        System.out.println("Selector is closed after " + failures + " failures.");
+                        closed = true;
+                    }
+                    else
+                    {
+                        try
+                        {
+                            Thread.sleep(Math.min(1000, 10L << failures));
+                        }
+                        catch (InterruptedException e)
+                        {
+                            closed = true;
+                        }
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys())
+            {
+                try
+                {
+                    ((GXNioMedia) key.attachment()).close();
+                }
+                catch (RuntimeException ex)
+                {
+                    System.out.println(ex.getMessage());
+                }
+            }
+            try
+            {
+                selector.close();
+            }
+            catch (IOException ex)
+            {
+                System.out.println(ex.getMessage());
+            }
+        }
+
+        /**
+         * @return Is selector thread closed.
+         */
+        boolean isClosed()
+        {
+            return closed;
+        }
+
+        void close()
+        {
+            closed = true;
+            selector.wakeup();
+        }
+    }
+
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param threads Amount of the selector threads.
+     * @throws IOException
+     */
+    public GXNioReactor(int threads) throws IOException
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("Invalid thread count.");
+        }
+        workers = new Worker[threads];
+        for (int pos = 0; pos != threads; ++pos)
+        {
+            workers[pos] = new Worker("GXNioReactor " + (pos + 1));
+            workers[pos].thread.start();
+        }
+    }
+
+    /**
+     * @return Selector thread for the new connection.
+     */
+    Worker getWorker()
+    {
+        return workers[(next.getAndIncrement() & 0x7FFFFFFF) % workers.length];
+    }
+
+    /**
+     * Closes all connections and stops the selector threads.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException
+    {
+        for (Worker it : workers)
+        {
+            it.close();
+        }
+        for (Worker it : workers)
+        {
+            it.thread.join();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.enums.ObjectType;
+import gurux.dlms.manufacturersettings.GXObisCode;
+import gurux.dlms.manufacturersettings.GXObisCodeCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * OBIS code lookup table that is built once from the OBIS codes of the manufacturer.
+ * Logical name and object type are packed to one long and searched from
+ * open addressing hash tables, so lookups don't allocate memory.
+ * <p>
+ * Group of the logical name can be a wildcard (x or *), for example 1.0.x.8.0.255.
+ * Exact OBIS codes are searched first and then wildcard OBIS codes,
+ * starting from the codes that have the fewest wildcard groups.
+ */
+public class GXObisMap
+{
+    /**
+     * Object type of the rows that match any object type.
+     */
+    private static final int ANY_TYPE = 0xFFFF;
+
+    /**
+     * Exact table first and then wildcard tables in search order.
+     */
+    private final Table[] tables;
+    private final String[] descriptions;
+    private final ObjectType[] types;
+
+    /**
+     * Constructor.
+     * @param codes OBIS codes of the manufacturer. Can be null.
+     */
+    public GXObisMap(GXObisCodeCollection codes)
+    {
+        List<GXObisCode> list = new ArrayList<GXObisCode>();
+        List<Long> keys = new ArrayList<Long>();
+        //Amount of OBIS codes in each wildcard group.
+        int[] counts = new int[64];
+        if (codes != null)
+        {
+            for (GXObisCode it : codes)
+            {
+                long key = parse(it.getLogicalName());
+                if (key != -1)
+                {
+                    list.add(it);
+                    keys.add(key);
+                    ++counts[(int) (key >>> 48)];
+                }
+            }
+        }
+        List<Integer> masks = new ArrayList<Integer>();
+        for (int mask = 0; mask != counts.length; ++mask)
+        {
+            if (counts[mask] != 0 || mask == 0)
+            {
+                masks.add(mask);
+            }
+        }
+        //Fewest wildcard groups are searched first.
+        Collections.sort(masks, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                int ret = Integer.bitCount(o1) - Integer.bitCount(o2);
+                return ret != 0 ? ret : o1 - o2;
+            }
+        });
+        tables = new Table[masks.size()];
+        int[] positions = new int[64];
+        for (int pos = 0; pos != tables.length; ++pos)
+        {
+            int mask = masks.get(pos);
+            //Each OBIS code is added with its own type, and as any type if it's the first one.
+            tables[pos] = new Table(mask, 2 * counts[mask]);
+            positions[mask] = pos;
+        }
+        descriptions = new String[list.size()];
+        types = new ObjectType[list.size()];
+        for (int pos = 0; pos != list.size(); ++pos)
+        {
+            GXObisCode it = list.get(pos);
+            long key = keys.get(pos);
+            ObjectType type = it.getObjectType() == null ? ObjectType.NONE : it.getObjectType();
+            descriptions[pos] = it.getDescription();
+            types[pos] = type;
+            Table table = tables[positions[(int) (key >>> 48)]];
+            key = (key & 0xFFFFFFFFFFFFL) << 16;
+            //First OBIS code is used if same code is defined twice.
+            table.add(key | type.getValue(), pos);
+            table.add(key | ANY_TYPE, pos);
+        }
+    }
+
+    /**
+     * Converts logical name to the key.
+     * @param ln Logical name, for example 1.0.1.8.0.255 or 1.0.x.8.0.255.
+     * @return Logical name in the lowest six bytes, wildcard groups as zero,
+     * and wildcard groups as bits in the seventh byte. -1 if logical name is invalid.
+     */
+    static long parse(String ln)
+    {
+        if (ln == null)
+        {
+            return -1;
+        }
+        long key = 0;
+        int count = 0, value = -1, mask = 0;
+        for (int pos = 0; pos != ln.length(); ++pos)
+        {
+            char ch = ln.charAt(pos);
+            if (ch >= '0' && ch <= '9' && value != -2)
+            {
+                value = (value == -1 ? 0 : 10 * value) + ch - '0';
+                if (value > 255)
+                {
+                    return -1;
+                }
+            }
+            else if ((ch == 'x' || ch == 'X' || ch == '*') && value == -1)
+            {
+                //Wildcard group.
+                value = -2;
+            }
+            else if (ch == '.' && value != -1 && count != 5)
+            {
+                mask = mask << 1 | (value == -2 ? 1 : 0);
+                key = key << 8 | (value == -2 ? 0 : value);
+                value = -1;
+                ++count;
+            }
+            else
+            {
+                return -1;
+            }
+        }
+        if (value == -1 || count != 5)
+        {
+            return -1;
+        }
+        mask = mask << 1 | (value == -2 ? 1 : 0);
+        key = key << 8 | (value == -2 ? 0 : value);
+        return (long) mask << 48 | key;
+    }
+
+    /**
+     * Finds the OBIS code.
+     * @return Index of the OBIS code or -1 if it's not found.
+     */
+    private int find(ObjectType type, String ln)
+    {
+        long key = parse(ln);
+        //Wildcards are not allowed in the searched logical name.
+        if (key == -1 || (key >>> 48) != 0)
+        {
+            return -1;
+        }
+        boolean any = type == null || type == ObjectType.NONE;
+        for (Table table : tables)
+        {
+            long tmp = (key & table.clear) << 16;
+            int pos = table.get(tmp | (any ? ANY_TYPE : type.getValue()));
+            if (pos == -1 && !any)
+            {
+                //OBIS code without object type matches all object types.
+                pos = table.get(tmp | ObjectType.NONE.getValue());
+            }
+            if (pos != -1)
+            {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns description of the OBIS code.
+     * @param type Object type or NONE if any type is accepted.
+     * @param ln Logical name.
+     * @return Description or null if OBIS code is not found.
+     */
+    public String getDescription(ObjectType type, String ln)
+    {
+        int pos = find(type, ln);
+        return pos == -1 ? null : descriptions[pos];
+    }
+
+    /**
+     * Returns object type of the OBIS code.
+     * @param ln Logical name.
+     * @return Object type or NONE if OBIS code is not found.
+     */
+    public ObjectType getObjectType(String ln)
+    {
+        int pos = find(ObjectType.NONE, ln);
+        return pos == -1 ? ObjectType.NONE : types[pos];
+    }
+
+    /**
+     * @return Amount of the OBIS codes.
+     */
+    public int size()
+    {
+        return descriptions.length;
+    }
+
+    /**
+     * Open addressing hash table from the key to the index of the OBIS code.
+     * Linear probing is used and table is kept at most half full.
+     */
+    static class Table
+    {
+        /**
+         * Bits of the logical name that are not wildcards.
+         */
+        final long clear;
+        private final long[] keys;
+        /**
+         * Index of the OBIS code plus one. Zero if slot is empty.
+         */
+        private final int[] values;
+        private final int shift;
+
+        Table(int mask, int count)
+        {
+            long tmp = 0;
+            for (int pos = 0; pos != 6; ++pos)
+            {
+                tmp = tmp << 8 | ((mask & (0x20 >> pos)) == 0 ? 0xFF : 0);
+            }
+            clear = tmp;
+            int bits = 1;
+            while ((1 << bits) < 2 * count)
+            {
+                ++bits;
+            }
+            keys = new long[1 << bits];
+            values = new int[1 << bits];
+            shift = 64 - bits;
+        }
+
+        /**
+         * Adds the key if it's not added yet.
+         */
+        void add(long key, int value)
+        {
+            int pos = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            while (values[pos] != 0)
+            {
+                if (keys[pos] == key)
+                {
+                    return;
+                }
+                pos = (pos + 1) & (keys.length - 1);
+            }
+            keys[pos] = key;
+            values[pos] = value + 1;
+        }
+
+        /**
+         * @return Value of the key or -1 if key is not found.
+         */
+        int get(long key)
+        {
+            int pos = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            while (values[pos] != 0)
+            {
+                if (keys[pos] == key)
+                {
+                    return values[pos] - 1;
+                }
+                pos = (pos + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads attributes of one meter using several associations at the same time.
+ * Attributes of the same object are always read with the same association,
+ * so each object is updated only from one thread and the results are
+ * in the same object collection.
+ * Capture objects of the profile generics are read with the first association,
+ * because only it has the association view where the columns are found.
+ */
+public class GXParallelReader
+{
+    private final List<GXCommunicate> sessions;
+
+    /**
+     * Constructor.
+     * First session is the one where association view is read.
+     * Caches of the first session are shared with the other sessions.
+     * @param sessions Connected sessions to the same meter.
+     */
+    public GXParallelReader(List<GXCommunicate> sessions)
+    {
+        if (sessions.isEmpty())
+        {
+            throw new IllegalArgumentException("No sessions.");
+        }
+        this.sessions = sessions;
+    }
+
+    /**
+     * @return Connected sessions.
+     */
+    public List<GXCommunicate> getSessions()
+    {
+        return sessions;
+    }
+
+    /**
+     * Divides attributes between the associations.
+     * Objects with the most attributes are divided first and each object
+     * is given to the association that has least attributes to read.
+     * Profile generics whose capture objects are read are given to the first association.
+     * @param attributes Objects and attribute indexes to read.
+     * @param count Amount of the associations.
+     * @return Indexes of the attributes for each association.
+     */
+    static List<List<Integer>> partition(List<Map.Entry<GXDLMSObject, Integer>> attributes, int count)
+    {
+        Map<GXDLMSObject, List<Integer>> objects = new LinkedHashMap<GXDLMSObject, List<Integer>>();
+        for (int pos = 0; pos != attributes.size(); ++pos)
+        {
+            GXDLMSObject target = attributes.get(pos).getKey();
+            List<Integer> indexes = objects.get(target);
+            if (indexes == null)
+            {
+                indexes = new ArrayList<Integer>();
+                objects.put(target, indexes);
+            }
+            indexes.add(pos);
+        }
+        List<List<Integer>> groups = new ArrayList<List<Integer>>(objects.values());
+        Collections.sort(groups, new Comparator<List<Integer>>()
+        {
+            @Override
+            public int compare(List<Integer> o1, List<Integer> o2)
+            {
+                return o2.size() - o1.size();
+            }
+        });
+        List<List<Integer>> parts = new ArrayList<List<Integer>>(count);
+        for (int pos = 0; pos != count; ++pos)
+        {
+            parts.add(new ArrayList<Integer>());
+        }
+        for (List<Integer> it : groups)
+        {
+            List<Integer> target = parts.get(0);
+            if (!hasColumns(attributes, it))
+            {
+                for (List<Integer> part : parts)
+                {
+                    if (part.size() < target.size())
+                    {
+                        target = part;
+                    }
+                }
+            }
+            target.addAll(it);
+        }
+        //Attributes are read in the original order.
+        for (List<Integer> it : parts)
+        {
+            Collections.sort(it);
+        }
+        return parts;
+    }
+
+    /**
+     * @return Are capture objects of the profile generic read.
+     */
+    private static boolean hasColumns(List<Map.Entry<GXDLMSObject, Integer>> attributes, List<Integer> indexes)
+    {
+        for (int it : indexes)
+        {
+            if (attributes.get(it).getKey() instanceof GXDLMSProfileGeneric && attributes.get(it).getValue() == 3)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads attributes using all associations.
+     * @param attributes Objects and attribute indexes to read.
+     * @return Read values in the same order. If attribute can't be read, value is the occurred exception.
+     * @throws Exception
+     */
+    public Object[] readObjects(final List<Map.Entry<GXDLMSObject, Integer>> attributes) throws Exception
+    {
+        final Object[] values = new Object[attributes.size()];
+        final List<List<Integer>> parts = partition(attributes, sessions.size());
+        GXCommunicate first = sessions.get(0);
+        for (GXCommunicate it : sessions)
+        {
+            it.cacheEntry = first.cacheEntry;
+            it.scalerCache = first.scalerCache;
+        }
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int pos = 1; pos < parts.size(); ++pos)
+        {
+            final int index = pos;
+            Thread t = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    read(sessions.get(index), attributes, parts.get(index), values);
+                }
+            }, "GXParallelReader " + pos);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        //First association is read from the calling thread.
+        read(first, attributes, parts.get(0), values);
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        return values;
+    }
+
+    /**
+     * Reads attributes of one association.
+     */
+    private static void read(GXCommunicate com, List<Map.Entry<GXDLMSObject, Integer>> attributes,
+            List<Integer> indexes, Object[] values)
+    {
+        if (indexes.isEmpty())
+        {
+            return;
+        }
+        List<Map.Entry<GXDLMSObject, Integer>> list = new ArrayList<Map.Entry<GXDLMSObject, Integer>>(indexes.size());
+        for (int it : indexes)
+        {
+            list.add(attributes.get(it));
+        }
+        try
+        {
+            Object[] tmp = com.readObjects(list);
+            for (int pos = 0; pos != tmp.length; ++pos)
+            {
+                values[indexes.get(pos)] = tmp[pos];
+            }
+        }
+        catch (Exception ex)
+        {
+            for (int it : indexes)
+            {
+                values[it] = ex;
+            }
+        }
+    }
+
+    /**
+     * Closes all sessions.
+     * @throws Exception
+     */
+    public void close() throws Exception
+    {
+        Exception error = null;
+        for (GXCommunicate it : sessions)
+        {
+            try
+            {
+                it.close();
+            }
+            catch (Exception ex)
+            {
+                if (error == null)
+                {
+                    error = ex;
+                }
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+}
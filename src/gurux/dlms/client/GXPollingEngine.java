@@ -0,0 +1,719 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.common.IGXMedia;
+import gurux.dlms.GXDLMSClient;
+import gurux.dlms.GXDLMSException;
+import gurux.dlms.manufacturersettings.GXManufacturer;
+import gurux.dlms.manufacturersettings.GXManufacturerCollection;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSObjectCollection;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+import gurux.dlms.objects.IGXDLMSBase;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads several meters at the same time.
+ * Each meter is read using own GXCommunicate session and
+ * the results are given to the shared sink.
+ */
+public class GXPollingEngine implements IGXSessionFactory
+{
+    private final GXManufacturerCollection manufacturers;
+    private final GXManufacturerRegistry registry;
+    private final IGXPollingSink sink;
+    private final GXTraceWriter traceFile;
+    private final int concurrency;
+    private int waitTime = 1500;
+    private int pipelineDepth = 1;
+    private GXRetryPolicy retryPolicy = new GXRetryPolicy();
+    private GXNioReactor reactor;
+    private int associations = 1;
+    private GXReadoutPlan readoutPlan;
+    private GXAssociationCache associationCache;
+    private String scalerCachePath;
+    private GXSessionPool sessionPool;
+    private GXTraceLevel traceLevel = GXTraceLevel.FILE;
+    private boolean refresh;
+    private GXProfileHarvester harvester;
+    private final GXMetrics metrics = new GXMetrics();
+    private long metricsIdleTime = 24 * 60 * 60 * 1000L;
+    /**
+     * OBIS code lookup tables by the manufacturer identification if registry is not used.
+     */
+    private final Map<String, GXObisMap> obisMaps = new HashMap<String, GXObisMap>();
+
+    /**
+     * Constructor.
+     * @param manufacturers Manufacturer settings. These are read only once and shared by all meters.
+     * @param concurrency How many meters are read at the same time.
+     * @param sink Sink where results are given.
+     * @param traceFile Trace file shared by all meters.
+     */
+    public GXPollingEngine(GXManufacturerCollection manufacturers, int concurrency,
+            IGXPollingSink sink, GXTraceWriter traceFile)
+    {
+        this(manufacturers, null, concurrency, sink, traceFile);
+    }
+
+    /**
+     * Constructor.
+     * @param registry Manufacturer settings that are shared by the process.
+     * Settings are read again if setting files change.
+     * @param concurrency How many meters are read at the same time.
+     * @param sink Sink where results are given.
+     * @param traceFile Trace file shared by all meters.
+     */
+    public GXPollingEngine(GXManufacturerRegistry registry, int concurrency,
+            IGXPollingSink sink, GXTraceWriter traceFile)
+    {
+        this(null, registry, concurrency, sink, traceFile);
+    }
+
+    private GXPollingEngine(GXManufacturerCollection manufacturers, GXManufacturerRegistry registry,
+            int concurrency, IGXPollingSink sink, GXTraceWriter traceFile)
+    {
+        if (concurrency < 1)
+        {
+            throw new IllegalArgumentException("Invalid concurrency.");
+        }
+        this.manufacturers = manufacturers;
+        this.registry = registry;
+        this.concurrency = concurrency;
+        this.sink = sink;
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Metrics of each meter are added to these metrics.
+     * Example: engine.getMetrics().register();
+     * @return Counters and histograms of all meters.
+     */
+    public GXMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return Time in milliseconds after metrics of the meter that is not read are removed.
+     * Zero if metrics are never removed.
+     */
+    public long getMetricsIdleTime()
+    {
+        return metricsIdleTime;
+    }
+
+    /**
+     * @param value Time in milliseconds after metrics of the meter that is not read are removed.
+     * Zero if metrics are never removed.
+     */
+    public void setMetricsIdleTime(long value)
+    {
+        metricsIdleTime = value;
+    }
+
+    /**
+     * @return Reply wait time in milliseconds until round trip time of the meter is measured.
+     */
+    public int getWaitTime()
+    {
+        return waitTime;
+    }
+
+    /**
+     * @param value Reply wait time in milliseconds until round trip time of the meter is measured.
+     */
+    public void setWaitTime(int value)
+    {
+        waitTime = value;
+    }
+
+    /**
+     * @return Attributes that are read from the meters. Null if all attributes are read.
+     */
+    public GXReadoutPlan getReadoutPlan()
+    {
+        return readoutPlan;
+    }
+
+    /**
+     * @param value Attributes that are read from the meters. Null if all attributes are read.
+     */
+    public void setReadoutPlan(GXReadoutPlan value)
+    {
+        readoutPlan = value;
+    }
+
+    /**
+     * @return How many associations are used to read one TCP/IP meter.
+     */
+    public int getAssociations()
+    {
+        return associations;
+    }
+
+    /**
+     * Extra associations use the same client address and authentication as the first one,
+     * so the meter must allow several connections with the same client SAP.
+     * @param value How many associations are used to read one TCP/IP meter.
+     * If the meter doesn't allow so many associations, the ones that could be opened are used.
+     */
+    public void setAssociations(int value)
+    {
+        if (value < 1)
+        {
+            throw new IllegalArgumentException("Invalid association count.");
+        }
+        associations = value;
+    }
+
+    /**
+     * @return Reactor for non-blocking TCP/IP connections. Null if GXNet is used.
+     */
+    public GXNioReactor getReactor()
+    {
+        return reactor;
+    }
+
+    /**
+     * @param value Reactor for non-blocking TCP/IP connections. Null if GXNet is used.
+     */
+    public void setReactor(GXNioReactor value)
+    {
+        reactor = value;
+    }
+
+    /**
+     * @return How requests are resent.
+     */
+    public GXRetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * @param value How requests are resent.
+     */
+    public void setRetryPolicy(GXRetryPolicy value)
+    {
+        retryPolicy = value;
+    }
+
+    /**
+     * @return How many GET requests are sent before the first reply is read.
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * @param value How many GET requests are sent before the first reply is read. Between 1 and 16.
+     */
+    public void setPipelineDepth(int value)
+    {
+        if (value < 1 || value > 16)
+        {
+            throw new IllegalArgumentException("Pipeline depth must be between 1 and 16.");
+        }
+        pipelineDepth = value;
+    }
+
+    /**
+     * @return Cache for association views. Null if views are always read from the meters.
+     */
+    public GXAssociationCache getAssociationCache()
+    {
+        return associationCache;
+    }
+
+    /**
+     * @param value Cache for association views. Null if views are always read from the meters.
+     */
+    public void setAssociationCache(GXAssociationCache value)
+    {
+        associationCache = value;
+    }
+
+    /**
+     * @return Directory where register scalers are cached. Null if scalers are always read from the meters.
+     */
+    public String getScalerCachePath()
+    {
+        return scalerCachePath;
+    }
+
+    /**
+     * Scalers are cached only if association cache is used,
+     * because firmware changes of the meter are noticed by the association cache.
+     * @param value Directory where register scalers are cached. Null if scalers are always read from the meters.
+     */
+    public void setScalerCachePath(String value)
+    {
+        scalerCachePath = value;
+    }
+
+    /**
+     * @return Where sent and received frames are traced.
+     */
+    public GXTraceLevel getTraceLevel()
+    {
+        return traceLevel;
+    }
+
+    /**
+     * @param value Where sent and received frames are traced.
+     */
+    public void setTraceLevel(GXTraceLevel value)
+    {
+        traceLevel = value;
+    }
+
+    /**
+     * @return Is association view read from the meter even if it's cached.
+     */
+    public boolean getRefresh()
+    {
+        return refresh;
+    }
+
+    /**
+     * @param value Is association view read from the meter even if it's cached.
+     * Cache is updated on each readout while this is set.
+     */
+    public void setRefresh(boolean value)
+    {
+        refresh = value;
+    }
+
+    /**
+     * @return Harvester that reads new profile generic rows. Null if profile generics are not read.
+     */
+    public GXProfileHarvester getProfileHarvester()
+    {
+        return harvester;
+    }
+
+    /**
+     * @param value Harvester that reads new profile generic rows. Null if profile generics are not read.
+     */
+    public void setProfileHarvester(GXProfileHarvester value)
+    {
+        harvester = value;
+    }
+
+    /**
+     * Reads given meters and waits until all of them are read.
+     * Meter I/O is blocking, so one thread is used for each active session.
+     * @param meters Meters to read.
+     * @throws InterruptedException
+     */
+    public void poll(List<GXMeterEndpoint> meters) throws InterruptedException
+    {
+        if (metricsIdleTime > 0)
+        {
+            metrics.removeIdle(metricsIdleTime);
+        }
+        final AtomicInteger index = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(concurrency, Math.max(1, meters.size())), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "GXPollingEngine " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try
+        {
+            List<Future<?>> tasks = new ArrayList<Future<?>>(meters.size());
+            for (final GXMeterEndpoint it : meters)
+            {
+                tasks.add(executor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        read(it);
+                    }
+                }));
+            }
+            for (Future<?> it : tasks)
+            {
+                try
+                {
+                    it.get();
+                }
+                catch (ExecutionException ex)
+                {
+                    //read reports errors to the sink.
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Session pool or null if connection is made for each read.
+     */
+    public GXSessionPool getSessionPool()
+    {
+        return sessionPool;
+    }
+
+    /**
+     * Sets session pool. Associations are kept open between the polls.
+     * Example: engine.setSessionPool(new GXSessionPool(engine));
+     * @param value Session pool or null if connection is made for each read.
+     */
+    public void setSessionPool(GXSessionPool value)
+    {
+        sessionPool = value;
+    }
+
+    /**
+     * Creates media for the meter.
+     * Override this to use other media, for example GXSimulatorMedia.
+     * @param meter Meter.
+     * @return Media.
+     */
+    protected IGXMedia createMedia(GXMeterEndpoint meter)
+    {
+        return meter.createMedia(reactor);
+    }
+
+    /**
+     * Connects to the meter and makes the association.
+     * @param meter Meter.
+     * @return Connected session.
+     * @throws Exception
+     */
+    @Override
+    public GXCommunicate connect(GXMeterEndpoint meter) throws Exception
+    {
+        GXManufacturer man;
+        if (registry != null)
+        {
+            man = registry.findByIdentification(meter.getManufacturer());
+        }
+        else
+        {
+            man = manufacturers.findByIdentification(meter.getManufacturer());
+        }
+        if (man == null)
+        {
+            throw new RuntimeException("Invalid manufacturer.");
+        }
+        GXDLMSClient dlms = new GXDLMSClient();
+        dlms.setObisCodes(man.getObisCodes());
+        GXCommunicate com = new GXCommunicate(waitTime, dlms, man, meter.getIec(),
+                meter.getAuthentication(), meter.getPassword(), createMedia(meter), traceFile);
+        com.setPipelineDepth(pipelineDepth);
+        com.setStatistics(meter.getStatistics());
+        com.setMetrics(meter.getMetrics(metrics));
+        com.setRetryPolicy(retryPolicy);
+        com.setTraceLevel(traceLevel);
+        if (registry != null)
+        {
+            com.setObisMap(registry.getObisMap(man));
+        }
+        else
+        {
+            synchronized (obisMaps)
+            {
+                GXObisMap map = obisMaps.get(man.getIdentification());
+                if (map == null)
+                {
+                    map = new GXObisMap(man.getObisCodes());
+                    obisMaps.put(man.getIdentification(), map);
+                }
+                com.setObisMap(map);
+            }
+        }
+        if (scalerCachePath != null && associationCache != null)
+        {
+            com.setScalerCache(new GXScalerCache(scalerCachePath, meter.toString()));
+        }
+        try
+        {
+            com.initializeConnection();
+        }
+        catch (Exception ex)
+        {
+            try
+            {
+                com.close();
+            }
+            catch (Exception e)
+            {
+                //Original error is reported.
+            }
+            throw ex;
+        }
+        return com;
+    }
+
+    /**
+     * Connects to the meter, reads association view and all attributes
+     * except profile generic buffers and closes the connection.
+     * If session pool is used, session is borrowed from the pool and
+     * it's returned to the pool instead of closing it.
+     * @param meter Meter to read.
+     */
+    void read(final GXMeterEndpoint meter)
+    {
+        GXCommunicate com = null;
+        long start = System.currentTimeMillis();
+        long connectTime = 0;
+        final List<Map.Entry<GXDLMSObject, Integer>> attributes = new ArrayList<Map.Entry<GXDLMSObject, Integer>>();
+        try
+        {
+            Object[] values;
+            if (sessionPool != null)
+            {
+                values = sessionPool.execute(meter, new IGXSessionTask<Object[]>()
+                {
+                    @Override
+                    public Object[] run(GXCommunicate com) throws Exception
+                    {
+                        attributes.clear();
+                        return read(meter, com, attributes);
+                    }
+                });
+            }
+            else
+            {
+                com = connect(meter);
+                connectTime = System.currentTimeMillis() - start;
+                values = read(meter, com, attributes);
+            }
+            for (int pos = 0; pos != values.length; ++pos)
+            {
+                GXDLMSObject target = attributes.get(pos).getKey();
+                int index = attributes.get(pos).getValue();
+                if (values[pos] instanceof Exception)
+                {
+                    sink.onError(meter, target, index, (Exception) values[pos]);
+                }
+                else
+                {
+                    sink.onValue(meter, target, index, values[pos]);
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            sink.onError(meter, null, 0, ex);
+        }
+        finally
+        {
+            if (com != null)
+            {
+                try
+                {
+                    com.close();
+                }
+                catch (Exception ex)
+                {
+                    sink.onError(meter, null, 0, ex);
+                }
+            }
+        }
+        long readTime = System.currentTimeMillis() - start - connectTime;
+        sink.onCompleted(meter, connectTime, readTime);
+    }
+
+    /**
+     * Reads association view and all attributes except profile generic buffers.
+     * New profile generic rows are read if harvester is set.
+     * @param meter Meter.
+     * @param com Connected session.
+     * @param attributes Read attributes are added here.
+     * @return Read values.
+     * @throws Exception
+     */
+    private Object[] read(GXMeterEndpoint meter, GXCommunicate com,
+            List<Map.Entry<GXDLMSObject, Integer>> attributes) throws Exception
+    {
+        GXDLMSObjectCollection objects;
+        if (associationCache != null)
+        {
+            objects = associationCache.getObjects(com, meter.getManufacturer(), refresh);
+        }
+        else
+        {
+            objects = com.dlms.parseObjects(com.readDataBlock(com.dlms.getObjectsRequest()), true);
+        }
+        GXReadoutPlan plan = null;
+        List<Integer> selected = null;
+        long now = System.currentTimeMillis();
+        if (readoutPlan != null)
+        {
+            plan = readoutPlan.compile(com.manufacturer);
+            if (meter.readoutState == null || meter.readoutState.plan != plan)
+            {
+                meter.readoutState = plan.createState();
+            }
+            selected = new ArrayList<Integer>();
+            attributes.addAll(plan.select(meter.readoutState, objects, now, selected));
+        }
+        else
+        {
+            for (GXDLMSObject it : objects)
+            {
+                //Profile generic buffers are not read because it might take so long time.
+                if (!(it instanceof IGXDLMSBase) || it instanceof GXDLMSProfileGeneric)
+                {
+                    continue;
+                }
+                for (int pos : ((IGXDLMSBase) it).getAttributeIndexToRead())
+                {
+                    attributes.add(new AbstractMap.SimpleEntry<GXDLMSObject, Integer>(it, pos));
+                }
+            }
+        }
+        Object[] values;
+        if (associations > 1 && meter.isNet())
+        {
+            values = readParallel(meter, com, attributes);
+        }
+        else
+        {
+            values = com.readObjects(attributes);
+        }
+        if (plan != null)
+        {
+            //Entries are marked as read only after they are read.
+            plan.commit(meter.readoutState, selected, values, now);
+        }
+        if (associationCache != null)
+        {
+            associationCache.save(com);
+        }
+        if (com.getScalerCache() != null)
+        {
+            com.getScalerCache().save();
+        }
+        if (harvester != null)
+        {
+            harvest(meter, com, objects);
+        }
+        return values;
+    }
+
+    /**
+     * Reads new rows of all profile generics.
+     * Errors that the meter returns are given to the sink and other profile generics are read.
+     */
+    private void harvest(GXMeterEndpoint meter, GXCommunicate com, GXDLMSObjectCollection objects) throws Exception
+    {
+        for (GXDLMSObject it : objects)
+        {
+            if (it instanceof GXDLMSProfileGeneric)
+            {
+                try
+                {
+                    harvester.harvest(com, meter.toString(), (GXDLMSProfileGeneric) it);
+                }
+                catch (GXDLMSException ex)
+                {
+                    sink.onError(meter, it, 2, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens more associations to the meter and reads attributes using all of them.
+     * Extra associations are made with the same client address as the first one.
+     * @param meter Meter.
+     * @param com Connected session where association view is read.
+     * @param attributes Objects and attribute indexes to read.
+     * @return Read values.
+     * @throws Exception
+     */
+    private Object[] readParallel(GXMeterEndpoint meter, GXCommunicate com,
+            List<Map.Entry<GXDLMSObject, Integer>> attributes) throws Exception
+    {
+        List<GXCommunicate> sessions = new ArrayList<GXCommunicate>();
+        sessions.add(com);
+        try
+        {
+            for (int pos = 1; pos < associations; ++pos)
+            {
+                try
+                {
+                    sessions.add(connect(meter));
+                }
+                catch (Exception ex)
+                {
+                    //Meter doesn't allow more associations.
+                    break;
+                }
+            }
+            return new GXParallelReader(sessions).readObjects(attributes);
+        }
+        finally
+        {
+            for (int pos = 1; pos < sessions.size(); ++pos)
+            {
+                try
+                {
+                    sessions.get(pos).close();
+                }
+                catch (Exception ex)
+                {
+                    sink.onError(meter, null, 0, ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,623 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSCaptureObject;
+import gurux.dlms.objects.GXDLMSClock;
+import gurux.dlms.objects.GXDLMSObject;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Profile generic rows stored by column.
+ * Times and integers are kept in long arrays and floats and scaled register
+ * values in double arrays, so a row does not need any objects.
+ * Only octet strings, strings and structures are stored as objects.
+ * Rows are added by GXRowDecoder while data blocks are received.
+ */
+public class GXProfileColumns implements IGXCellListener
+{
+    /**
+     * Column is not received yet.
+     */
+    public static final int EMPTY = 0;
+    /**
+     * Column values are integers.
+     */
+    public static final int LONG = 1;
+    /**
+     * Column values are floats or scaled values.
+     */
+    public static final int DOUBLE = 2;
+    /**
+     * Column values are times in milliseconds.
+     */
+    public static final int TIME = 3;
+    /**
+     * Column values are objects.
+     */
+    public static final int OBJECT = 4;
+
+    private final List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> columns;
+    private final GXDLMSObject[] captureObjects;
+    private final int[] kinds;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private final BitSet[] nulls;
+    private int timeColumn = -1;
+    private int capacity;
+    private int count;
+
+    /**
+     * Constructor.
+     * @param columns Columns returned from GXCommunicate.GetColumns.
+     */
+    public GXProfileColumns(List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> columns)
+    {
+        this(columns, 96);
+    }
+
+    /**
+     * Constructor.
+     * @param columns Columns returned from GXCommunicate.GetColumns.
+     * @param capacity Amount of rows that are allocated at first.
+     */
+    public GXProfileColumns(List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> columns, int capacity)
+    {
+        this(columns, null, capacity);
+    }
+
+    /**
+     * Constructor. First clock object is used as a capture time.
+     * @param captureObjects Capture objects of the profile generic.
+     * @param capacity Amount of rows that are allocated at first.
+     */
+    public GXProfileColumns(GXDLMSObject[] captureObjects, int capacity)
+    {
+        this(null, captureObjects, capacity);
+    }
+
+    private GXProfileColumns(List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> columns,
+            GXDLMSObject[] captureObjects, int capacity)
+    {
+        this.columns = columns;
+        this.capacity = Math.max(capacity, 1);
+        int cnt = columns != null ? columns.size() : captureObjects.length;
+        if (captureObjects == null)
+        {
+            captureObjects = new GXDLMSObject[cnt];
+            for (int pos = 0; pos != cnt; ++pos)
+            {
+                captureObjects[pos] = columns.get(pos).getKey();
+            }
+        }
+        this.captureObjects = captureObjects;
+        kinds = new int[cnt];
+        longs = new long[cnt][];
+        doubles = new double[cnt][];
+        objects = new Object[cnt][];
+        nulls = new BitSet[cnt];
+        for (int pos = 0; pos != cnt; ++pos)
+        {
+            nulls[pos] = new BitSet();
+            if (timeColumn == -1 && captureObjects[pos] instanceof GXDLMSClock
+                    && (columns == null || columns.get(pos).getValue().getAttributeIndex() == 2))
+            {
+                timeColumn = pos;
+            }
+        }
+    }
+
+    /**
+     * @return Capture objects of the columns.
+     */
+    public GXDLMSObject[] getCaptureObjects()
+    {
+        return captureObjects;
+    }
+
+    /**
+     * @return Columns of the profile generic or null if only capture objects are given.
+     */
+    public List<AbstractMap.SimpleEntry<GXDLMSObject, GXDLMSCaptureObject>> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @return Amount of columns.
+     */
+    public int getColumnCount()
+    {
+        return kinds.length;
+    }
+
+    /**
+     * @return Amount of rows.
+     */
+    public int getRowCount()
+    {
+        return count;
+    }
+
+    /**
+     * @param column Column index.
+     * @return How values of the column are stored.
+     */
+    public int getKind(int column)
+    {
+        return kinds[column];
+    }
+
+    /**
+     * @return Index of the clock column or -1 if profile don't have it.
+     */
+    public int getTimeColumn()
+    {
+        return timeColumn;
+    }
+
+    /**
+     * @param row Row index.
+     * @param column Column index.
+     * @return Is cell empty.
+     */
+    public boolean isNull(int row, int column)
+    {
+        checkRow(row);
+        return nulls[column].get(row);
+    }
+
+    /**
+     * Returns rows where cell is empty.
+     * @param column Column index.
+     * @return Rows as bits. Returned set is not copied.
+     */
+    public BitSet getNulls(int column)
+    {
+        return nulls[column];
+    }
+
+    /**
+     * Returns rows where any of the given bits is set in the column value.
+     * This is used with status columns.
+     * @param column Column index.
+     * @param mask Status bits.
+     * @return Rows as bits.
+     */
+    public BitSet getRows(int column, long mask)
+    {
+        BitSet rows = new BitSet(count);
+        if (kinds[column] == LONG)
+        {
+            long[] values = longs[column];
+            for (int pos = 0; pos != count; ++pos)
+            {
+                if ((values[pos] & mask) != 0 && !nulls[column].get(pos))
+                {
+                    rows.set(pos);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param row Row index.
+     * @return Capture time of the row in milliseconds.
+     */
+    public long getTime(int row)
+    {
+        if (timeColumn == -1 || kinds[timeColumn] != TIME)
+        {
+            throw new IllegalStateException("Profile generic don't have capture time.");
+        }
+        return getLong(row, timeColumn);
+    }
+
+    /**
+     * @param row Row index.
+     * @param column Column index.
+     * @return Integer or time value of the cell.
+     */
+    public long getLong(int row, int column)
+    {
+        checkRow(row);
+        switch (kinds[column])
+        {
+            case LONG:
+            case TIME:
+                return longs[column][row];
+            case DOUBLE:
+                return (long) doubles[column][row];
+            default:
+                throw new IllegalStateException("Column " + column + " is not numeric.");
+        }
+    }
+
+    /**
+     * @param row Row index.
+     * @param column Column index.
+     * @return Value of the cell as double.
+     */
+    public double getDouble(int row, int column)
+    {
+        checkRow(row);
+        switch (kinds[column])
+        {
+            case LONG:
+            case TIME:
+                return longs[column][row];
+            case DOUBLE:
+                return doubles[column][row];
+            default:
+                throw new IllegalStateException("Column " + column + " is not numeric.");
+        }
+    }
+
+    /**
+     * Returns cell as object. Numbers are boxed and times are returned as Date.
+     * @param row Row index.
+     * @param column Column index.
+     * @return Value of the cell or null if cell is empty.
+     */
+    public Object getObject(int row, int column)
+    {
+        checkRow(row);
+        if (nulls[column].get(row))
+        {
+            return null;
+        }
+        switch (kinds[column])
+        {
+            case LONG:
+                return longs[column][row];
+            case TIME:
+                return new Date(longs[column][row]);
+            case DOUBLE:
+                return doubles[column][row];
+            case OBJECT:
+                return objects[column][row];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns values of the column.
+     * Returned array is not copied and it's longer than the row count.
+     * @param column Column index.
+     * @return Values or null if column is not an integer or time column.
+     */
+    public long[] getLongs(int column)
+    {
+        return longs[column];
+    }
+
+    /**
+     * Returns values of the column.
+     * Returned array is not copied and it's longer than the row count.
+     * @param column Column index.
+     * @return Values or null if column is not a double column.
+     */
+    public double[] getDoubles(int column)
+    {
+        return doubles[column];
+    }
+
+    /**
+     * @return Cursor that is set before the first row.
+     */
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Removes all rows. Allocated columns are reused.
+     */
+    public void clear()
+    {
+        count = 0;
+        for (BitSet it : nulls)
+        {
+            it.clear();
+        }
+        for (Object[] it : objects)
+        {
+            if (it != null)
+            {
+                Arrays.fill(it, null);
+            }
+        }
+    }
+
+    /**
+     * Releases memory that is allocated for rows that are not used.
+     */
+    public void trimToSize()
+    {
+        resize(Math.max(count, 1));
+    }
+
+    @Override
+    public void beginRow(int cellCount)
+    {
+        if (count == capacity)
+        {
+            resize(capacity + (capacity >> 1) + 1);
+        }
+        //Cell is empty until it's value is received.
+        for (BitSet it : nulls)
+        {
+            it.set(count);
+        }
+    }
+
+    @Override
+    public void onNull(int column)
+    {
+    }
+
+    @Override
+    public void onLong(int column, long value)
+    {
+        if (column >= kinds.length)
+        {
+            return;
+        }
+        switch (kinds[column])
+        {
+            case EMPTY:
+                kinds[column] = LONG;
+                longs[column] = new long[capacity];
+                //Fall through.
+            case LONG:
+            case TIME:
+                longs[column][count] = value;
+                break;
+            case DOUBLE:
+                doubles[column][count] = value;
+                break;
+            default:
+                objects[column][count] = value;
+                break;
+        }
+        nulls[column].clear(count);
+    }
+
+    @Override
+    public void onDouble(int column, double value)
+    {
+        if (column >= kinds.length)
+        {
+            return;
+        }
+        switch (kinds[column])
+        {
+            case LONG:
+                //Integer column is changed to double column.
+                doubles[column] = new double[capacity];
+                for (int pos = 0; pos != count; ++pos)
+                {
+                    doubles[column][pos] = longs[column][pos];
+                }
+                longs[column] = null;
+                kinds[column] = DOUBLE;
+                break;
+            case EMPTY:
+                kinds[column] = DOUBLE;
+                doubles[column] = new double[capacity];
+                break;
+            default:
+                break;
+        }
+        if (kinds[column] == DOUBLE)
+        {
+            doubles[column][count] = value;
+        }
+        else
+        {
+            setObject(column, value);
+        }
+        nulls[column].clear(count);
+    }
+
+    @Override
+    public void onTime(int column, long value)
+    {
+        if (column >= kinds.length)
+        {
+            return;
+        }
+        if (kinds[column] == EMPTY)
+        {
+            kinds[column] = TIME;
+            longs[column] = new long[capacity];
+        }
+        if (kinds[column] == TIME)
+        {
+            longs[column][count] = value;
+        }
+        else
+        {
+            setObject(column, new Date(value));
+        }
+        nulls[column].clear(count);
+    }
+
+    @Override
+    public void onObject(int column, Object value)
+    {
+        if (column >= kinds.length)
+        {
+            return;
+        }
+        setObject(column, value);
+        nulls[column].clear(count);
+    }
+
+    @Override
+    public void endRow()
+    {
+        ++count;
+    }
+
+    /**
+     * Sets object value. Numeric column is changed to object column
+     * if it contains value that is not a number.
+     */
+    private void setObject(int column, Object value)
+    {
+        if (kinds[column] != OBJECT)
+        {
+            Object[] tmp = new Object[capacity];
+            for (int pos = 0; pos != count; ++pos)
+            {
+                tmp[pos] = getObject(pos, column);
+            }
+            objects[column] = tmp;
+            longs[column] = null;
+            doubles[column] = null;
+            kinds[column] = OBJECT;
+        }
+        objects[column][count] = value;
+    }
+
+    private void resize(int size)
+    {
+        for (int pos = 0; pos != kinds.length; ++pos)
+        {
+            if (longs[pos] != null)
+            {
+                longs[pos] = Arrays.copyOf(longs[pos], size);
+            }
+            if (doubles[pos] != null)
+            {
+                doubles[pos] = Arrays.copyOf(doubles[pos], size);
+            }
+            if (objects[pos] != null)
+            {
+                objects[pos] = Arrays.copyOf(objects[pos], size);
+            }
+        }
+        capacity = size;
+    }
+
+    private void checkRow(int row)
+    {
+        if (row < 0 || row >= count)
+        {
+            throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + count);
+        }
+    }
+
+    /**
+     * Moves over the rows without creating objects for the cells.
+     */
+    public class Cursor
+    {
+        private int row = -1;
+
+        /**
+         * Moves to the next row.
+         * @return False, if there are no more rows.
+         */
+        public boolean next()
+        {
+            if (row < count)
+            {
+                ++row;
+            }
+            return row < count;
+        }
+
+        /**
+         * @return Current row index.
+         */
+        public int getRow()
+        {
+            return row;
+        }
+
+        /**
+         * @return Capture time of the row in milliseconds.
+         */
+        public long getTime()
+        {
+            return GXProfileColumns.this.getTime(row);
+        }
+
+        /**
+         * @param column Column index.
+         * @return Is cell empty.
+         */
+        public boolean isNull(int column)
+        {
+            return GXProfileColumns.this.isNull(row, column);
+        }
+
+        /**
+         * @param column Column index.
+         * @return Integer or time value of the cell.
+         */
+        public long getLong(int column)
+        {
+            return GXProfileColumns.this.getLong(row, column);
+        }
+
+        /**
+         * @param column Column index.
+         * @return Value of the cell as double.
+         */
+        public double getDouble(int column)
+        {
+            return GXProfileColumns.this.getDouble(row, column);
+        }
+
+        /**
+         * @param column Column index.
+         * @return Value of the cell or null if cell is empty.
+         */
+        public Object getObject(int column)
+        {
+            return GXProfileColumns.this.getObject(row, column);
+        }
+    }
+}
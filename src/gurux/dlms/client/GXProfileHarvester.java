@@ -0,0 +1,650 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.GXDLMSException;
+import gurux.dlms.GXDateTime;
+import gurux.dlms.objects.GXDLMSClock;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads only the profile generic rows that are not read before.
+ * If profile has a clock column rows are read by range starting
+ * after the last stored time stamp. Otherwise rows are read by entry
+ * and the last stored entry is read again to notice if the entries have shifted.
+ * High-water mark is committed only after the sink has stored the rows.
+ * Rows can be read in parts so that the scheduler can run urgent
+ * operations between the requests.
+ */
+public class GXProfileHarvester
+{
+    /**
+     * Collects the rows while they are received.
+     * Rows that are already stored are skipped.
+     */
+    static class Rows implements IGXRowListener
+    {
+        final List<Object> rows = new ArrayList<Object>();
+        private final int clock;
+        private final long last;
+        long max;
+
+        /**
+         * Constructor.
+         * @param clock Index of the clock column or -1 if rows are read by entry.
+         * @param last Time stamp of the last stored row.
+         */
+        Rows(int clock, long last)
+        {
+            this.clock = clock;
+            this.last = last;
+            max = last;
+        }
+
+        @Override
+        public void onRow(Object[] row)
+        {
+            if (clock == -1)
+            {
+                rows.add(row);
+                return;
+            }
+            //Range is inclusive, so rows that are already stored are removed.
+            long time = getTime(row[clock]);
+            if (time == Long.MIN_VALUE || time > last)
+            {
+                rows.add(row);
+                max = Math.max(max, time);
+            }
+        }
+    }
+
+    private final GXHighWaterMarks marks;
+    private final IGXProfileSink sink;
+    private int initialDays = 1;
+    private int maxRows;
+    private long rangeLength;
+
+    /**
+     * Constructor.
+     * @param marks Last read rows of the meters.
+     * @param sink Sink where new rows are stored.
+     */
+    public GXProfileHarvester(GXHighWaterMarks marks, IGXProfileSink sink)
+    {
+        this.marks = marks;
+        this.sink = sink;
+    }
+
+    /**
+     * @return How many days are read when profile is read first time.
+     */
+    public int getInitialDays()
+    {
+        return initialDays;
+    }
+
+    /**
+     * @param value How many days are read when profile is read first time.
+     */
+    public void setInitialDays(int value)
+    {
+        initialDays = value;
+    }
+
+    /**
+     * @return How many rows are read with one request when rows are read by entry.
+     * Zero if all new rows are read with one request.
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * @param value How many rows are read with one request when rows are read by entry.
+     * Zero if all new rows are read with one request.
+     */
+    public void setMaxRows(int value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Invalid row count.");
+        }
+        maxRows = value;
+    }
+
+    /**
+     * @return Length of the time range in milliseconds that is read with one request
+     * when rows are read by range. Zero if all new rows are read with one request.
+     */
+    public long getRangeLength()
+    {
+        return rangeLength;
+    }
+
+    /**
+     * @param value Length of the time range in milliseconds that is read with one request
+     * when rows are read by range. Zero if all new rows are read with one request.
+     */
+    public void setRangeLength(long value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Invalid range length.");
+        }
+        rangeLength = value;
+    }
+
+    /**
+     * Reads new rows of the profile generic and stores them.
+     * @param com Opened connection.
+     * @param meter Meter identification.
+     * @param pg Profile generic.
+     * @return Amount of new rows.
+     * @throws Exception
+     */
+    public int harvest(GXCommunicate com, String meter, GXDLMSProfileGeneric pg) throws Exception
+    {
+        long entriesInUse = ((Number) com.readObject(pg, 7)).longValue();
+        long profileEntries = ((Number) com.readObject(pg, 8)).longValue();
+        return harvest(com, meter, pg, entriesInUse, profileEntries);
+    }
+
+    /**
+     * Reads new rows of the profile generic and stores them.
+     * @param com Opened connection.
+     * @param meter Meter identification.
+     * @param pg Profile generic.
+     * @param entriesInUse Entries in use (attribute 7).
+     * @param profileEntries Profile entries (attribute 8).
+     * @return Amount of new rows.
+     * @throws Exception
+     */
+    public int harvest(GXCommunicate com, String meter, GXDLMSProfileGeneric pg,
+            long entriesInUse, long profileEntries) throws Exception
+    {
+        int[] stored = new int[1];
+        harvest(com, meter, pg, entriesInUse, profileEntries, stored);
+        return stored[0];
+    }
+
+    /**
+     * Reads new rows of the profile generic and stores them.
+     * If the connection is lost, session is borrowed again from the pool and
+     * the read continues after the last row that was received completely.
+     * Pool doesn't retry the read, so retries are counted only here.
+     * @param pool Session pool.
+     * @param meter Meter.
+     * @param pg Profile generic.
+     * @param retries How many times read is continued without receiving new rows.
+     * @return Amount of new rows.
+     * @throws Exception
+     */
+    public int harvest(GXSessionPool pool, GXMeterEndpoint meter, final GXDLMSProfileGeneric pg,
+            int retries) throws Exception
+    {
+        final String name = meter.toString();
+        final int[] stored = new int[1];
+        int pos = 0;
+        while (true)
+        {
+            int count = stored[0];
+            try
+            {
+                pool.execute(meter, new IGXSessionTask<Void>()
+                {
+                    @Override
+                    public Void run(GXCommunicate com) throws Exception
+                    {
+                        long entriesInUse = ((Number) com.readObject(pg, 7)).longValue();
+                        long profileEntries = ((Number) com.readObject(pg, 8)).longValue();
+                        harvest(com, name, pg, entriesInUse, profileEntries, stored);
+                        return null;
+                    }
+                }, false);
+                return stored[0];
+            }
+            catch (GXDLMSException ex)
+            {
+                //Meter has answered, so reading again doesn't help.
+                throw ex;
+            }
+            catch (Exception ex)
+            {
+                if (stored[0] != count)
+                {
+                    //Rows were received before the link was lost.
+                    pos = 0;
+                }
+                if (pos++ == retries)
+                {
+                    throw ex;
+                }
+                System.out.println("Profile generic " + pg.getLogicalName() + " read failed. "
+                        + ex.getMessage() + " Continue after " + stored[0] + " rows.");
+            }
+        }
+    }
+
+    private void harvest(GXCommunicate com, String meter, GXDLMSProfileGeneric pg,
+            long entriesInUse, long profileEntries, int[] stored) throws Exception
+    {
+        if (pg.getCaptureObjects().length == 0)
+        {
+            com.readObject(pg, 3);
+        }
+        if (entriesInUse == 0 || pg.getCaptureObjects().length == 0)
+        {
+            return;
+        }
+        int clock = getClockColumn(pg);
+        if (clock != -1)
+        {
+            harvestByRange(com, meter, pg, clock, entriesInUse, profileEntries, stored);
+        }
+        else
+        {
+            harvestByEntry(com, meter, pg, entriesInUse, profileEntries, stored);
+        }
+    }
+
+    /**
+     * Returns index of the clock column.
+     * @return Column index or -1 if profile doesn't have clock column.
+     */
+    static int getClockColumn(GXDLMSProfileGeneric pg)
+    {
+        GXDLMSObject[] columns = pg.getCaptureObjects();
+        GXDLMSObject sorted = pg.getSortObject();
+        int first = -1;
+        for (int pos = 0; pos != columns.length; ++pos)
+        {
+            if (columns[pos] instanceof GXDLMSClock)
+            {
+                if (sorted == null || columns[pos] == sorted
+                        || columns[pos].getLogicalName().equals(sorted.getLogicalName()))
+                {
+                    return pos;
+                }
+                if (first == -1)
+                {
+                    first = pos;
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns time stamp of the clock cell.
+     * @return Time in milliseconds or Long.MIN_VALUE if cell is not a time.
+     */
+    static long getTime(Object cell)
+    {
+        if (cell instanceof Date)
+        {
+            return ((Date) cell).getTime();
+        }
+        if (cell instanceof GXDateTime && ((GXDateTime) cell).getValue() != null)
+        {
+            return ((GXDateTime) cell).getValue().getTime();
+        }
+        if (cell instanceof byte[] && ((byte[]) cell).length == 12)
+        {
+            return GXAxdr.getDateTime((byte[]) cell, 0);
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private void harvestByRange(GXCommunicate com, String meter, GXDLMSProfileGeneric pg, int clock,
+            long entriesInUse, long profileEntries, int[] stored) throws Exception
+    {
+        String ln = pg.getLogicalName();
+        long last = marks.getTime(meter, ln);
+        Date start;
+        if (last == -1)
+        {
+            java.util.Calendar tm = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+            tm.set(java.util.Calendar.HOUR_OF_DAY, 0);
+            tm.set(java.util.Calendar.MINUTE, 0);
+            tm.set(java.util.Calendar.SECOND, 0);
+            tm.set(java.util.Calendar.MILLISECOND, 0);
+            tm.add(java.util.Calendar.DATE, -initialDays);
+            start = tm.getTime();
+        }
+        else
+        {
+            start = new Date(last + 1000);
+        }
+        Date now = new Date();
+        int total = 0;
+        long first = last;
+        while (true)
+        {
+            Date end = now;
+            if (rangeLength != 0 && start.getTime() + rangeLength < now.getTime())
+            {
+                end = new Date(start.getTime() + rangeLength);
+            }
+            Rows rows = new Rows(clock, last);
+            try
+            {
+                com.readRowsByRange(pg, pg.getCaptureObjects()[clock], start, end, rows);
+            }
+            catch (Exception ex)
+            {
+                //Rows that were received before the connection was lost are kept.
+                storeRange(meter, pg, rows, last, stored);
+                throw ex;
+            }
+            total += rows.rows.size();
+            last = storeRange(meter, pg, rows, last, stored);
+            if (end == now)
+            {
+                break;
+            }
+            //Row at the end of the range is read again and removed.
+            start = end;
+            com.yieldPoint();
+        }
+        if (first != -1 && entriesInUse == profileEntries && total >= entriesInUse)
+        {
+            System.out.println("Profile generic " + ln + " has wrapped after the last read. Rows might be lost.");
+        }
+    }
+
+    /**
+     * Stores received rows and commits the time stamp of the last row.
+     * @return Time stamp of the last stored row.
+     */
+    private long storeRange(String meter, GXDLMSProfileGeneric pg, Rows rows,
+            long last, int[] stored) throws Exception
+    {
+        if (rows.rows.isEmpty())
+        {
+            return last;
+        }
+        sink.store(meter, pg, rows.rows.toArray());
+        stored[0] += rows.rows.size();
+        if (rows.max > last)
+        {
+            marks.setTime(meter, pg.getLogicalName(), rows.max);
+            return rows.max;
+        }
+        return last;
+    }
+
+    private void harvestByEntry(GXCommunicate com, String meter, GXDLMSProfileGeneric pg,
+            long entriesInUse, long profileEntries, int[] stored) throws Exception
+    {
+        String ln = pg.getLogicalName();
+        long last = marks.getEntry(meter, ln);
+        long row = marks.getRow(meter, ln);
+        long first;
+        int count = maxRows;
+        if (entriesInUse == profileEntries)
+        {
+            //Entries would shift between the requests.
+            count = 0;
+        }
+        if (last == -1 || entriesInUse < last)
+        {
+            //Profile is read first time or buffer is reset.
+            first = 1;
+            row = -1;
+        }
+        else if (row != -1 && last != 0)
+        {
+            //Last stored entry is read again to check that it's not shifted.
+            first = last;
+        }
+        else if (entriesInUse == profileEntries && last == profileEntries)
+        {
+            //Entry indexes don't identify the rows if the buffer is full.
+            System.out.println("Profile generic " + ln + " is full. All entries are read.");
+            first = 1;
+        }
+        else
+        {
+            first = last + 1;
+        }
+        boolean check = row != -1 && first == last;
+        while (first <= entriesInUse)
+        {
+            long tmp = entriesInUse - first + 1;
+            if (count != 0 && tmp > count)
+            {
+                tmp = count;
+            }
+            Rows rows = new Rows(-1, 0);
+            try
+            {
+                com.readRowsByEntry(pg, (int) first, (int) tmp, rows);
+            }
+            catch (Exception ex)
+            {
+                //Rows that were received before the connection was lost are kept.
+                if (!rows.rows.isEmpty() && (!check || getHash(rows.rows.get(0)) == row))
+                {
+                    if (check)
+                    {
+                        rows.rows.remove(0);
+                        ++first;
+                    }
+                    storeEntries(meter, pg, rows, first, row);
+                    stored[0] += rows.rows.size();
+                }
+                throw ex;
+            }
+            long received = rows.rows.size();
+            if (check)
+            {
+                check = false;
+                if (rows.rows.isEmpty() || getHash(rows.rows.get(0)) != row)
+                {
+                    //Old entries are shifted out after the last read.
+                    harvestShifted(com, meter, pg, last, row, entriesInUse, stored);
+                    return;
+                }
+                rows.rows.remove(0);
+                ++first;
+                --tmp;
+                --received;
+            }
+            row = storeEntries(meter, pg, rows, first, row);
+            stored[0] += rows.rows.size();
+            if (received < tmp)
+            {
+                //Meter returned less rows than asked.
+                break;
+            }
+            first += received;
+            if (first <= entriesInUse)
+            {
+                com.yieldPoint();
+            }
+        }
+    }
+
+    /**
+     * Reads the rows after the last stored entry when old entries are shifted out of the buffer.
+     * End of the buffer is read until the last stored entry is found from it.
+     */
+    private void harvestShifted(GXCommunicate com, String meter, GXDLMSProfileGeneric pg,
+            long last, long row, long entriesInUse, int[] stored) throws Exception
+    {
+        long count = 16;
+        while (true)
+        {
+            long first = Math.max(1, last - count + 1);
+            Rows rows = new Rows(-1, 0);
+            com.readRowsByEntry(pg, (int) first, (int) (entriesInUse - first + 1), rows);
+            //Same entry can't be in the buffer twice, so the newest match is used.
+            int pos = rows.rows.size();
+            while (pos != 0 && getHash(rows.rows.get(pos - 1)) != row)
+            {
+                --pos;
+            }
+            if (pos != 0 || first == 1)
+            {
+                if (pos == 0)
+                {
+                    System.out.println("Profile generic " + pg.getLogicalName()
+                            + " has wrapped after the last read. Rows might be lost.");
+                }
+                rows.rows.subList(0, pos).clear();
+                storeEntries(meter, pg, rows, first + pos, row);
+                stored[0] += rows.rows.size();
+                return;
+            }
+            count *= 4;
+            com.yieldPoint();
+        }
+    }
+
+    /**
+     * Returns hash of the row. Hash identifies the entry when the entries are shifted.
+     * Cells are hashed without converting them to strings, so time zone doesn't change the hash.
+     * Scaled values change if the scaler changes, so they are hashed only if the row has no time stamp.
+     * @return Hash of the row. Never -1.
+     */
+    static long getHash(Object row)
+    {
+        boolean time = false;
+        if (row instanceof Object[])
+        {
+            for (Object it : (Object[]) row)
+            {
+                if (getTime(it) != Long.MIN_VALUE)
+                {
+                    time = true;
+                    break;
+                }
+            }
+        }
+        //64-bit FNV-1a hash.
+        long hash = getHash(0xcbf29ce484222325L, row, !time);
+        return hash == -1 ? 0 : hash;
+    }
+
+    /**
+     * Adds the cell to the hash.
+     */
+    private static long getHash(long hash, Object cell, boolean scaled)
+    {
+        long time = getTime(cell);
+        if (time != Long.MIN_VALUE)
+        {
+            return getHash(hash, 1, time);
+        }
+        if (cell instanceof Object[])
+        {
+            Object[] tmp = (Object[]) cell;
+            hash = getHash(hash, 2, tmp.length);
+            for (Object it : tmp)
+            {
+                hash = getHash(hash, it, scaled);
+            }
+            return hash;
+        }
+        if (cell instanceof byte[])
+        {
+            byte[] tmp = (byte[]) cell;
+            hash = getHash(hash, 3, tmp.length);
+            for (byte it : tmp)
+            {
+                hash ^= it & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+        if (cell instanceof Double || cell instanceof Float)
+        {
+            return getHash(hash, 4, scaled ? Double.doubleToLongBits(((Number) cell).doubleValue()) : 0);
+        }
+        if (cell instanceof Number)
+        {
+            return getHash(hash, 5, ((Number) cell).longValue());
+        }
+        if (cell == null)
+        {
+            return getHash(hash, 6, 0);
+        }
+        String str = cell.toString();
+        hash = getHash(hash, 7, str.length());
+        for (int pos = 0; pos != str.length(); ++pos)
+        {
+            hash ^= str.charAt(pos);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Adds type and value of the cell to the hash.
+     */
+    private static long getHash(long hash, int type, long value)
+    {
+        hash ^= type;
+        hash *= 0x100000001b3L;
+        for (int pos = 0; pos != 8; ++pos)
+        {
+            hash ^= (value >>> (8 * pos)) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Stores rows that are read by entry and commits the entry and hash of the last row.
+     * @return Hash of the last stored row.
+     */
+    private long storeEntries(String meter, GXDLMSProfileGeneric pg, Rows rows,
+            long first, long row) throws Exception
+    {
+        if (!rows.rows.isEmpty())
+        {
+            sink.store(meter, pg, rows.rows.toArray());
+            row = getHash(rows.rows.get(rows.rows.size() - 1));
+        }
+        marks.setEntry(meter, pg.getLogicalName(), first + rows.rows.size() - 1, row);
+        return row;
+    }
+}
@@ -0,0 +1,383 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.enums.ObjectType;
+import gurux.dlms.manufacturersettings.GXManufacturer;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSObjectCollection;
+import gurux.dlms.objects.IGXDLMSBase;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lists the attributes that are read from the meters.
+ * Each line of the plan file has logical name, object type, attribute indexes
+ * and polling interval in seconds separated with semicolon.
+ * Object type, attribute indexes and interval are optional.
+ * If object type is not given, it's taken from the manufacturer OBIS codes.
+ * If attribute indexes are not given, all attributes of the object are read.
+ * Example:
+ * 1.0.1.8.0.255;REGISTER;2,3;900
+ * 0.0.1.0.0.255;CLOCK;2
+ * 0.0.42.0.0.255;;2;86400
+ */
+public class GXReadoutPlan
+{
+    /**
+     * One line of the plan.
+     */
+    static class Entry
+    {
+        final String logicalName;
+        final ObjectType type;
+        /**
+         * Attribute indexes or null if all attributes are read.
+         */
+        final int[] attributes;
+        /**
+         * Polling interval in milliseconds. Zero if attribute is read on each readout.
+         */
+        final long interval;
+
+        Entry(String logicalName, ObjectType type, int[] attributes, long interval)
+        {
+            this.logicalName = logicalName;
+            this.type = type;
+            this.attributes = attributes;
+            this.interval = interval;
+        }
+    }
+
+    /**
+     * Plan of one meter. Objects are matched again only when association view changes.
+     */
+    public static class State
+    {
+        final GXReadoutPlan plan;
+        GXDLMSObjectCollection objects;
+        GXDLMSObject[] targets;
+        /**
+         * When each entry was read last time.
+         */
+        final long[] lastRead;
+
+        State(GXReadoutPlan plan)
+        {
+            this.plan = plan;
+            lastRead = new long[plan.entries.size()];
+        }
+
+        /**
+         * @return Entries of the plan that are not found from the association view.
+         */
+        public List<String> getMissing()
+        {
+            List<String> list = new ArrayList<String>();
+            if (targets != null)
+            {
+                for (int pos = 0; pos != targets.length; ++pos)
+                {
+                    if (targets[pos] == null)
+                    {
+                        list.add(plan.entries.get(pos).logicalName);
+                    }
+                }
+            }
+            return list;
+        }
+    }
+
+    private final List<Entry> entries;
+    /**
+     * Compiled plans by manufacturer identification.
+     */
+    private final Map<String, GXReadoutPlan> compiled = new ConcurrentHashMap<String, GXReadoutPlan>();
+
+    GXReadoutPlan(List<Entry> entries)
+    {
+        this.entries = entries;
+    }
+
+    /**
+     * Loads plan from the file.
+     * @param path Plan file.
+     * @return Readout plan.
+     * @throws IOException
+     */
+    public static GXReadoutPlan load(String path) throws IOException
+    {
+        return parse(Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses plan lines. Empty lines and lines starting with # are skipped.
+     * @param lines Plan lines.
+     * @return Readout plan.
+     */
+    public static GXReadoutPlan parse(List<String> lines)
+    {
+        List<Entry> list = new ArrayList<Entry>();
+        int index = 0;
+        for (String line : lines)
+        {
+            ++index;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            try
+            {
+                list.add(parseEntry(line));
+            }
+            catch (RuntimeException ex)
+            {
+                throw new IllegalArgumentException("Invalid readout plan line " + index + ": " + line, ex);
+            }
+        }
+        return new GXReadoutPlan(list);
+    }
+
+    private static Entry parseEntry(String line)
+    {
+        String[] parts = line.split(";", -1);
+        if (parts.length > 4 || parts[0].trim().split("\\.").length != 6)
+        {
+            throw new IllegalArgumentException();
+        }
+        ObjectType type = ObjectType.NONE;
+        if (parts.length > 1 && !parts[1].trim().isEmpty())
+        {
+            String tmp = parts[1].trim();
+            if (Character.isDigit(tmp.charAt(0)))
+            {
+                type = ObjectType.forValue(Integer.parseInt(tmp));
+            }
+            else
+            {
+                type = ObjectType.valueOf(tmp.toUpperCase());
+            }
+        }
+        int[] attributes = null;
+        if (parts.length > 2 && !parts[2].trim().isEmpty())
+        {
+            String[] tmp = parts[2].split(",");
+            attributes = new int[tmp.length];
+            for (int pos = 0; pos != tmp.length; ++pos)
+            {
+                attributes[pos] = Integer.parseInt(tmp[pos].trim());
+            }
+        }
+        long interval = 0;
+        if (parts.length > 3 && !parts[3].trim().isEmpty())
+        {
+            interval = 1000L * Integer.parseInt(parts[3].trim());
+        }
+        return new Entry(parts[0].trim(), type, attributes, interval);
+    }
+
+    /**
+     * @return Amount of the entries.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns plan where missing object types are resolved from the OBIS codes of the manufacturer.
+     * Plan is compiled only once for each manufacturer.
+     * @param manufacturer Manufacturer.
+     * @return Compiled plan.
+     */
+    public GXReadoutPlan compile(GXManufacturer manufacturer)
+    {
+        GXReadoutPlan plan = compiled.get(manufacturer.getIdentification());
+        if (plan == null)
+        {
+            GXObisMap types = new GXObisMap(manufacturer.getObisCodes());
+            List<Entry> list = new ArrayList<Entry>(entries.size());
+            for (Entry it : entries)
+            {
+                ObjectType type = it.type;
+                if (type == ObjectType.NONE)
+                {
+                    type = types.getObjectType(it.logicalName);
+                }
+                list.add(new Entry(it.logicalName, type, it.attributes, it.interval));
+            }
+            plan = new GXReadoutPlan(list);
+            compiled.put(manufacturer.getIdentification(), plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return New readout state for one meter.
+     */
+    public State createState()
+    {
+        return new State(this);
+    }
+
+    /**
+     * Returns attributes that should be read now.
+     * Selected attributes are not marked as read.
+     * @param state Readout state of the meter.
+     * @param objects Association view of the meter.
+     * @param now Current time in milliseconds.
+     * @return Objects and attribute indexes to read.
+     */
+    public List<Map.Entry<GXDLMSObject, Integer>> select(State state, GXDLMSObjectCollection objects, long now)
+    {
+        return select(state, objects, now, null);
+    }
+
+    /**
+     * Returns attributes that should be read now.
+     * Entries are marked as read with commit after they are read.
+     * @param state Readout state of the meter.
+     * @param objects Association view of the meter.
+     * @param now Current time in milliseconds.
+     * @param selected Entry index of each returned attribute is added here. Can be null.
+     * @return Objects and attribute indexes to read.
+     */
+    public List<Map.Entry<GXDLMSObject, Integer>> select(State state, GXDLMSObjectCollection objects, long now,
+            List<Integer> selected)
+    {
+        if (state.plan != this)
+        {
+            throw new IllegalArgumentException("State is created for other plan.");
+        }
+        if (state.objects != objects)
+        {
+            match(state, objects);
+        }
+        List<Map.Entry<GXDLMSObject, Integer>> list = new ArrayList<Map.Entry<GXDLMSObject, Integer>>();
+        for (int pos = 0; pos != entries.size(); ++pos)
+        {
+            Entry e = entries.get(pos);
+            GXDLMSObject target = state.targets[pos];
+            if (target == null || (e.interval != 0 && state.lastRead[pos] != 0
+                    && now - state.lastRead[pos] < e.interval))
+            {
+                continue;
+            }
+            int[] attributes = e.attributes;
+            if (attributes == null)
+            {
+                if (!(target instanceof IGXDLMSBase))
+                {
+                    continue;
+                }
+                attributes = ((IGXDLMSBase) target).getAttributeIndexToRead();
+            }
+            for (int index : attributes)
+            {
+                list.add(new AbstractMap.SimpleEntry<GXDLMSObject, Integer>(target, index));
+                if (selected != null)
+                {
+                    selected.add(pos);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Marks selected entries as read.
+     * Entry is not marked if reading of any of its attributes has failed,
+     * so it's read again on the next readout.
+     * @param state Readout state of the meter.
+     * @param selected Entry indexes that select has returned.
+     * @param values Read values in same order. Failed reads are exceptions.
+     * @param now Time in milliseconds when entries were selected.
+     */
+    public void commit(State state, List<Integer> selected, Object[] values, long now)
+    {
+        if (state.plan != this)
+        {
+            throw new IllegalArgumentException("State is created for other plan.");
+        }
+        boolean[] failed = new boolean[entries.size()];
+        for (int pos = 0; pos != selected.size(); ++pos)
+        {
+            if (values[pos] instanceof Exception)
+            {
+                failed[selected.get(pos)] = true;
+            }
+        }
+        for (int index : selected)
+        {
+            if (!failed[index])
+            {
+                state.lastRead[index] = now;
+            }
+        }
+    }
+
+    /**
+     * Finds plan objects from the association view.
+     */
+    private void match(State state, GXDLMSObjectCollection objects)
+    {
+        Map<String, GXDLMSObject> map = new HashMap<String, GXDLMSObject>(2 * objects.size());
+        for (GXDLMSObject it : objects)
+        {
+            map.put(it.getLogicalName(), it);
+        }
+        GXDLMSObject[] targets = new GXDLMSObject[entries.size()];
+        for (int pos = 0; pos != targets.length; ++pos)
+        {
+            Entry e = entries.get(pos);
+            GXDLMSObject target = map.get(e.logicalName);
+            if (target != null && (e.type == ObjectType.NONE || e.type == target.getObjectType()))
+            {
+                targets[pos] = target;
+            }
+        }
+        state.targets = targets;
+        state.objects = objects;
+    }
+}
@@ -0,0 +1,189 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Media that replays recorded meter replies.
+ * Each sent frame is answered with the next recorded reply.
+ * When all replies are used, replaying continues from the loop start,
+ * so the same exchange can be repeated as many times as needed.
+ */
+public class GXReplayMedia extends GXMemoryMedia
+{
+    private final List<byte[]> requests;
+    private final List<byte[]> replies;
+    private int position;
+    private int loopStart = -1;
+
+    /**
+     * Constructor.
+     * @param replies Replies in the order they are sent.
+     * @param net Is IEC 62056-47 wrapper used instead of HDLC framing.
+     */
+    public GXReplayMedia(List<byte[]> replies, boolean net)
+    {
+        this(new ArrayList<byte[]>(), replies, net);
+    }
+
+    private GXReplayMedia(List<byte[]> requests, List<byte[]> replies, boolean net)
+    {
+        super(net);
+        this.requests = requests;
+        this.replies = replies;
+    }
+
+    /**
+     * Loads sent and received frames from the trace file.
+     * @param fileName Trace file written by GXCommunicate.
+     * @param net Is IEC 62056-47 wrapper used instead of HDLC framing.
+     * @return Replay media.
+     * @throws IOException
+     */
+    public static GXReplayMedia load(String fileName, boolean net) throws IOException
+    {
+        List<byte[]> requests = new ArrayList<byte[]>();
+        List<byte[]> replies = new ArrayList<byte[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int pos = line.indexOf('\t');
+                if (pos == -1)
+                {
+                    continue;
+                }
+                if (line.startsWith("<-"))
+                {
+                    requests.add(toBytes(line.substring(pos + 1)));
+                }
+                else if (line.startsWith("->"))
+                {
+                    replies.add(toBytes(line.substring(pos + 1)));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return new GXReplayMedia(requests, replies, net);
+    }
+
+    /**
+     * Converts hex string to bytes.
+     */
+    static byte[] toBytes(String value)
+    {
+        String[] parts = value.trim().split(" ");
+        byte[] data = new byte[parts.length];
+        for (int pos = 0; pos != parts.length; ++pos)
+        {
+            data[pos] = (byte) Integer.parseInt(parts[pos], 16);
+        }
+        return data;
+    }
+
+    /**
+     * @return Recorded requests if media is loaded from the trace file.
+     */
+    public List<byte[]> getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @return Recorded replies.
+     */
+    public List<byte[]> getReplies()
+    {
+        return replies;
+    }
+
+    /**
+     * @return Index of the next reply.
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * @param value Index of the next reply.
+     */
+    public void setPosition(int value)
+    {
+        position = value;
+    }
+
+    /**
+     * @return Index of the reply where replaying continues after the last reply.
+     * -1 if replies are not repeated.
+     */
+    public int getLoopStart()
+    {
+        return loopStart;
+    }
+
+    /**
+     * @param value Index of the reply where replaying continues after the last reply.
+     * -1 if replies are not repeated.
+     */
+    public void setLoopStart(int value)
+    {
+        loopStart = value;
+    }
+
+    @Override
+    protected void onSend(byte[] data) throws Exception
+    {
+        if (position == replies.size())
+        {
+            if (loopStart == -1)
+            {
+                throw new Exception("All recorded replies are used.");
+            }
+            position = loopStart;
+        }
+        addReply(replies.get(position++));
+    }
+}
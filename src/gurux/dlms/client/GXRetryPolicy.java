@@ -0,0 +1,106 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+/**
+ * Defines how many times request is resent and how reply timeout
+ * grows after each resend.
+ */
+public class GXRetryPolicy
+{
+    private int retries = 3;
+    private double backoff = 2;
+    private int maxTimeout = 60000;
+
+    /**
+     * Constructor.
+     */
+    public GXRetryPolicy()
+    {
+    }
+
+    /**
+     * Constructor.
+     * @param retries How many times request is resent.
+     * @param backoff Multiplier of the timeout after each resend.
+     * @param maxTimeout Maximum reply timeout in milliseconds.
+     */
+    public GXRetryPolicy(int retries, double backoff, int maxTimeout)
+    {
+        if (retries < 0 || backoff < 1 || maxTimeout < 1)
+        {
+            throw new IllegalArgumentException("Invalid retry policy.");
+        }
+        this.retries = retries;
+        this.backoff = backoff;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * @return How many times request is resent.
+     */
+    public int getRetries()
+    {
+        return retries;
+    }
+
+    /**
+     * @return Multiplier of the timeout after each resend.
+     */
+    public double getBackoff()
+    {
+        return backoff;
+    }
+
+    /**
+     * @return Maximum reply timeout in milliseconds.
+     */
+    public int getMaxTimeout()
+    {
+        return maxTimeout;
+    }
+
+    /**
+     * Returns reply timeout for given resend.
+     * @param timeout Timeout of the first request in milliseconds.
+     * @param retry Resend number. Zero for the first request.
+     * @return Reply timeout in milliseconds.
+     */
+    public int getTimeout(int timeout, int retry)
+    {
+        double value = timeout * Math.pow(backoff, retry);
+        return (int) Math.min(maxTimeout, value);
+    }
+}
@@ -0,0 +1,455 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSClock;
+import gurux.dlms.objects.GXDLMSDemandRegister;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSRegister;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Decodes profile generic buffer while data blocks are received.
+ * Each complete row is given to the listener, so only one data block
+ * and the incomplete row at the end of it are kept in the memory.
+ * Clock values are returned as Date and register values are scaled.
+ * Cell listener receives numbers and times without boxing.
+ */
+public class GXRowDecoder
+{
+    private final IGXRowListener listener;
+    private final IGXCellListener cellListener;
+    private final GXDLMSObject[] columns;
+    private final double[] scalers;
+    private byte[] buff = new byte[1024];
+    private int size;
+    private boolean started;
+    private int rowsLeft;
+    private int count;
+
+    /**
+     * Constructor.
+     * @param columns Capture objects of the profile generic.
+     * @param listener Listener where rows are given.
+     */
+    public GXRowDecoder(GXDLMSObject[] columns, IGXRowListener listener)
+    {
+        this(columns, listener, null);
+    }
+
+    /**
+     * Constructor.
+     * @param columns Capture objects of the profile generic.
+     * @param listener Listener where cells are given.
+     */
+    public GXRowDecoder(GXDLMSObject[] columns, IGXCellListener listener)
+    {
+        this(columns, null, listener);
+    }
+
+    private GXRowDecoder(GXDLMSObject[] columns, IGXRowListener listener, IGXCellListener cellListener)
+    {
+        this.columns = columns;
+        this.listener = listener;
+        this.cellListener = cellListener;
+        scalers = new double[columns.length];
+        for (int pos = 0; pos != columns.length; ++pos)
+        {
+            if (columns[pos] instanceof GXDLMSRegister)
+            {
+                scalers[pos] = ((GXDLMSRegister) columns[pos]).getScaler();
+            }
+            else if (columns[pos] instanceof GXDLMSDemandRegister)
+            {
+                scalers[pos] = ((GXDLMSDemandRegister) columns[pos]).getScaler();
+            }
+        }
+    }
+
+    /**
+     * @return Amount of decoded rows.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return Are all rows decoded.
+     */
+    public boolean isComplete()
+    {
+        return started && rowsLeft == 0;
+    }
+
+    /**
+     * Adds received data and decodes all complete rows.
+     * @param data Received data.
+     * @param offset Data offset.
+     * @param length Data length.
+     * @throws Exception
+     */
+    public void append(byte[] data, int offset, int length) throws Exception
+    {
+        if (size + length > buff.length)
+        {
+            byte[] tmp = new byte[Math.max(size + length, 2 * buff.length)];
+            System.arraycopy(buff, 0, tmp, 0, size);
+            buff = tmp;
+        }
+        System.arraycopy(data, offset, buff, size, length);
+        size += length;
+        int pos = 0;
+        if (!started)
+        {
+            if (size < 2)
+            {
+                return;
+            }
+            if (buff[0] != GXAxdr.ARRAY)
+            {
+                throw new Exception("Invalid profile generic buffer.");
+            }
+            int len = GXAxdr.getLengthSize(buff, 1, size);
+            if (len == -1)
+            {
+                return;
+            }
+            rowsLeft = GXAxdr.getLength(buff, 1);
+            pos = 1 + len;
+            started = true;
+        }
+        while (rowsLeft != 0)
+        {
+            int end = GXAxdr.skip(buff, pos, size);
+            if (end == -1)
+            {
+                break;
+            }
+            if (cellListener != null)
+            {
+                decodeCells(pos);
+            }
+            else
+            {
+                listener.onRow(getRow(pos));
+            }
+            ++count;
+            --rowsLeft;
+            pos = end;
+        }
+        //Incomplete row is moved to the beginning of the buffer.
+        System.arraycopy(buff, pos, buff, 0, size - pos);
+        size -= pos;
+    }
+
+    private Object[] getRow(int pos)
+    {
+        if (buff[pos] != GXAxdr.STRUCTURE)
+        {
+            throw new IllegalArgumentException("Invalid profile generic row.");
+        }
+        int len = GXAxdr.getLengthSize(buff, pos + 1, size);
+        int cellCount = GXAxdr.getLength(buff, pos + 1);
+        pos += 1 + len;
+        Object[] row = new Object[cellCount];
+        for (int i = 0; i != cellCount; ++i)
+        {
+            Object value = getValue(buff, pos);
+            if (i < columns.length)
+            {
+                if (columns[i] instanceof GXDLMSClock && value instanceof byte[]
+                        && ((byte[]) value).length == 12)
+                {
+                    long time = GXAxdr.getDateTime((byte[]) value, 0);
+                    if (time != Long.MIN_VALUE)
+                    {
+                        value = new Date(time);
+                    }
+                }
+                else if (scalers[i] != 0 && value instanceof Number)
+                {
+                    value = ((Number) value).doubleValue() * scalers[i];
+                }
+            }
+            row[i] = value;
+            pos = GXAxdr.skip(buff, pos, size);
+        }
+        return row;
+    }
+
+    /**
+     * Gives cells of the row to the cell listener.
+     */
+    private void decodeCells(int pos) throws Exception
+    {
+        if (buff[pos] != GXAxdr.STRUCTURE)
+        {
+            throw new IllegalArgumentException("Invalid profile generic row.");
+        }
+        int len = GXAxdr.getLengthSize(buff, pos + 1, size);
+        int cellCount = GXAxdr.getLength(buff, pos + 1);
+        pos += 1 + len;
+        cellListener.beginRow(cellCount);
+        for (int i = 0; i != cellCount; ++i)
+        {
+            int type = buff[pos] & 0xFF;
+            int p = pos + 1;
+            switch (type)
+            {
+                case GXAxdr.NONE:
+                    cellListener.onNull(i);
+                    break;
+                case GXAxdr.BOOLEAN:
+                    onLong(i, buff[p] != 0 ? 1 : 0);
+                    break;
+                case GXAxdr.INT8:
+                    onLong(i, buff[p]);
+                    break;
+                case GXAxdr.UINT8:
+                case GXAxdr.ENUM:
+                case GXAxdr.BCD:
+                    onLong(i, buff[p] & 0xFF);
+                    break;
+                case GXAxdr.INT16:
+                    onLong(i, getInt(buff, p, 2));
+                    break;
+                case GXAxdr.UINT16:
+                    onLong(i, getInt(buff, p, 2) & 0xFFFF);
+                    break;
+                case GXAxdr.INT32:
+                    onLong(i, getInt(buff, p, 4));
+                    break;
+                case GXAxdr.UINT32:
+                    onLong(i, getInt(buff, p, 4) & 0xFFFFFFFFL);
+                    break;
+                case GXAxdr.INT64:
+                    onLong(i, getInt(buff, p, 8));
+                    break;
+                case GXAxdr.FLOAT32:
+                    onDouble(i, Float.intBitsToFloat((int) getInt(buff, p, 4)));
+                    break;
+                case GXAxdr.FLOAT64:
+                    onDouble(i, Double.longBitsToDouble(getInt(buff, p, 8)));
+                    break;
+                case GXAxdr.DATETIME:
+                    onTime(i, p);
+                    break;
+                case GXAxdr.OCTET_STRING:
+                    if (i < columns.length && columns[i] instanceof GXDLMSClock && buff[p] == 12)
+                    {
+                        onTime(i, p + 1);
+                        break;
+                    }
+                    cellListener.onObject(i, getValue(buff, pos));
+                    break;
+                default:
+                    //UInt64 may not fit to long.
+                    Object value = getValue(buff, pos);
+                    if (value instanceof Long)
+                    {
+                        onLong(i, (Long) value);
+                    }
+                    else
+                    {
+                        cellListener.onObject(i, value);
+                    }
+                    break;
+            }
+            pos = GXAxdr.skip(buff, pos, size);
+        }
+        cellListener.endRow();
+    }
+
+    private void onLong(int column, long value)
+    {
+        if (column < scalers.length && scalers[column] != 0)
+        {
+            cellListener.onDouble(column, value * scalers[column]);
+        }
+        else
+        {
+            cellListener.onLong(column, value);
+        }
+    }
+
+    private void onDouble(int column, double value)
+    {
+        if (column < scalers.length && scalers[column] != 0)
+        {
+            value *= scalers[column];
+        }
+        cellListener.onDouble(column, value);
+    }
+
+    private void onTime(int column, int pos)
+    {
+        long time = GXAxdr.getDateTime(buff, pos);
+        if (time == Long.MIN_VALUE)
+        {
+            byte[] tmp = new byte[12];
+            System.arraycopy(buff, pos, tmp, 0, tmp.length);
+            cellListener.onObject(column, tmp);
+        }
+        else
+        {
+            cellListener.onTime(column, time);
+        }
+    }
+
+    /**
+     * Converts encoded value to object.
+     * @param data Data.
+     * @param pos Position of the data type tag.
+     * @return Value.
+     */
+    static Object getValue(byte[] data, int pos)
+    {
+        int type = data[pos++] & 0xFF;
+        switch (type)
+        {
+            case GXAxdr.NONE:
+                return null;
+            case GXAxdr.BOOLEAN:
+                return data[pos] != 0;
+            case GXAxdr.INT8:
+                return data[pos];
+            case GXAxdr.UINT8:
+            case GXAxdr.ENUM:
+            case GXAxdr.BCD:
+                return (short) (data[pos] & 0xFF);
+            case GXAxdr.INT16:
+                return (short) getInt(data, pos, 2);
+            case GXAxdr.UINT16:
+                return (int) (getInt(data, pos, 2) & 0xFFFF);
+            case GXAxdr.INT32:
+                return (int) getInt(data, pos, 4);
+            case GXAxdr.UINT32:
+                return getInt(data, pos, 4) & 0xFFFFFFFFL;
+            case GXAxdr.INT64:
+                return getInt(data, pos, 8);
+            case GXAxdr.UINT64:
+            {
+                long value = getInt(data, pos, 8);
+                if (value >= 0)
+                {
+                    return value;
+                }
+                return BigInteger.valueOf(value).add(BigInteger.ONE.shiftLeft(64));
+            }
+            case GXAxdr.FLOAT32:
+                return Float.intBitsToFloat((int) getInt(data, pos, 4));
+            case GXAxdr.FLOAT64:
+                return Double.longBitsToDouble(getInt(data, pos, 8));
+            case GXAxdr.DATETIME:
+            {
+                long time = GXAxdr.getDateTime(data, pos);
+                if (time != Long.MIN_VALUE)
+                {
+                    return new Date(time);
+                }
+                byte[] tmp = new byte[12];
+                System.arraycopy(data, pos, tmp, 0, tmp.length);
+                return tmp;
+            }
+            case GXAxdr.DATE:
+            case GXAxdr.TIME:
+            {
+                byte[] tmp = new byte[GXAxdr.getSize(type)];
+                System.arraycopy(data, pos, tmp, 0, tmp.length);
+                return tmp;
+            }
+            case GXAxdr.ARRAY:
+            case GXAxdr.STRUCTURE:
+            {
+                int len = GXAxdr.getLengthSize(data, pos, data.length);
+                Object[] items = new Object[GXAxdr.getLength(data, pos)];
+                pos += len;
+                for (int i = 0; i != items.length; ++i)
+                {
+                    items[i] = getValue(data, pos);
+                    pos = GXAxdr.skip(data, pos, data.length);
+                }
+                return items;
+            }
+            case GXAxdr.OCTET_STRING:
+            case GXAxdr.STRING:
+            case GXAxdr.STRING_UTF8:
+            case GXAxdr.BIT_STRING:
+            {
+                int len = GXAxdr.getLengthSize(data, pos, data.length);
+                int count = GXAxdr.getLength(data, pos);
+                pos += len;
+                if (type == GXAxdr.STRING)
+                {
+                    return new String(data, pos, count, StandardCharsets.US_ASCII);
+                }
+                if (type == GXAxdr.STRING_UTF8)
+                {
+                    return new String(data, pos, count, StandardCharsets.UTF_8);
+                }
+                if (type == GXAxdr.BIT_STRING)
+                {
+                    StringBuilder sb = new StringBuilder(count);
+                    for (int i = 0; i != count; ++i)
+                    {
+                        sb.append((data[pos + i / 8] & (0x80 >> (i % 8))) != 0 ? '1' : '0');
+                    }
+                    return sb.toString();
+                }
+                byte[] tmp = new byte[count];
+                System.arraycopy(data, pos, tmp, 0, count);
+                return tmp;
+            }
+            default:
+                throw new IllegalArgumentException("Invalid data type: " + type);
+        }
+    }
+
+    /**
+     * Reads signed big endian integer.
+     */
+    static long getInt(byte[] data, int pos, int size)
+    {
+        long value = data[pos];
+        for (int i = 1; i != size; ++i)
+        {
+            value = (value << 8) | (data[pos + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,152 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+/**
+ * Estimates round trip time of the meter connection.
+ * Smoothed round trip time and its variance are counted
+ * as in TCP retransmission timer (RFC 6298)
+ * and the reply timeout is derived from them.
+ * Timeout is not set below one second as recommended in RFC 6298,
+ * because meter processing time varies a lot between the requests.
+ */
+public class GXRttEstimator
+{
+    /**
+     * Gain of the smoothed round trip time.
+     */
+    private static final double ALPHA = 1.0 / 8;
+    /**
+     * Gain of the round trip time variance.
+     */
+    private static final double BETA = 1.0 / 4;
+    /**
+     * Smallest variance that is used in milliseconds.
+     */
+    private static final double GRANULARITY = 10;
+
+    private double srtt;
+    private double rttvar;
+    private int timeout;
+    private int minTimeout = 1000;
+    private long samples;
+
+    /**
+     * Adds new round trip time sample.
+     * Samples are taken only from the requests that are not resent.
+     * @param value Time from the sent request to the received reply in milliseconds.
+     */
+    public synchronized void update(int value)
+    {
+        if (samples++ == 0)
+        {
+            srtt = value;
+            rttvar = value / 2.0;
+        }
+        else
+        {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - value);
+            srtt = (1 - ALPHA) * srtt + ALPHA * value;
+        }
+        timeout = Math.max(minTimeout, (int) Math.ceil(srtt + Math.max(GRANULARITY, 4 * rttvar)));
+    }
+
+    /**
+     * Keeps backed off timeout until the next sample is received.
+     * @param value Used timeout in milliseconds.
+     */
+    public synchronized void setBackoff(int value)
+    {
+        if (value > timeout)
+        {
+            timeout = value;
+        }
+    }
+
+    /**
+     * Returns reply timeout.
+     * @param defaultTimeout Timeout that is used until round trip time is measured.
+     * @return Reply timeout in milliseconds.
+     */
+    public synchronized int getTimeout(int defaultTimeout)
+    {
+        if (timeout == 0)
+        {
+            return defaultTimeout;
+        }
+        return timeout;
+    }
+
+    /**
+     * @return Smoothed round trip time in milliseconds. Zero if not measured.
+     */
+    public synchronized double getSmoothedRtt()
+    {
+        return srtt;
+    }
+
+    /**
+     * @return Round trip time variance in milliseconds. Zero if not measured.
+     */
+    public synchronized double getRttVariance()
+    {
+        return rttvar;
+    }
+
+    /**
+     * @return Amount of the measured round trips.
+     */
+    public synchronized long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * @return Smallest reply timeout in milliseconds.
+     */
+    public synchronized int getMinTimeout()
+    {
+        return minTimeout;
+    }
+
+    /**
+     * @param value Smallest reply timeout in milliseconds.
+     * Meter processing time varies, so timeout is not set below this.
+     */
+    public synchronized void setMinTimeout(int value)
+    {
+        minTimeout = value;
+    }
+}
@@ -0,0 +1,247 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSDemandRegister;
+import gurux.dlms.objects.GXDLMSObject;
+import gurux.dlms.objects.GXDLMSRegister;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps scalers and units of the registers of one meter.
+ * Scalers are read from the meter only once and they are
+ * saved to the disk so they are used also on the next time.
+ * Values are kept by logical name, so same register is read only once
+ * even if it's a column in several profile generics.
+ * Scalers are removed if the identity of the meter is changed,
+ * for example after a firmware update.
+ */
+public class GXScalerCache
+{
+    private static final int MAGIC = 0x47585343;
+    private static final int VERSION = 2;
+
+    private final Path file;
+    private final Map<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+    private volatile boolean changed;
+    /**
+     * Logical device name and firmware version of the meter that scalers are read from.
+     */
+    private volatile String identity = "";
+
+    /**
+     * Constructor. Cached scalers are loaded from the disk if they exist.
+     * @param path Directory where scalers are saved.
+     * @param meter Identification of the meter.
+     */
+    public GXScalerCache(String path, String meter)
+    {
+        file = Paths.get(path).resolve(meter.replaceAll("[^A-Za-z0-9_\\-\\.]", "_") + ".scalers");
+        load();
+    }
+
+    /**
+     * Sets identity of the connected meter.
+     * If identity is not the same as when scalers were read, cached scalers are removed.
+     * @param value Logical device name and firmware version of the meter.
+     */
+    public synchronized void setIdentity(String value)
+    {
+        if (!value.equals(identity))
+        {
+            values.clear();
+            identity = value;
+            changed = true;
+        }
+    }
+
+    /**
+     * Is attribute scaler and unit of the register.
+     * @param target Object.
+     * @param attributeIndex Attribute index.
+     * @return True, if attribute is scaler and unit.
+     */
+    public static boolean isScaler(GXDLMSObject target, int attributeIndex)
+    {
+        return (target instanceof GXDLMSRegister && attributeIndex == 3)
+                || (target instanceof GXDLMSDemandRegister && attributeIndex == 4);
+    }
+
+    static String getKey(GXDLMSObject target, int attributeIndex)
+    {
+        return target.getObjectType() + " " + target.getLogicalName() + " " + attributeIndex;
+    }
+
+    /**
+     * Returns cached scaler and unit.
+     * @param target Object.
+     * @param attributeIndex Attribute index.
+     * @return Read data or null if value is not cached.
+     */
+    public byte[] get(GXDLMSObject target, int attributeIndex)
+    {
+        return values.get(getKey(target, attributeIndex));
+    }
+
+    /**
+     * Adds scaler and unit to the cache.
+     * @param target Object.
+     * @param attributeIndex Attribute index.
+     * @param data Read data.
+     */
+    public void put(GXDLMSObject target, int attributeIndex, byte[] data)
+    {
+        values.put(getKey(target, attributeIndex), data);
+        changed = true;
+    }
+
+    /**
+     * Removes scaler and unit of the register. It's read again from the meter.
+     * @param target Register.
+     */
+    public void invalidate(GXDLMSObject target)
+    {
+        boolean removed = values.remove(getKey(target, 3)) != null;
+        removed |= values.remove(getKey(target, 4)) != null;
+        if (removed)
+        {
+            changed = true;
+        }
+    }
+
+    /**
+     * Removes all scalers of the meter from the memory and from the disk.
+     * @throws IOException
+     */
+    public void invalidate() throws IOException
+    {
+        values.clear();
+        changed = false;
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Saves scalers to the disk if they are changed.
+     * @throws IOException
+     */
+    public void save() throws IOException
+    {
+        if (!changed)
+        {
+            return;
+        }
+        changed = false;
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "scalers", ".tmp");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(identity);
+                out.writeInt(values.size());
+                for (Map.Entry<String, byte[]> it : values.entrySet())
+                {
+                    out.writeUTF(it.getKey());
+                    out.writeInt(it.getValue().length);
+                    out.write(it.getValue());
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex)
+        {
+            changed = true;
+            throw ex;
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void load()
+    {
+        if (!Files.exists(file))
+        {
+            return;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                {
+                    return;
+                }
+                identity = in.readUTF();
+                int count = in.readInt();
+                for (int pos = 0; pos != count; ++pos)
+                {
+                    String key = in.readUTF();
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    values.put(key, value);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Invalid scaler cache " + file + ". " + ex.getMessage());
+            values.clear();
+        }
+    }
+}
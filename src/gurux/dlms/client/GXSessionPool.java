@@ -0,0 +1,527 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.GXDLMSException;
+import gurux.dlms.objects.GXDLMSClock;
+import gurux.dlms.objects.GXDLMSObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps associations open between read jobs.
+ * There is at most one session for each meter and only one job can
+ * use it at the time. Idle sessions are kept alive by reading the clock
+ * before the meter closes the connection for the inactivity.
+ * Session that has failed is connected again when it's borrowed next time.
+ * Keep-alive reads are made in parallel with a limited amount of threads,
+ * so a slow meter doesn't delay the other sessions.
+ */
+public class GXSessionPool
+{
+    /**
+     * Pooled session.
+     */
+    static class Session
+    {
+        final GXMeterEndpoint meter;
+        GXCommunicate com;
+        long lastUsed;
+        boolean busy;
+        /**
+         * Is connection made when session was borrowed.
+         */
+        boolean connected;
+
+        Session(GXMeterEndpoint meter)
+        {
+            this.meter = meter;
+        }
+    }
+
+    private final IGXSessionFactory factory;
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+    private final ScheduledExecutorService timer;
+    /**
+     * Runs the keep-alive reads.
+     */
+    private final ExecutorService executor;
+    /**
+     * Object is not read itself. New object is made for each read,
+     * because the read value is set to the object.
+     */
+    private long keepAliveInterval = 60000;
+    private long maxIdleTime = 600000;
+    private long borrowTimeout = 60000;
+    private GXDLMSObject keepAliveObject = new GXDLMSClock("0.0.1.0.0.255");
+    private int keepAliveIndex = 2;
+    private boolean closed;
+
+    /**
+     * Constructor. Four keep-alive reads are made at the same time.
+     * @param factory Factory that opens new connections.
+     */
+    public GXSessionPool(IGXSessionFactory factory)
+    {
+        this(factory, 4);
+    }
+
+    /**
+     * Constructor.
+     * @param factory Factory that opens new connections.
+     * @param keepAliveThreads How many keep-alive reads are made at the same time.
+     */
+    public GXSessionPool(IGXSessionFactory factory, int keepAliveThreads)
+    {
+        if (keepAliveThreads < 1)
+        {
+            throw new IllegalArgumentException("Invalid keep-alive thread count.");
+        }
+        this.factory = factory;
+        ThreadFactory threads = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "GXSessionPool");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        timer = Executors.newSingleThreadScheduledExecutor(threads);
+        executor = Executors.newFixedThreadPool(keepAliveThreads, threads);
+        timer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                keepAlive();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return Idle time in milliseconds after the keep-alive read is made.
+     */
+    public long getKeepAliveInterval()
+    {
+        return keepAliveInterval;
+    }
+
+    /**
+     * Keep-alive interval must be shorter than the inactivity timeout of the meter.
+     * @param value Idle time in milliseconds after the keep-alive read is made.
+     */
+    public void setKeepAliveInterval(long value)
+    {
+        keepAliveInterval = value;
+    }
+
+    /**
+     * @return Idle time in milliseconds after the session is closed.
+     */
+    public long getMaxIdleTime()
+    {
+        return maxIdleTime;
+    }
+
+    /**
+     * @param value Idle time in milliseconds after the session is closed.
+     */
+    public void setMaxIdleTime(long value)
+    {
+        maxIdleTime = value;
+    }
+
+    /**
+     * @return How long borrow waits in milliseconds if session is used by other job.
+     */
+    public long getBorrowTimeout()
+    {
+        return borrowTimeout;
+    }
+
+    /**
+     * @param value How long borrow waits in milliseconds if session is used by other job.
+     */
+    public void setBorrowTimeout(long value)
+    {
+        borrowTimeout = value;
+    }
+
+    /**
+     * Sets object that is read to keep the session alive.
+     * Clock time (0.0.1.0.0.255 attribute 2) is used as default.
+     * Object class must have a constructor that takes the logical name.
+     * @param target Object.
+     * @param attributeIndex Attribute index.
+     */
+    public void setKeepAliveObject(GXDLMSObject target, int attributeIndex)
+    {
+        try
+        {
+            target.getClass().getConstructor(String.class);
+        }
+        catch (NoSuchMethodException ex)
+        {
+            throw new IllegalArgumentException("Invalid keep-alive object.");
+        }
+        keepAliveObject = target;
+        keepAliveIndex = attributeIndex;
+    }
+
+    /**
+     * @return Amount of open sessions.
+     */
+    public synchronized int getSize()
+    {
+        int count = 0;
+        for (Session it : sessions.values())
+        {
+            if (it.com != null)
+            {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Borrows session of the meter. Connection is made if it's not open.
+     * Session must be returned with release or invalidate.
+     * @param meter Meter.
+     * @return Connected session.
+     * @throws Exception
+     */
+    public GXCommunicate borrow(GXMeterEndpoint meter) throws Exception
+    {
+        return borrowSession(meter).com;
+    }
+
+    /**
+     * Returns session to the pool.
+     * @param meter Meter.
+     * @param com Returned session.
+     */
+    public void release(GXMeterEndpoint meter, GXCommunicate com)
+    {
+        giveBack(meter, com, false);
+    }
+
+    /**
+     * Returns failed session to the pool. Connection is closed
+     * and it's made again when the session is borrowed next time.
+     * @param meter Meter.
+     * @param com Returned session.
+     */
+    public void invalidate(GXMeterEndpoint meter, GXCommunicate com)
+    {
+        giveBack(meter, com, true);
+    }
+
+    /**
+     * Runs the job with the session of the meter.
+     * If the link is dropped while a reused session is used,
+     * connection is made again and the job is run again.
+     * @param meter Meter.
+     * @param task Job.
+     * @return Result of the job.
+     * @throws Exception
+     */
+    public <T> T execute(GXMeterEndpoint meter, IGXSessionTask<T> task) throws Exception
+    {
+        return execute(meter, task, true);
+    }
+
+    /**
+     * Runs the job with the session of the meter.
+     * @param meter Meter.
+     * @param task Job.
+     * @param reconnect If true, job is run again with a new connection if
+     * the link is dropped while a reused session is used.
+     * Use false if the caller handles the failures itself.
+     * @return Result of the job.
+     * @throws Exception
+     */
+    public <T> T execute(GXMeterEndpoint meter, IGXSessionTask<T> task, boolean reconnect) throws Exception
+    {
+        Session s = borrowSession(meter);
+        boolean reused = reconnect && !s.connected;
+        try
+        {
+            return run(meter, s.com, task);
+        }
+        catch (GXDLMSException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            if (!reused)
+            {
+                throw ex;
+            }
+        }
+        //Meter has closed the connection. Connect again.
+        return run(meter, borrow(meter), task);
+    }
+
+    /**
+     * Runs the job and returns the session.
+     */
+    private <T> T run(GXMeterEndpoint meter, GXCommunicate com, IGXSessionTask<T> task) throws Exception
+    {
+        try
+        {
+            T value = task.run(com);
+            release(meter, com);
+            return value;
+        }
+        catch (GXDLMSException ex)
+        {
+            //Meter answered, so connection is still alive.
+            release(meter, com);
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            invalidate(meter, com);
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes all sessions.
+     */
+    public void close()
+    {
+        timer.shutdownNow();
+        executor.shutdownNow();
+        List<Session> list = new ArrayList<Session>();
+        synchronized (this)
+        {
+            closed = true;
+            list.addAll(sessions.values());
+            sessions.clear();
+            notifyAll();
+        }
+        for (Session it : list)
+        {
+            //Busy session is closed when it's returned.
+            if (!it.busy)
+            {
+                close(it.com);
+            }
+        }
+    }
+
+    private Session borrowSession(GXMeterEndpoint meter) throws Exception
+    {
+        String key = meter.toString();
+        Session s;
+        synchronized (this)
+        {
+            long end = System.currentTimeMillis() + borrowTimeout;
+            while (true)
+            {
+                if (closed)
+                {
+                    throw new IllegalStateException("Session pool is closed.");
+                }
+                s = sessions.get(key);
+                if (s == null)
+                {
+                    s = new Session(meter);
+                    sessions.put(key, s);
+                }
+                if (!s.busy)
+                {
+                    break;
+                }
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                {
+                    throw new Exception("Session of " + key + " is in use.");
+                }
+                wait(wait);
+            }
+            s.busy = true;
+            s.connected = s.com == null;
+        }
+        if (s.connected)
+        {
+            try
+            {
+                s.com = factory.connect(meter);
+            }
+            catch (Exception ex)
+            {
+                giveBack(meter, null, true);
+                throw ex;
+            }
+        }
+        return s;
+    }
+
+    private void giveBack(GXMeterEndpoint meter, GXCommunicate com, boolean failed)
+    {
+        boolean close;
+        synchronized (this)
+        {
+            Session s = sessions.get(meter.toString());
+            close = failed || closed || s == null;
+            if (s != null)
+            {
+                if (close)
+                {
+                    s.com = null;
+                }
+                s.busy = false;
+                s.lastUsed = System.currentTimeMillis();
+                notifyAll();
+            }
+        }
+        if (close)
+        {
+            close(com);
+        }
+    }
+
+    /**
+     * Reads keep-alive object from sessions that have been idle too long
+     * and closes sessions that have been idle longer than maximum idle time.
+     */
+    void keepAlive()
+    {
+        List<Session> alive = new ArrayList<Session>();
+        List<GXCommunicate> expired = new ArrayList<GXCommunicate>();
+        synchronized (this)
+        {
+            long now = System.currentTimeMillis();
+            for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();)
+            {
+                Session s = it.next();
+                if (s.busy)
+                {
+                    continue;
+                }
+                if (s.com == null || now - s.lastUsed >= maxIdleTime)
+                {
+                    if (s.com != null)
+                    {
+                        expired.add(s.com);
+                    }
+                    it.remove();
+                }
+                else if (now - s.lastUsed >= keepAliveInterval)
+                {
+                    s.busy = true;
+                    alive.add(s);
+                }
+            }
+        }
+        for (GXCommunicate it : expired)
+        {
+            close(it);
+        }
+        for (final Session s : alive)
+        {
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        keepAlive(s);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex)
+            {
+                //Pool is closed.
+                giveBack(s.meter, s.com, true);
+            }
+        }
+    }
+
+    /**
+     * Reads keep-alive object from the session and returns it.
+     */
+    private void keepAlive(Session s)
+    {
+        try
+        {
+            //Sessions are read at the same time, so each read has its own object.
+            GXDLMSObject target = keepAliveObject.getClass().getConstructor(String.class)
+                    .newInstance(keepAliveObject.getLogicalName());
+            s.com.readObject(target, keepAliveIndex);
+            giveBack(s.meter, s.com, false);
+        }
+        catch (GXDLMSException ex)
+        {
+            //Meter answered, so connection is still alive.
+            giveBack(s.meter, s.com, false);
+        }
+        catch (Exception ex)
+        {
+            giveBack(s.meter, s.com, true);
+        }
+    }
+
+    private static void close(GXCommunicate com)
+    {
+        if (com != null)
+        {
+            try
+            {
+                com.close();
+            }
+            catch (Exception ex)
+            {
+                System.out.println("Failed to close session. " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,485 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.GXDLMSException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Object model of the simulated meter.
+ * Values are kept encoded, so they are returned as they are.
+ * Clock time, association view and profile generic buffer are
+ * generated when they are read. Profile rows are generated from the row
+ * index, so the same rows are returned every time.
+ * Only logical name referencing is supported.
+ * Model can be shared between several GXSimulatorMedia instances
+ * after it's configured.
+ */
+public class GXSimulatedMeter
+{
+    /**
+     * Data access result when object or attribute is not found.
+     */
+    static final int OBJECT_UNDEFINED = 4;
+    /**
+     * Data access result when selective access is not supported.
+     */
+    static final int OTHER_REASON = 250;
+
+    /**
+     * Simulated object.
+     */
+    static class Item
+    {
+        int classId;
+        int version;
+        String ln;
+        final TreeMap<Integer, byte[]> values = new TreeMap<Integer, byte[]>();
+        Profile profile;
+    }
+
+    /**
+     * Generated profile generic buffer.
+     */
+    static class Profile
+    {
+        long start;
+        int period;
+        int rows;
+        Item[] columns;
+    }
+
+    private final Map<String, Item> items = new LinkedHashMap<String, Item>();
+    private volatile byte[] objectList;
+
+    /**
+     * Constructor. Association view 0.0.40.0.0.255 is added.
+     */
+    public GXSimulatedMeter()
+    {
+        getItem(15, 1, "0.0.40.0.0.255");
+    }
+
+    /**
+     * Creates meter with typical objects and one year 15 minute load profile
+     * that ends at the beginning of the current day.
+     * @param serialNumber Serial number that is used as logical device name.
+     * @return Simulated meter.
+     */
+    public static GXSimulatedMeter createDefault(String serialNumber)
+    {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DAY_OF_MONTH, -365);
+        GXSimulatedMeter m = new GXSimulatedMeter();
+        m.addClock("0.0.1.0.0.255");
+        m.addData("0.0.42.0.0.255", serialNumber);
+        m.addData("1.0.0.2.0.255", "1.0.0");
+        m.addRegister("1.0.1.8.0.255", 123456, -3, 30);
+        m.addRegister("1.0.2.8.0.255", 1234, -3, 30);
+        m.addRegister("1.0.32.7.0.255", 2301, -1, 35);
+        m.addValue(1, 0, "0.0.96.10.1.255", 2, new byte[] { GXAxdr.UINT8, 0 });
+        m.addProfile("1.0.99.1.0.255", cal.getTime(), 900, 96 * 365,
+                "0.0.1.0.0.255", "1.0.1.8.0.255", "1.0.2.8.0.255", "0.0.96.10.1.255");
+        return m;
+    }
+
+    /**
+     * Adds encoded attribute value.
+     * @param classId Object type.
+     * @param version Version of the object.
+     * @param ln Logical name.
+     * @param index Attribute index.
+     * @param value A-XDR encoded value with the data type.
+     */
+    public void addValue(int classId, int version, String ln, int index, byte[] value)
+    {
+        getItem(classId, version, ln).values.put(index, value);
+    }
+
+    /**
+     * Adds data object with octet string value.
+     * @param ln Logical name.
+     * @param value Value.
+     */
+    public void addData(String ln, String value)
+    {
+        byte[] tmp = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[2 + tmp.length];
+        data[0] = GXAxdr.OCTET_STRING;
+        data[1] = (byte) tmp.length;
+        System.arraycopy(tmp, 0, data, 2, tmp.length);
+        addValue(1, 0, ln, 2, data);
+    }
+
+    /**
+     * Adds register.
+     * @param ln Logical name.
+     * @param value Unsigned 32 bit value.
+     * @param scaler Scaler as power of 10.
+     * @param unit Unit.
+     */
+    public void addRegister(String ln, long value, int scaler, int unit)
+    {
+        addValue(3, 0, ln, 2, getUInt32(value));
+        addValue(3, 0, ln, 3, new byte[] { GXAxdr.STRUCTURE, 2,
+                GXAxdr.INT8, (byte) scaler, GXAxdr.ENUM, (byte) unit });
+    }
+
+    /**
+     * Adds clock. Time is current UTC time.
+     * @param ln Logical name.
+     */
+    public void addClock(String ln)
+    {
+        //Time zone, status and clock base.
+        addValue(8, 0, ln, 3, new byte[] { GXAxdr.INT16, 0, 0 });
+        addValue(8, 0, ln, 4, new byte[] { GXAxdr.UINT8, 0 });
+        addValue(8, 0, ln, 9, new byte[] { GXAxdr.ENUM, 1 });
+    }
+
+    /**
+     * Adds profile generic. Capture objects must be added first.
+     * Attribute 2 of each capture object is captured.
+     * Clock column contains capture time and register column counts up
+     * from the row index. Other columns contain the object's value.
+     * @param ln Logical name.
+     * @param start Time of the first row.
+     * @param period Capture period in seconds.
+     * @param rows Amount of rows.
+     * @param captureObjects Logical names of the captured objects.
+     */
+    public void addProfile(String ln, Date start, int period, int rows, String... captureObjects)
+    {
+        Item item = getItem(7, 1, ln);
+        Profile p = new Profile();
+        p.start = start.getTime();
+        p.period = period;
+        p.rows = rows;
+        p.columns = new Item[captureObjects.length];
+        ByteArrayOutputStream bb = new ByteArrayOutputStream();
+        bb.write(GXAxdr.ARRAY);
+        bb.write(captureObjects.length);
+        for (int pos = 0; pos != captureObjects.length; ++pos)
+        {
+            Item it = items.get(captureObjects[pos]);
+            if (it == null)
+            {
+                throw new IllegalArgumentException("Unknown capture object " + captureObjects[pos]);
+            }
+            p.columns[pos] = it;
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(4);
+            bb.write(GXAxdr.UINT16);
+            bb.write(it.classId >> 8);
+            bb.write(it.classId);
+            writeName(bb, it.ln);
+            bb.write(GXAxdr.INT8);
+            bb.write(2);
+            bb.write(GXAxdr.UINT16);
+            bb.write(0);
+            bb.write(0);
+        }
+        item.profile = p;
+        item.values.put(3, bb.toByteArray());
+        item.values.put(4, getUInt32(period));
+        //Sort method is FIFO.
+        item.values.put(5, new byte[] { GXAxdr.ENUM, 1 });
+        item.values.put(7, getUInt32(rows));
+        item.values.put(8, getUInt32(rows));
+    }
+
+    /**
+     * Returns encoded attribute value.
+     * @param classId Object type.
+     * @param ln Logical name.
+     * @param index Attribute index.
+     * @param selector Access selector or zero if selective access is not used.
+     * @param data Buffer where access parameters are.
+     * @param pos Position of the access parameters.
+     * @return Encoded value.
+     * @throws GXDLMSException Data access result if value can't be read.
+     */
+    public byte[] getValue(int classId, String ln, int index, int selector, byte[] data, int pos) throws GXDLMSException
+    {
+        Item item = items.get(ln);
+        if (item == null || item.classId != classId)
+        {
+            throw new GXDLMSException(OBJECT_UNDEFINED);
+        }
+        if (index == 1)
+        {
+            ByteArrayOutputStream bb = new ByteArrayOutputStream(8);
+            writeName(bb, ln);
+            return bb.toByteArray();
+        }
+        if (index == 2)
+        {
+            if (classId == 8)
+            {
+                return getDateTime(System.currentTimeMillis());
+            }
+            if (classId == 15)
+            {
+                return getObjectList();
+            }
+            if (item.profile != null)
+            {
+                return getRows(item.profile, selector, data, pos);
+            }
+        }
+        byte[] value = item.values.get(index);
+        if (value == null)
+        {
+            throw new GXDLMSException(OBJECT_UNDEFINED);
+        }
+        return value;
+    }
+
+    /**
+     * Returns profile generic rows.
+     * Selector 1 reads rows by range and selector 2 by entry.
+     */
+    private byte[] getRows(Profile p, int selector, byte[] data, int pos) throws GXDLMSException
+    {
+        int first = 0, last = p.rows - 1;
+        if (selector != 0)
+        {
+            if (data[pos] != GXAxdr.STRUCTURE)
+            {
+                throw new GXDLMSException(OTHER_REASON);
+            }
+            pos += 2;
+            if (selector == 1)
+            {
+                //Skip restricting object.
+                pos = GXAxdr.skip(data, pos, data.length);
+                long from = getTime(data, pos);
+                pos = GXAxdr.skip(data, pos, data.length);
+                long to = getTime(data, pos);
+                long period = 1000L * p.period;
+                first = (int) Math.max(0, (from - p.start + period - 1) / period);
+                last = (int) Math.min(last, Math.floor((to - p.start) / (double) period));
+            }
+            else if (selector == 2)
+            {
+                first = (int) Math.max(0, (GXRowDecoder.getInt(data, pos + 1, 4) & 0xFFFFFFFFL) - 1);
+                long to = GXRowDecoder.getInt(data, pos + 6, 4) & 0xFFFFFFFFL;
+                if (to != 0)
+                {
+                    last = (int) Math.min(last, to - 1);
+                }
+            }
+            else
+            {
+                throw new GXDLMSException(OTHER_REASON);
+            }
+        }
+        int count = Math.max(0, last - first + 1);
+        ByteArrayOutputStream bb = new ByteArrayOutputStream(5 + 30 * count);
+        byte[] tmp = new byte[5];
+        bb.write(GXAxdr.ARRAY);
+        bb.write(tmp, 0, GXAxdr.setLength(tmp, 0, count));
+        for (int row = first; row < first + count; ++row)
+        {
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(p.columns.length);
+            for (int col = 0; col != p.columns.length; ++col)
+            {
+                Item it = p.columns[col];
+                byte[] value;
+                if (it.classId == 8)
+                {
+                    value = getDateTime(p.start + 1000L * p.period * row);
+                }
+                else if (it.classId == 3 || it.classId == 4)
+                {
+                    value = getUInt32(100L * col + row);
+                }
+                else
+                {
+                    value = it.values.get(2);
+                }
+                if (value == null)
+                {
+                    bb.write(GXAxdr.NONE);
+                }
+                else
+                {
+                    bb.write(value, 0, value.length);
+                }
+            }
+        }
+        return bb.toByteArray();
+    }
+
+    /**
+     * Returns time from the encoded date-time.
+     */
+    private static long getTime(byte[] data, int pos) throws GXDLMSException
+    {
+        long value = Long.MIN_VALUE;
+        if (data[pos] == GXAxdr.OCTET_STRING && data[pos + 1] == 12)
+        {
+            value = GXAxdr.getDateTime(data, pos + 2);
+        }
+        else if (data[pos] == GXAxdr.DATETIME)
+        {
+            value = GXAxdr.getDateTime(data, pos + 1);
+        }
+        if (value == Long.MIN_VALUE)
+        {
+            throw new GXDLMSException(OTHER_REASON);
+        }
+        return value;
+    }
+
+    /**
+     * Returns association view. It's generated again when objects are added.
+     */
+    private byte[] getObjectList()
+    {
+        byte[] value = objectList;
+        if (value != null)
+        {
+            return value;
+        }
+        ByteArrayOutputStream bb = new ByteArrayOutputStream();
+        byte[] tmp = new byte[5];
+        bb.write(GXAxdr.ARRAY);
+        bb.write(tmp, 0, GXAxdr.setLength(tmp, 0, items.size()));
+        for (Item it : items.values())
+        {
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(4);
+            bb.write(GXAxdr.UINT16);
+            bb.write(it.classId >> 8);
+            bb.write(it.classId);
+            bb.write(GXAxdr.UINT8);
+            bb.write(it.version);
+            writeName(bb, it.ln);
+            //All attributes can be read. Methods are not supported.
+            int count = it.values.isEmpty() ? 2 : Math.max(2, it.values.lastKey());
+            bb.write(GXAxdr.STRUCTURE);
+            bb.write(2);
+            bb.write(GXAxdr.ARRAY);
+            bb.write(count);
+            for (int index = 1; index <= count; ++index)
+            {
+                bb.write(GXAxdr.STRUCTURE);
+                bb.write(3);
+                bb.write(GXAxdr.INT8);
+                bb.write(index);
+                bb.write(GXAxdr.ENUM);
+                bb.write(1);
+                bb.write(GXAxdr.NONE);
+            }
+            bb.write(GXAxdr.ARRAY);
+            bb.write(0);
+        }
+        value = bb.toByteArray();
+        objectList = value;
+        return value;
+    }
+
+    private Item getItem(int classId, int version, String ln)
+    {
+        Item item = items.get(ln);
+        if (item == null)
+        {
+            item = new Item();
+            item.classId = classId;
+            item.version = version;
+            item.ln = ln;
+            items.put(ln, item);
+            objectList = null;
+        }
+        else if (item.classId != classId)
+        {
+            throw new IllegalArgumentException("Object " + ln + " is already added with different type.");
+        }
+        return item;
+    }
+
+    /**
+     * Writes logical name as octet string.
+     */
+    private static void writeName(ByteArrayOutputStream bb, String ln)
+    {
+        String[] parts = ln.split("\\.");
+        if (parts.length != 6)
+        {
+            throw new IllegalArgumentException("Invalid logical name " + ln);
+        }
+        bb.write(GXAxdr.OCTET_STRING);
+        bb.write(6);
+        for (String it : parts)
+        {
+            bb.write(Integer.parseInt(it));
+        }
+    }
+
+    private static byte[] getUInt32(long value)
+    {
+        return new byte[] { GXAxdr.UINT32, (byte) (value >> 24), (byte) (value >> 16),
+                (byte) (value >> 8), (byte) value };
+    }
+
+    /**
+     * Returns time as octet string in UTC.
+     */
+    static byte[] getDateTime(long time)
+    {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(time);
+        int year = cal.get(Calendar.YEAR);
+        int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY ? 7 : cal.get(Calendar.DAY_OF_WEEK) - 1;
+        //Deviation is zero and clock status is OK.
+        return new byte[] { GXAxdr.OCTET_STRING, 12, (byte) (year >> 8), (byte) year,
+                (byte) (cal.get(Calendar.MONTH) + 1), (byte) cal.get(Calendar.DAY_OF_MONTH),
+                (byte) dayOfWeek, (byte) cal.get(Calendar.HOUR_OF_DAY), (byte) cal.get(Calendar.MINUTE),
+                (byte) cal.get(Calendar.SECOND), (byte) (cal.get(Calendar.MILLISECOND) / 10), 0, 0, 0 };
+    }
+}
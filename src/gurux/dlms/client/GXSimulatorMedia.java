@@ -0,0 +1,775 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.GXDLMSException;
+import gurux.dlms.enums.Authentication;
+import gurux.dlms.manufacturersettings.GXAuthentication;
+import gurux.dlms.manufacturersettings.GXManufacturer;
+import gurux.dlms.manufacturersettings.GXServerAddress;
+import gurux.dlms.manufacturersettings.HDLCAddressType;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Media that plays the meter side of the connection.
+ * HDLC framing (SNRM, UA, DISC, I and RR frames) or IEC 62056-47 wrapper
+ * is used. AARQ, release and GET requests (normal, next data block and
+ * with list) are answered from the simulated meter.
+ * Latency, jitter, lost replies, HDLC segmentation, GET data blocks and
+ * replies that are received in several parts can be simulated.
+ * Random numbers are generated from the given seed, so the same run
+ * behaves the same way every time.
+ */
+public class GXSimulatorMedia extends GXMemoryMedia
+{
+    /**
+     * Client address that createManufacturer uses.
+     */
+    public static final int CLIENT = 0x10;
+    /**
+     * Data access result when there is no data block to send.
+     */
+    private static final int NO_LONG_GET_IN_PROGRESS = 16;
+    private static final int[] FCS_TABLE = new int[256];
+
+    static
+    {
+        for (int pos = 0; pos != 256; ++pos)
+        {
+            int value = pos;
+            for (int bit = 0; bit != 8; ++bit)
+            {
+                value = (value & 1) != 0 ? (value >>> 1) ^ 0x8408 : value >>> 1;
+            }
+            FCS_TABLE[pos] = value;
+        }
+    }
+
+    private final GXSimulatedMeter meter;
+    private final Random random;
+    private int latency;
+    private int jitter;
+    private double loss;
+    private int chunkSize;
+    private int maxInfo = 128;
+    private int maxPduSize = 1024;
+    private int blockSize;
+    private boolean multipleReferences = true;
+
+    private boolean connected;
+    private int sendSequence;
+    private int receiveSequence;
+    private byte[] clientAddress;
+    private byte[] serverAddress;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private final LinkedList<byte[]> segments = new LinkedList<byte[]>();
+    private int pduSize = 1024;
+    private int invokeId;
+    private byte[] blockData;
+    private int blockPos;
+    private int blockNumber;
+    private byte[] lastRequest;
+    private byte[] lastReply;
+    private boolean lastLost;
+    private long frames;
+    private long lost;
+
+    /**
+     * Constructor.
+     * @param meter Simulated meter.
+     * @param net Is IEC 62056-47 wrapper used instead of HDLC framing.
+     * @param seed Seed of the random numbers.
+     */
+    public GXSimulatorMedia(GXSimulatedMeter meter, boolean net, long seed)
+    {
+        super(net);
+        this.meter = meter;
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates manufacturer settings that are used to connect to the simulator.
+     * @param identification Manufacturer identification.
+     * @param net Is IEC 62056-47 wrapper used instead of HDLC framing.
+     * @return Manufacturer settings.
+     */
+    public static GXManufacturer createManufacturer(String identification, boolean net)
+    {
+        GXManufacturer man = new GXManufacturer();
+        man.setName("Simulator");
+        man.setIdentification(identification);
+        man.setUseLogicalNameReferencing(true);
+        man.setUseIEC47(net);
+        man.getSettings().add(new GXAuthentication(Authentication.NONE, CLIENT));
+        man.getSettings().add(new GXAuthentication(Authentication.LOW, CLIENT));
+        man.getServerSettings().add(new GXServerAddress(HDLCAddressType.DEFAULT, 1, true));
+        return man;
+    }
+
+    /**
+     * @return Minimum delay of the reply in milliseconds.
+     */
+    public int getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @param value Minimum delay of the reply in milliseconds.
+     */
+    public void setLatency(int value)
+    {
+        latency = value;
+    }
+
+    /**
+     * @return Maximum random delay that is added to the latency in milliseconds.
+     */
+    public int getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * @param value Maximum random delay that is added to the latency in milliseconds.
+     */
+    public void setJitter(int value)
+    {
+        jitter = value;
+    }
+
+    /**
+     * @return Probability (0 - 1) that reply is lost.
+     */
+    public double getLoss()
+    {
+        return loss;
+    }
+
+    /**
+     * @param value Probability (0 - 1) that reply is lost.
+     */
+    public void setLoss(double value)
+    {
+        loss = value;
+    }
+
+    /**
+     * @return Reply is received in parts of this size. Zero if reply is received at once.
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * @param value Reply is received in parts of this size. Zero if reply is received at once.
+     */
+    public void setChunkSize(int value)
+    {
+        chunkSize = value;
+    }
+
+    /**
+     * @return Maximum size of the HDLC information field.
+     */
+    public int getMaxInfo()
+    {
+        return maxInfo;
+    }
+
+    /**
+     * @param value Maximum size of the HDLC information field.
+     */
+    public void setMaxInfo(int value)
+    {
+        maxInfo = value;
+    }
+
+    /**
+     * @return Maximum PDU size of the meter.
+     */
+    public int getMaxPduSize()
+    {
+        return maxPduSize;
+    }
+
+    /**
+     * @param value Maximum PDU size of the meter.
+     */
+    public void setMaxPduSize(int value)
+    {
+        maxPduSize = value;
+    }
+
+    /**
+     * @return Maximum size of GET data block. Zero if it's limited only by the PDU size.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * @param value Maximum size of GET data block. Zero if it's limited only by the PDU size.
+     */
+    public void setBlockSize(int value)
+    {
+        blockSize = value;
+    }
+
+    /**
+     * @return Are GET-WITH-LIST requests supported.
+     */
+    public boolean getMultipleReferences()
+    {
+        return multipleReferences;
+    }
+
+    /**
+     * @param value Are GET-WITH-LIST requests supported.
+     */
+    public void setMultipleReferences(boolean value)
+    {
+        multipleReferences = value;
+    }
+
+    /**
+     * @return Amount of received frames.
+     */
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * @return Amount of lost replies.
+     */
+    public long getLost()
+    {
+        return lost;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Simulator";
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+        connected = false;
+        segments.clear();
+        request.reset();
+        blockData = null;
+        lastRequest = lastReply = null;
+        lastLost = false;
+    }
+
+    @Override
+    protected void onSend(byte[] data) throws Exception
+    {
+        ++frames;
+        byte[] reply;
+        if (lastLost && Arrays.equals(data, lastRequest))
+        {
+            //Client sends same request again when reply is lost.
+            reply = lastReply;
+        }
+        else
+        {
+            reply = isNet() ? handleWrapper(data) : handleHdlc(data);
+            lastRequest = data.clone();
+            lastReply = reply;
+        }
+        if (reply == null)
+        {
+            return;
+        }
+        if (loss > 0 && random.nextDouble() < loss)
+        {
+            lastLost = true;
+            ++lost;
+            return;
+        }
+        lastLost = false;
+        long delay = latency + (jitter > 0 ? random.nextInt(jitter + 1) : 0);
+        if (chunkSize <= 0 || reply.length <= chunkSize)
+        {
+            addReply(reply, delay);
+        }
+        else
+        {
+            for (int pos = 0; pos < reply.length; pos += chunkSize)
+            {
+                addReply(Arrays.copyOfRange(reply, pos, Math.min(reply.length, pos + chunkSize)), delay);
+            }
+        }
+    }
+
+    /**
+     * Handles IEC 62056-47 wrapper frame.
+     */
+    private byte[] handleWrapper(byte[] data) throws Exception
+    {
+        if (data.length < 9 || data[0] != 0 || data[1] != 1
+                || ((data[6] & 0xFF) << 8 | (data[7] & 0xFF)) != data.length - 8)
+        {
+            return null;
+        }
+        byte[] apdu = handleApdu(Arrays.copyOfRange(data, 8, data.length));
+        if (apdu == null)
+        {
+            return null;
+        }
+        byte[] reply = new byte[8 + apdu.length];
+        reply[1] = 1;
+        //Source and destination ports are swapped.
+        reply[2] = data[4];
+        reply[3] = data[5];
+        reply[4] = data[2];
+        reply[5] = data[3];
+        reply[6] = (byte) (apdu.length >> 8);
+        reply[7] = (byte) apdu.length;
+        System.arraycopy(apdu, 0, reply, 8, apdu.length);
+        return reply;
+    }
+
+    /**
+     * Handles HDLC frame.
+     */
+    private byte[] handleHdlc(byte[] data) throws Exception
+    {
+        if (data.length < 9 || data[0] != 0x7E || data[data.length - 1] != 0x7E)
+        {
+            return null;
+        }
+        int len = ((data[1] & 0x7) << 8) | (data[2] & 0xFF);
+        int fcs = getFcs(data, 1, len - 2);
+        if (len != data.length - 2 || (data[len - 1] & 0xFF) != (fcs & 0xFF)
+                || (data[len] & 0xFF) != fcs >> 8)
+        {
+            return null;
+        }
+        boolean segmented = (data[1] & 0x08) != 0;
+        int pos = 3;
+        int start = pos;
+        while ((data[pos++] & 1) == 0)
+        {
+        }
+        serverAddress = Arrays.copyOfRange(data, start, pos);
+        start = pos;
+        while ((data[pos++] & 1) == 0)
+        {
+        }
+        clientAddress = Arrays.copyOfRange(data, start, pos);
+        int control = data[pos++] & 0xFF;
+        //SNRM.
+        if ((control & 0xEF) == 0x83)
+        {
+            connected = true;
+            sendSequence = receiveSequence = 0;
+            segments.clear();
+            request.reset();
+            return getFrame(0x73, getUaInfo(), false);
+        }
+        //DISC.
+        if ((control & 0xEF) == 0x43)
+        {
+            boolean tmp = connected;
+            connected = false;
+            //Disconnected mode is returned if connection is not made.
+            return getFrame(tmp ? 0x73 : 0x1F, null, false);
+        }
+        if (!connected)
+        {
+            return getFrame(0x1F, null, false);
+        }
+        //Receive ready.
+        if ((control & 0x0F) == 0x01)
+        {
+            if (!segments.isEmpty())
+            {
+                return getNextSegment();
+            }
+            return getFrame(receiveSequence << 5 | 0x11, null, false);
+        }
+        if ((control & 1) != 0)
+        {
+            return null;
+        }
+        //Information frame. Skip header check sequence.
+        receiveSequence = ((control >> 1) + 1) & 7;
+        if (pos + 2 < data.length - 3)
+        {
+            request.write(data, pos + 2, data.length - 3 - pos - 2);
+        }
+        if (segmented)
+        {
+            return getFrame(receiveSequence << 5 | 0x11, null, false);
+        }
+        byte[] apdu = request.toByteArray();
+        request.reset();
+        //Skip LLC header.
+        if (apdu.length > 3 && apdu[0] == (byte) 0xE6)
+        {
+            apdu = Arrays.copyOfRange(apdu, 3, apdu.length);
+        }
+        byte[] reply = handleApdu(apdu);
+        if (reply == null)
+        {
+            return null;
+        }
+        byte[] info = new byte[3 + reply.length];
+        info[0] = (byte) 0xE6;
+        info[1] = (byte) 0xE7;
+        System.arraycopy(reply, 0, info, 3, reply.length);
+        segments.clear();
+        for (int it = 0; it < info.length; it += maxInfo)
+        {
+            segments.add(Arrays.copyOfRange(info, it, Math.min(info.length, it + maxInfo)));
+        }
+        return getNextSegment();
+    }
+
+    /**
+     * Returns UA information field with the HDLC parameters.
+     */
+    private byte[] getUaInfo()
+    {
+        int size = maxInfo > 0xFF ? 2 : 1;
+        byte[] info = new byte[3 + 2 * (2 + size) + 12];
+        int pos = 0;
+        info[pos++] = (byte) 0x81;
+        info[pos++] = (byte) 0x80;
+        info[pos++] = (byte) (info.length - 3);
+        for (int id = 5; id != 7; ++id)
+        {
+            //Maximum information field length.
+            info[pos++] = (byte) id;
+            info[pos++] = (byte) size;
+            if (size == 2)
+            {
+                info[pos++] = (byte) (maxInfo >> 8);
+            }
+            info[pos++] = (byte) maxInfo;
+        }
+        for (int id = 7; id != 9; ++id)
+        {
+            //Window size is one.
+            info[pos++] = (byte) id;
+            info[pos++] = 4;
+            pos += 3;
+            info[pos++] = 1;
+        }
+        return info;
+    }
+
+    private byte[] getNextSegment()
+    {
+        byte[] info = segments.removeFirst();
+        int control = receiveSequence << 5 | 0x10 | sendSequence << 1;
+        sendSequence = (sendSequence + 1) & 7;
+        return getFrame(control, info, !segments.isEmpty());
+    }
+
+    /**
+     * Returns HDLC frame to the client.
+     */
+    private byte[] getFrame(int control, byte[] info, boolean segmented)
+    {
+        int len = 2 + clientAddress.length + serverAddress.length + 1 + 2;
+        if (info != null)
+        {
+            len += 2 + info.length;
+        }
+        byte[] data = new byte[len + 2];
+        data[0] = 0x7E;
+        data[1] = (byte) (0xA0 | (segmented ? 0x08 : 0) | ((len >> 8) & 0x7));
+        data[2] = (byte) len;
+        int pos = 3;
+        System.arraycopy(clientAddress, 0, data, pos, clientAddress.length);
+        pos += clientAddress.length;
+        System.arraycopy(serverAddress, 0, data, pos, serverAddress.length);
+        pos += serverAddress.length;
+        data[pos++] = (byte) control;
+        if (info != null)
+        {
+            int hcs = getFcs(data, 1, pos - 1);
+            data[pos++] = (byte) hcs;
+            data[pos++] = (byte) (hcs >> 8);
+            System.arraycopy(info, 0, data, pos, info.length);
+            pos += info.length;
+        }
+        int fcs = getFcs(data, 1, pos - 1);
+        data[pos++] = (byte) fcs;
+        data[pos++] = (byte) (fcs >> 8);
+        data[pos] = 0x7E;
+        return data;
+    }
+
+    /**
+     * Counts HDLC frame check sequence.
+     */
+    static int getFcs(byte[] data, int offset, int count)
+    {
+        int fcs = 0xFFFF;
+        for (int pos = offset; pos != offset + count; ++pos)
+        {
+            fcs = (fcs >>> 8) ^ FCS_TABLE[(fcs ^ data[pos]) & 0xFF];
+        }
+        return ~fcs & 0xFFFF;
+    }
+
+    /**
+     * Handles APDU.
+     * @return Reply APDU or null if there is no reply.
+     */
+    private byte[] handleApdu(byte[] data) throws Exception
+    {
+        if (data.length == 0)
+        {
+            return null;
+        }
+        switch (data[0] & 0xFF)
+        {
+            //AARQ.
+            case 0x60:
+                return getAare(data);
+            //Release request.
+            case 0x62:
+                blockData = null;
+                return new byte[] { 0x63, 3, (byte) 0x80, 1, 0 };
+            //GET request.
+            case 0xC0:
+                return handleGet(data);
+            default:
+                //Exception response: service not allowed.
+                return new byte[] { (byte) 0xD8, 1, 2 };
+        }
+    }
+
+    /**
+     * Returns AARE. Logical name referencing without ciphering is used.
+     */
+    private byte[] getAare(byte[] data)
+    {
+        int clientPdu = 0xFFFF;
+        for (int pos = 0; pos + 9 <= data.length; ++pos)
+        {
+            if (data[pos] == 0x5F && data[pos + 1] == 0x1F && data[pos + 2] == 4 && data[pos + 3] == 0)
+            {
+                clientPdu = (data[pos + 7] & 0xFF) << 8 | (data[pos + 8] & 0xFF);
+                break;
+            }
+        }
+        pduSize = Math.min(clientPdu, maxPduSize);
+        blockData = null;
+        return new byte[]
+        {
+            0x61, 0x29,
+            //Application context name.
+            (byte) 0xA1, 0x09, 0x06, 0x07, 0x60, (byte) 0x85, 0x74, 0x05, 0x08, 0x01, 0x01,
+            //Result is accepted.
+            (byte) 0xA2, 0x03, 0x02, 0x01, 0x00,
+            (byte) 0xA3, 0x05, (byte) 0xA1, 0x03, 0x02, 0x01, 0x00,
+            //Initiate response.
+            (byte) 0xBE, 0x10, 0x04, 0x0E, 0x08, 0x00, 0x06, 0x5F, 0x1F, 0x04, 0x00,
+            //Conformance: block transfer with get, get, set, selective access and action.
+            0x00, (byte) (0x10 | (multipleReferences ? 0x02 : 0)), 0x1D,
+            (byte) (maxPduSize >> 8), (byte) maxPduSize, 0x00, 0x07
+        };
+    }
+
+    /**
+     * Handles GET request.
+     */
+    private byte[] handleGet(byte[] data) throws Exception
+    {
+        int type = data[1];
+        invokeId = data[2] & 0xFF;
+        if (type == 1)
+        {
+            byte[] value;
+            try
+            {
+                value = getValue(data, 3);
+            }
+            catch (GXDLMSException ex)
+            {
+                return new byte[] { (byte) 0xC4, 1, (byte) invokeId, 1, (byte) ex.getErrorCode() };
+            }
+            if (4 + value.length <= getMaxBlockSize())
+            {
+                byte[] reply = new byte[4 + value.length];
+                reply[0] = (byte) 0xC4;
+                reply[1] = 1;
+                reply[2] = (byte) invokeId;
+                System.arraycopy(value, 0, reply, 4, value.length);
+                return reply;
+            }
+            return getFirstBlock(value);
+        }
+        if (type == 2)
+        {
+            return getNextBlock();
+        }
+        if (type == 3)
+        {
+            if (!multipleReferences)
+            {
+                return new byte[] { (byte) 0xD8, 1, 2 };
+            }
+            int count = GXAxdr.getLength(data, 3);
+            int pos = 3 + GXAxdr.getLengthSize(data, 3, data.length);
+            ByteArrayOutputStream bb = new ByteArrayOutputStream();
+            byte[] tmp = new byte[5];
+            bb.write(tmp, 0, GXAxdr.setLength(tmp, 0, count));
+            for (int it = 0; it != count; ++it)
+            {
+                try
+                {
+                    byte[] value = getValue(data, pos);
+                    bb.write(0);
+                    bb.write(value, 0, value.length);
+                }
+                catch (GXDLMSException ex)
+                {
+                    bb.write(1);
+                    bb.write(ex.getErrorCode());
+                }
+                pos += 9;
+                if (data[pos++] != 0)
+                {
+                    //Skip access selector and parameters.
+                    pos = GXAxdr.skip(data, pos + 1, data.length);
+                }
+            }
+            byte[] value = bb.toByteArray();
+            if (3 + value.length <= getMaxBlockSize())
+            {
+                byte[] reply = new byte[3 + value.length];
+                reply[0] = (byte) 0xC4;
+                reply[1] = 3;
+                reply[2] = (byte) invokeId;
+                System.arraycopy(value, 0, reply, 3, value.length);
+                return reply;
+            }
+            return getFirstBlock(value);
+        }
+        return new byte[] { (byte) 0xD8, 1, 2 };
+    }
+
+    /**
+     * Returns attribute value of the attribute descriptor.
+     */
+    private byte[] getValue(byte[] data, int pos) throws GXDLMSException
+    {
+        int classId = (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+        StringBuilder sb = new StringBuilder(24);
+        for (int it = 0; it != 6; ++it)
+        {
+            if (it != 0)
+            {
+                sb.append('.');
+            }
+            sb.append(data[pos + 2 + it] & 0xFF);
+        }
+        int index = data[pos + 8];
+        int selector = 0;
+        if (pos + 9 < data.length && data[pos + 9] != 0)
+        {
+            selector = data[pos + 10];
+        }
+        return meter.getValue(classId, sb.toString(), index, selector, data, pos + 11);
+    }
+
+    /**
+     * @return Maximum size of the reply APDU.
+     */
+    private int getMaxBlockSize()
+    {
+        if (blockSize > 0)
+        {
+            return Math.min(blockSize, pduSize);
+        }
+        return pduSize;
+    }
+
+    private byte[] getFirstBlock(byte[] value)
+    {
+        blockData = value;
+        blockPos = 0;
+        blockNumber = 0;
+        return getNextBlock();
+    }
+
+    /**
+     * Returns next GET data block.
+     */
+    private byte[] getNextBlock()
+    {
+        if (blockData == null)
+        {
+            return new byte[] { (byte) 0xC4, 2, (byte) invokeId, 1, 0, 0, 0, 0, 1, NO_LONG_GET_IN_PROGRESS };
+        }
+        ++blockNumber;
+        //Block header and length take 13 bytes.
+        int len = Math.min(getMaxBlockSize() - 13, blockData.length - blockPos);
+        boolean last = blockPos + len == blockData.length;
+        byte[] reply = new byte[13 + len];
+        reply[0] = (byte) 0xC4;
+        reply[1] = 2;
+        reply[2] = (byte) invokeId;
+        reply[3] = (byte) (last ? 1 : 0);
+        reply[4] = (byte) (blockNumber >> 24);
+        reply[5] = (byte) (blockNumber >> 16);
+        reply[6] = (byte) (blockNumber >> 8);
+        reply[7] = (byte) blockNumber;
+        int pos = GXAxdr.setLength(reply, 9, len);
+        System.arraycopy(blockData, blockPos, reply, pos, len);
+        blockPos += len;
+        if (last)
+        {
+            blockData = null;
+        }
+        return Arrays.copyOf(reply, pos + len);
+    }
+}
@@ -0,0 +1,162 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.util.TimeZone;
+
+/**
+ * Formats sent and received frames to the trace.
+ * Direction, time stamp and hex bytes are written straight to the
+ * reusable buffer, so no strings are created for traced frames.
+ */
+public class GXTraceEncoder
+{
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private final GXTraceWriter writer;
+    private volatile GXTraceLevel level = GXTraceLevel.FILE;
+    private byte[] buff = new byte[256];
+    /**
+     * Second when time stamp was last formatted.
+     */
+    private long second = -1;
+    /**
+     * Cached "HH:mm:ss." part of the time stamp.
+     */
+    private final byte[] time = new byte[9];
+
+    /**
+     * Constructor.
+     * @param writer Trace writer where frames are written.
+     */
+    public GXTraceEncoder(GXTraceWriter writer)
+    {
+        this.writer = writer;
+        time[2] = time[5] = ':';
+        time[8] = '.';
+    }
+
+    /**
+     * @return Trace level.
+     */
+    public GXTraceLevel getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @param value Trace level.
+     */
+    public void setLevel(GXTraceLevel value)
+    {
+        level = value;
+    }
+
+    /**
+     * Traces sent or received frame.
+     * @param send Is frame sent or received.
+     * @param data Frame bytes.
+     */
+    public void frame(boolean send, byte[] data)
+    {
+        if (level == GXTraceLevel.OFF || data == null)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            int size = format(send, data, System.currentTimeMillis());
+            writer.write(buff, 0, size);
+            if (level == GXTraceLevel.CONSOLE)
+            {
+                buff[size] = '\n';
+                System.out.write(buff, 0, size + 1);
+            }
+        }
+    }
+
+    /**
+     * Formats frame to the buffer.
+     * @return Line size without line separator.
+     */
+    int format(boolean send, byte[] data, long now)
+    {
+        //Direction, time stamp and tab take 16 bytes. One is reserved for new line.
+        int size = 17 + 3 * data.length;
+        if (buff.length < size)
+        {
+            buff = new byte[Math.max(size, 2 * buff.length)];
+        }
+        buff[0] = (byte) (send ? '<' : '-');
+        buff[1] = (byte) (send ? '-' : '>');
+        buff[2] = ' ';
+        if (now / 1000 != second)
+        {
+            second = now / 1000;
+            long local = now + TimeZone.getDefault().getOffset(now);
+            int seconds = (int) ((local / 1000) % 86400);
+            if (seconds < 0)
+            {
+                seconds += 86400;
+            }
+            digits(time, 0, seconds / 3600);
+            digits(time, 3, (seconds / 60) % 60);
+            digits(time, 6, seconds % 60);
+        }
+        System.arraycopy(time, 0, buff, 3, time.length);
+        int ms = (int) (now % 1000);
+        buff[12] = (byte) ('0' + ms / 100);
+        buff[13] = (byte) ('0' + (ms / 10) % 10);
+        buff[14] = (byte) ('0' + ms % 10);
+        buff[15] = '\t';
+        int pos = 16;
+        for (int i = 0; i != data.length; ++i)
+        {
+            if (i != 0)
+            {
+                buff[pos++] = ' ';
+            }
+            buff[pos++] = HEX[(data[i] >> 4) & 0xF];
+            buff[pos++] = HEX[data[i] & 0xF];
+        }
+        return pos;
+    }
+
+    private static void digits(byte[] target, int offset, int value)
+    {
+        target[offset] = (byte) ('0' + value / 10);
+        target[offset + 1] = (byte) ('0' + value % 10);
+    }
+}
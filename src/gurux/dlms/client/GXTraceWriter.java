@@ -0,0 +1,322 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes trace lines to the trace file from a background thread.
+ * Lines are handed over through a bounded queue. If the queue is full
+ * the line is dropped so that the caller is never blocked.
+ * Line buffers are returned to the pool after they are written,
+ * so a running writer does not allocate new memory for each line.
+ */
+public class GXTraceWriter
+{
+    /**
+     * Queued trace line.
+     */
+    static class Line
+    {
+        byte[] data = new byte[128];
+        int size;
+
+        void set(byte[] value, int offset, int count)
+        {
+            if (data.length < count)
+            {
+                data = new byte[Math.max(count, 2 * data.length)];
+            }
+            System.arraycopy(value, offset, data, 0, count);
+            size = count;
+        }
+    }
+
+    /**
+     * Marks the end of the queue when writer is closed.
+     */
+    private static final Line CLOSE = new Line();
+
+    private final Path path;
+    private final long maxSize;
+    private final int maxFiles;
+    private final int capacity;
+    private final BlockingQueue<Line> queue;
+    private final BlockingQueue<Line> pool;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private final ByteBuffer buff = ByteBuffer.allocate(0x10000);
+    private final byte[] newLine = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private FileChannel channel;
+    private long size;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param fileName Trace file name. Existing file is truncated.
+     * @throws IOException
+     */
+    public GXTraceWriter(String fileName) throws IOException
+    {
+        this(fileName, 8192, 10 * 1024 * 1024, 5);
+    }
+
+    /**
+     * Constructor.
+     * @param fileName Trace file name. Existing file is truncated.
+     * @param capacity How many lines can wait in the queue before lines are dropped.
+     * @param maxSize Maximum size of the trace file in bytes before it is rotated.
+     * @param maxFiles How many rotated files are kept.
+     * @throws IOException
+     */
+    public GXTraceWriter(String fileName, int capacity, long maxSize, int maxFiles) throws IOException
+    {
+        this.path = Paths.get(fileName);
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+        this.capacity = capacity;
+        queue = new ArrayBlockingQueue<Line>(capacity);
+        pool = new ArrayBlockingQueue<Line>(capacity);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLines();
+            }
+        }, "GXTraceWriter " + fileName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds new line to the trace.
+     * @param line Trace line.
+     * @return False, if queue is full and line is dropped.
+     */
+    public boolean write(String line)
+    {
+        byte[] tmp = line.getBytes(StandardCharsets.UTF_8);
+        return write(tmp, 0, tmp.length);
+    }
+
+    /**
+     * Adds new line to the trace. Bytes are copied, so caller can reuse the buffer.
+     * @param data Buffer where line is.
+     * @param offset Line offset.
+     * @param count Line size in bytes without line separator.
+     * @return False, if queue is full and line is dropped.
+     */
+    public boolean write(byte[] data, int offset, int count)
+    {
+        Line line = null;
+        if (!closed)
+        {
+            line = pool.poll();
+            if (line == null && allocated.get() < capacity
+                    && allocated.incrementAndGet() <= capacity)
+            {
+                line = new Line();
+            }
+        }
+        if (line == null)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+        line.set(data, offset, count);
+        if (!queue.offer(line))
+        {
+            pool.offer(line);
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Amount of lines that are dropped because queue was full.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Writes queued lines to the file and closes it.
+     * Close doesn't block if writing has failed.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException
+    {
+        if (!closed)
+        {
+            closed = true;
+            //Writer thread is not waited if it has stopped and the queue is full.
+            if (queue.offer(CLOSE, 5, TimeUnit.SECONDS))
+            {
+                thread.join();
+            }
+        }
+    }
+
+    /**
+     * Writer thread. Waits first line and then takes all queued lines
+     * so that file is written once for each batch.
+     */
+    private void writeLines()
+    {
+        List<Line> batch = new ArrayList<Line>();
+        try
+        {
+            boolean end = false;
+            while (!end)
+            {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Line it : batch)
+                {
+                    if (it == CLOSE)
+                    {
+                        end = true;
+                        break;
+                    }
+                    put(it.data, it.size);
+                    put(newLine, newLine.length);
+                    pool.offer(it);
+                }
+                batch.clear();
+                flush();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Trace write failed. " + ex.getMessage());
+        }
+        finally
+        {
+            //New lines are dropped after the writer has stopped.
+            closed = true;
+            queue.clear();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+                System.out.println(ex.getMessage());
+            }
+        }
+    }
+
+    private void put(byte[] data, int count) throws IOException
+    {
+        int pos = 0;
+        while (pos != count)
+        {
+            if (!buff.hasRemaining())
+            {
+                flush();
+            }
+            int len = Math.min(count - pos, buff.remaining());
+            buff.put(data, pos, len);
+            pos += len;
+        }
+    }
+
+    /**
+     * Writes buffered bytes to the file and rotates it if it's grown too big.
+     */
+    private void flush() throws IOException
+    {
+        buff.flip();
+        while (buff.hasRemaining())
+        {
+            size += channel.write(buff);
+        }
+        buff.clear();
+        if (size >= maxSize)
+        {
+            rotate();
+        }
+    }
+
+    /**
+     * Renames trace.txt to trace.txt.1, trace.txt.1 to trace.txt.2 and so on.
+     */
+    private void rotate() throws IOException
+    {
+        channel.close();
+        String name = path.toString();
+        for (int pos = maxFiles - 1; pos > 0; --pos)
+        {
+            Path from = Paths.get(name + "." + pos);
+            if (Files.exists(from))
+            {
+                Files.move(from, Paths.get(name + "." + (pos + 1)),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0)
+        {
+            Files.move(path, Paths.get(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        size = 0;
+    }
+}
@@ -0,0 +1,89 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+/**
+ * Receives profile generic cells while they are decoded.
+ * Numbers and times are given as primitive values, so they are not boxed.
+ */
+public interface IGXCellListener
+{
+    /**
+     * New row starts.
+     * @param cellCount Amount of cells in the row.
+     * @throws Exception
+     */
+    void beginRow(int cellCount) throws Exception;
+
+    /**
+     * Cell is empty.
+     * @param column Column index.
+     */
+    void onNull(int column);
+
+    /**
+     * Cell is an integer, enumeration or boolean.
+     * @param column Column index.
+     * @param value Value.
+     */
+    void onLong(int column, long value);
+
+    /**
+     * Cell is a float or a scaled register value.
+     * @param column Column index.
+     * @param value Value.
+     */
+    void onDouble(int column, double value);
+
+    /**
+     * Cell is a date-time.
+     * @param column Column index.
+     * @param value Time in milliseconds.
+     */
+    void onTime(int column, long value);
+
+    /**
+     * Cell is any other value like octet string, string or structure.
+     * @param column Column index.
+     * @param value Value.
+     */
+    void onObject(int column, Object value);
+
+    /**
+     * Row ends.
+     * @throws Exception If row can't be handled. Reading is stopped.
+     */
+    void endRow() throws Exception;
+}
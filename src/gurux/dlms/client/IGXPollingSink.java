@@ -0,0 +1,70 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSObject;
+
+/**
+ * Receives results of the polled meters.
+ * Methods are called from several polling threads at the same time.
+ */
+public interface IGXPollingSink
+{
+    /**
+     * Attribute value is read from the meter.
+     * @param meter Meter.
+     * @param target Read object.
+     * @param attributeIndex Read attribute index.
+     * @param value Read value.
+     */
+    void onValue(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Object value);
+
+    /**
+     * Reading failed.
+     * @param meter Meter.
+     * @param target Read object or null if connection failed.
+     * @param attributeIndex Read attribute index or zero if connection failed.
+     * @param ex Occurred exception.
+     */
+    void onError(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Exception ex);
+
+    /**
+     * Meter is read and connection is closed.
+     * @param meter Meter.
+     * @param connectTime How long connection establishment took in milliseconds.
+     * @param readTime How long reading took in milliseconds.
+     */
+    void onCompleted(GXMeterEndpoint meter, long connectTime, long readTime);
+}
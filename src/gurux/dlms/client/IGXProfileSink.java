@@ -0,0 +1,53 @@
+//
+// --------------------------------------------------------------------------
+//  Gurux Ltd
+// 
+//
+//
+// Filename:        $HeadURL$
+//
+// Version:         $Revision$,
+//                  $Date$
+//                  $Author$
+//
+// Copyright (c) Gurux Ltd
+//
+//---------------------------------------------------------------------------
+//
+//  DESCRIPTION
+//
+// This file is a part of Gurux Device Framework.
+//
+// Gurux Device Framework is Open Source software; you can redistribute it
+// and/or modify it under the terms of the GNU General Public License 
+// as published by the Free Software Foundation; version 2 of the License.
+// Gurux Device Framework is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. 
+// See the GNU General Public License for more details.
+//
+// More information of Gurux products: http://www.gurux.org
+//
+// This code is licensed under the GNU General Public License v2. 
+// Full text may be retrieved at http://www.gnu.org/licenses/gpl-2.0.txt
+//---------------------------------------------------------------------------
+
+package gurux.dlms.client;
+
+import gurux.dlms.objects.GXDLMSProfileGeneric;
+
+/**
+ * Stores read profile generic rows.
+ */
+public interface IGXProfileSink
+{
+    /**
+     * Stores new rows. Method must return only after rows are stored durably,
+     * because the high-water mark is committed after it.
+     * @param meter Meter identification.
+     * @param target Profile generic.
+     * @param rows New rows. Each row is Object[].
+     * @throws Exception If rows can't be stored. Mark is not committed.
+     */
+    void store(String meter, GXDLMSProfileGeneric target, Object[] rows) throws Exception;
+}
@@ -56,10 +56,18 @@ import gurux.terminal.GXTerminal;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Locale;
 
 public class sampleclient 
@@ -83,12 +91,22 @@ public class sampleclient
         System.out.println(" /a=\t Authentication (None, Low, High).");
         System.out.println(" /pw=\t Password for authentication.");                
         System.out.println(" /t\t Trace messages.");                
+        System.out.println(" /t=\t Frame trace level (Off, File, Console). File is default.");
         System.out.println(" /u\t Update meter settings from Gurux web portal.");
+        System.out.println(" /r\t Read association view and scalers from the meter even if they are cached.");
+        System.out.println(" /i\t Read only profile generic rows that are not read before.");
+        System.out.println(" /l=\t File where are settings of the meters to read. One meter for each line.");
+        System.out.println(" /c=\t How many meters from the list are read at the same time. 10 is default.");
+        System.out.println(" /as=\t How many associations are used to read the meter over TCP/IP. 1 is default.");
+        System.out.println(" /rp=\t Readout plan file. Only listed attributes are read.");
+        System.out.println(" /o=\t Result file where values are written as newline delimited JSON.");
         System.out.println("Example:");
         System.out.println("Read LG device using TCP/IP connection.");
         System.out.println("GuruxDlmsSample /m=lgz /h=www.gurux.org /p=1000");
         System.out.println("Read LG device using serial port connection.");
         System.out.println("GuruxDlmsSample /m=lgz /sp=COM1 /s=DLMS");
+        System.out.println("Read meters that are listed in meters.txt. 100 meters are read at the same time.");
+        System.out.println("GuruxDlmsSample /l=meters.txt /c=100");
     }
     
     static void trace(PrintWriter logFile, String text)
@@ -103,6 +121,192 @@ public class sampleclient
         System.out.print(text + "\r\n");
     }
 
+    /**
+     * Writes profile generic row.
+     */
+    static void traceRow(PrintWriter logFile, Object[] row)
+    {
+        for (Object cell : row)
+        {
+            if (cell instanceof byte[])
+            {
+                trace(logFile, GXDLMSClient.toHex((byte[]) cell) + " | ");
+            }
+            else
+            {
+                trace(logFile, cell + " | ");
+            }
+        }
+        traceLn(logFile, "");
+    }
+
+    /**
+     * Opens more associations to the meter and reads attributes using all of them.
+     * @param com Connected session where association view is read.
+     * @param count How many associations are used.
+     * @param attributes Objects and attribute indexes to read.
+     * @return Read values.
+     */
+    static Object[] readParallel(GXCommunicate com, GXManufacturer man, boolean iec, Authentication auth, String pw,
+            String host, String port, int count, List<Map.Entry<GXDLMSObject, Integer>> attributes) throws Exception
+    {
+        List<GXCommunicate> sessions = new ArrayList<GXCommunicate>();
+        sessions.add(com);
+        GXMeterEndpoint meter = GXMeterEndpoint.parse("/m=" + man.getIdentification() + " /h=" + host + " /p=" + port);
+        try
+        {
+            for (int pos = 1; pos < count; ++pos)
+            {
+                IGXMedia net = meter.createMedia();
+                GXDLMSClient dlms = new GXDLMSClient();
+                dlms.setObisCodes(man.getObisCodes());
+                GXCommunicate it = new GXCommunicate(1500, dlms, man, iec, auth, pw, net, com.traceFile);
+                it.setTraceLevel(com.getTraceLevel());
+                try
+                {
+                    it.initializeConnection();
+                }
+                catch (Exception ex)
+                {
+                    //Meter doesn't allow more associations.
+                    System.out.println("Failed to open association " + (pos + 1) + ". " + ex.getMessage());
+                    net.close();
+                    break;
+                }
+                sessions.add(it);
+            }
+            System.out.println("Reading with " + sessions.size() + " associations.");
+            return new GXParallelReader(sessions).readObjects(attributes);
+        }
+        finally
+        {
+            for (int pos = 1; pos < sessions.size(); ++pos)
+            {
+                try
+                {
+                    sessions.get(pos).close();
+                }
+                catch (Exception ex)
+                {
+                    System.out.println(ex.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads all meters listed in the file.
+     * @param listFile File where each line has settings for one meter.
+     * @param concurrency How many meters are read at the same time.
+     * @param path Manufacturer settings path.
+     * @param logFile Log file.
+     * @param readoutPlan Attributes to read or null if all attributes are read.
+     * @param results Result writer or null if values are written to the log file.
+     * @param associations How many associations are used to read one TCP/IP meter.
+     * @param traceLevel Where sent and received frames are traced.
+     * @param refresh Is association view read from the meters even if it's cached.
+     * @param incremental Are new profile generic rows read.
+     */
+    static void pollMeters(String listFile, int concurrency, String path, final PrintWriter logFile,
+            GXReadoutPlan readoutPlan, GXJsonResultWriter results, int associations,
+            GXTraceLevel traceLevel, boolean refresh, boolean incremental) throws Exception
+    {
+        List<GXMeterEndpoint> meters = new ArrayList<GXMeterEndpoint>();
+        for (String line : Files.readAllLines(Paths.get(listFile), StandardCharsets.UTF_8))
+        {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+            {
+                meters.add(GXMeterEndpoint.parse(line));
+            }
+        }
+        GXManufacturerRegistry registry = GXManufacturerRegistry.getInstance(path);
+        GXTraceWriter traceFile = new GXTraceWriter("trace.txt");
+        IGXPollingSink sink = results != null ? results : new IGXPollingSink()
+        {
+            @Override
+            public void onValue(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Object value)
+            {
+                if (value instanceof byte[])
+                {
+                    value = GXCommon.toHex((byte[]) value);
+                }
+                synchronized (logFile)
+                {
+                    traceLn(logFile, meter + " " + target.getName() + " Index: " + attributeIndex + " Value: " + String.valueOf(value));
+                }
+            }
+
+            @Override
+            public void onError(GXMeterEndpoint meter, GXDLMSObject target, int attributeIndex, Exception ex)
+            {
+                synchronized (logFile)
+                {
+                    if (target == null)
+                    {
+                        traceLn(logFile, meter + " Error! " + ex.getMessage());
+                    }
+                    else
+                    {
+                        traceLn(logFile, meter + " " + target.getName() + " Error! Index: " + attributeIndex + " " + ex.getMessage());
+                    }
+                }
+            }
+
+            @Override
+            public void onCompleted(GXMeterEndpoint meter, long connectTime, long readTime)
+            {
+                synchronized (logFile)
+                {
+                    traceLn(logFile, meter + " Done. Connect: " + connectTime + " ms Read: " + readTime + " ms " + meter.getStatistics());
+                }
+            }
+        };
+        GXPollingEngine engine = new GXPollingEngine(registry, concurrency, sink, traceFile);
+        engine.setAssociationCache(new GXAssociationCache("AssociationCache"));
+        engine.setScalerCachePath("ScalerCache");
+        engine.setReadoutPlan(readoutPlan);
+        engine.setAssociations(associations);
+        engine.setTraceLevel(traceLevel);
+        engine.setRefresh(refresh);
+        if (incremental)
+        {
+            engine.setProfileHarvester(new GXProfileHarvester(new GXHighWaterMarks("HighWaterMarks"), new IGXProfileSink()
+            {
+                @Override
+                public void store(String meter, GXDLMSProfileGeneric target, Object[] rows) throws Exception
+                {
+                    synchronized (logFile)
+                    {
+                        traceLn(logFile, meter + " " + target.getName() + " New rows: " + rows.length);
+                        for (Object row : rows)
+                        {
+                            traceRow(logFile, (Object[]) row);
+                        }
+                        logFile.flush();
+                        if (logFile.checkError())
+                        {
+                            throw new Exception("Failed to write rows to the log file.");
+                        }
+                    }
+                }
+            }));
+        }
+        //Metrics can be followed with JConsole while meters are read.
+        engine.getMetrics().register();
+        try
+        {
+            engine.poll(meters);
+            engine.getMetrics().write("metrics.txt");
+            System.out.println(engine.getMetrics());
+        }
+        finally
+        {
+            engine.getMetrics().unregister();
+            traceFile.close();
+        }
+    }
+
     /**
      * @param args the command line arguments
      */
@@ -113,6 +317,7 @@ public class sampleclient
         // /m=grx /h=localhost /p=4061    
         GXCommunicate com = null;
         PrintWriter logFile = null;
+        GXJsonResultWriter results = null;
         try
         {
             IGXMedia media = null;
@@ -129,11 +334,14 @@ public class sampleclient
             // null,
             // InterfaceType.General);
 
+            //Settings are read once and shared by all sessions.
+            GXManufacturerRegistry registry = GXManufacturerRegistry.getInstance(path);
             try
             {
                 if (GXManufacturerCollection.isFirstRun(path))
                 {
-                    GXManufacturerCollection.updateManufactureSettings(path);
+                    //Update is made in the background. Manufacturer is waited when it's needed.
+                    registry.update();
                 }
             }
             catch(Exception ex)
@@ -142,17 +350,22 @@ public class sampleclient
             }
             //4059 is Official DLMS port.
             String id = "", host = "", port = "4059", pw = "";
-            boolean trace = false, iec = true;
+            boolean trace = false, iec = true, refresh = false, incremental = false;
+            GXTraceLevel traceLevel = GXTraceLevel.FILE;
             Authentication auth = Authentication.NONE;  
             int startBaudRate = 9600;
-            String number = null;
+            String number = null, listFile = null;
+            int concurrency = 10;
+            int associations = 1;
+            String resultFile = null;
+            GXReadoutPlan readoutPlan = null;
             for (String it : args)
             {
                 String item = it.trim();
                 if (item.compareToIgnoreCase("/u") == 0)//Update
                 {
                     //Get latest manufacturer settings from Gurux web server.
-                    GXManufacturerCollection.updateManufactureSettings(path);
+                    registry.update();
                 }
                 else if(item.startsWith("/m="))//Manufacturer
                 {
@@ -184,9 +397,14 @@ public class sampleclient
                 {
                     startBaudRate = Integer.parseInt(item.replaceFirst("/b=", ""));
                 }
+                else if (item.startsWith("/t="))//Frame trace level.
+                {
+                    traceLevel = GXTraceLevel.valueOf(item.replaceFirst("/t=", "").toUpperCase());
+                }
                 else if (item.startsWith("/t"))//Are messages traced.
                 {                    
                     trace = true;
+                    traceLevel = GXTraceLevel.CONSOLE;
                 }
                 else if (item.startsWith("/s="))//Start
                 {
@@ -201,12 +419,47 @@ public class sampleclient
                 {
                     pw = it.trim().replaceFirst("/pw=", "");
                 }
+                else if (item.compareToIgnoreCase("/r") == 0)//Refresh association view.
+                {
+                    refresh = true;
+                }
+                else if (item.compareToIgnoreCase("/i") == 0)//Read only new profile generic rows.
+                {
+                    incremental = true;
+                }
+                else if (item.startsWith("/l="))//List of meters.
+                {
+                    listFile = item.replaceFirst("/l=", "");
+                }
+                else if (item.startsWith("/c="))//How many meters are read at the same time.
+                {
+                    concurrency = Integer.parseInt(item.replaceFirst("/c=", ""));
+                }
+                else if (item.startsWith("/as="))//How many associations are used.
+                {
+                    associations = Integer.parseInt(item.replaceFirst("/as=", ""));
+                }
+                else if (item.startsWith("/rp="))//Readout plan.
+                {
+                    readoutPlan = GXReadoutPlan.load(item.replaceFirst("/rp=", ""));
+                }
+                else if (item.startsWith("/o="))//Result file.
+                {
+                    resultFile = item.replaceFirst("/o=", "");
+                }
                 else
                 {
                     ShowHelp();
                     return;
                 }
             }
+            if (listFile != null)
+            {
+                results = resultFile == null ? null : new GXJsonResultWriter(resultFile);
+                pollMeters(listFile, concurrency, path, logFile, readoutPlan, results, associations,
+                        traceLevel, refresh, incremental);
+                return;
+            }
             if (id.isEmpty() || port.isEmpty() || (media instanceof gurux.net.GXNet && host.isEmpty()))
             {
                 ShowHelp();
@@ -255,20 +508,26 @@ public class sampleclient
                 throw new Exception("Unknown media type.");
             }
             GXDLMSClient dlms = new GXDLMSClient();
-            GXManufacturerCollection items = new GXManufacturerCollection();
-            GXManufacturerCollection.readManufacturerSettings(items, path);
-            GXManufacturer man = items.findByIdentification(id);
+            GXManufacturer man = registry.findByIdentification(id);
             if (man == null)
             {
             	throw new RuntimeException("Invalid manufacturer.");
             }
             dlms.setObisCodes(man.getObisCodes());
             com = new GXCommunicate(1500, dlms, man, iec, auth, pw, media);                        
+            com.setObisMap(registry.getObisMap(man));
             com.Trace = trace;
+            com.setTraceLevel(traceLevel);
             com.initializeConnection();                                
             System.out.println("Reading association view");
-            byte[] reply = com.readDataBlock(dlms.getObjectsRequest());
-            GXDLMSObjectCollection objects = dlms.parseObjects(reply, true);                                                
+            String meterId = GXMeterEndpoint.getIdentification(id, 
+                    media instanceof GXNet ? host : null, port, number);
+            //Scalers are removed by the association cache if the meter has changed
+            //and they are not used if identity of the meter can't be read.
+            GXScalerCache scalers = new GXScalerCache("ScalerCache", meterId);
+            com.setScalerCache(scalers);
+            GXAssociationCache cache = new GXAssociationCache("AssociationCache");
+            GXDLMSObjectCollection objects = cache.getObjects(com, id, refresh);
             //Read Profile Generic columns first.
             GXDLMSObjectCollection profileGenerics = objects.getObjects(ObjectType.PROFILE_GENERIC);
             for(GXDLMSObject it : profileGenerics)
@@ -316,62 +575,129 @@ public class sampleclient
                     //Continue reading.
                 }
             }
+            //Save association view, columns and scalers for the next time.
+            cache.save(com);
+            scalers.save();
             
             //Read all attributes from all objects.
-            for(GXDLMSObject it : objects)
+            List<Map.Entry<GXDLMSObject, Integer>> attributes = new ArrayList<Map.Entry<GXDLMSObject, Integer>>();
+            if (readoutPlan != null)
             {
-                if (!(it instanceof IGXDLMSBase))
+                //Read only attributes that are listed in the readout plan.
+                GXReadoutPlan plan = readoutPlan.compile(man);
+                GXReadoutPlan.State state = plan.createState();
+                attributes = plan.select(state, objects, System.currentTimeMillis());
+                for (String it : state.getMissing())
                 {
-                    //If interface is not implemented.
-                    System.out.println("Unknown Interface: " + it.getObjectType().toString());
-                    continue;
+                    traceLn(logFile, "Object " + it + " is not in the association view.");
                 }
+            }
+            else
+            {
+                for(GXDLMSObject it : objects)
+                {
+                    if (!(it instanceof IGXDLMSBase))
+                    {
+                        //If interface is not implemented.
+                        System.out.println("Unknown Interface: " + it.getObjectType().toString());
+                        continue;
+                    }
                 
-                if (it instanceof GXDLMSProfileGeneric)
+                    if (it instanceof GXDLMSProfileGeneric)
+                    {
+                        //Profile generic are read later 
+                        // because it might take so long time
+                        // and this is only a example.
+                        continue;
+                    }                
+                    for(int pos : ((IGXDLMSBase) it).getAttributeIndexToRead())
+                    {
+                        attributes.add(new AbstractMap.SimpleEntry<GXDLMSObject, Integer>(it, pos));
+                    }
+                }
+            }
+            //Attributes are read with as few requests as the meter allows.
+            Object[] values;
+            if (associations > 1 && media instanceof GXNet)
+            {
+                values = readParallel(com, man, iec, auth, pw, host, port, associations, attributes);
+            }
+            else
+            {
+                values = com.readObjects(attributes);
+            }
+            if (resultFile != null)
+            {
+                results = new GXJsonResultWriter(resultFile);
+                long now = System.currentTimeMillis();
+                for (int index = 0; index != values.length; ++index)
                 {
-                    //Profile generic are read later 
-                    // because it might take so long time
-                    // and this is only a example.
-                    continue;
-                }                
-                traceLn(logFile, "-------- Reading " + 
-                        it.getClass().getSimpleName() + " " + 
-                        it.getName().toString() + " " + 
-                        it.getDescription());
-                for(int pos : ((IGXDLMSBase) it).getAttributeIndexToRead())
+                    Object val = values[index];
+                    if (val instanceof Exception)
+                    {
+                        results.write(meterId, attributes.get(index).getKey(),
+                                attributes.get(index).getValue(), null, (Exception) val, now);
+                    }
+                    else
+                    {
+                        results.write(meterId, attributes.get(index).getKey(),
+                                attributes.get(index).getValue(), val, null, now);
+                    }
+                }
+                results.flush();
+            }
+            else
+            {
+                GXDLMSObject last = null;
+                NumberFormat formatter = NumberFormat.getNumberInstance();
+                StringBuilder sb = new StringBuilder();
+                for (int index = 0; index != values.length; ++index)
                 {
+                    GXDLMSObject it = attributes.get(index).getKey();
+                    int pos = attributes.get(index).getValue();
+                    if (it != last)
+                    {
+                        traceLn(logFile, "-------- Reading " + 
+                                it.getClass().getSimpleName() + " " + 
+                                it.getName().toString() + " " + 
+                                it.getDescription());
+                        last = it;
+                    }
                     try
                     {                        
-                        Object val = com.readObject(it, pos);
+                        Object val = values[index];
+                        if (val instanceof Exception)
+                        {
+                            throw (Exception) val;
+                        }
                         if (val instanceof byte[])
                         {
                             val = GXCommon.toHex((byte[]) val);
                         }
                         else if (val instanceof Double)
                         {
-                            NumberFormat formatter = NumberFormat.getNumberInstance();
                             val = formatter.format(val);
                         }
                         else if (val != null && val.getClass().isArray())
                         {
-                            String str = "";
+                            sb.setLength(0);
                             for(int pos2 = 0; pos2 != Array.getLength(val); ++pos2)
                             {
-                                if (!str.equals(""))
+                                if (pos2 != 0)
                                 {
-                                    str += ", ";
+                                    sb.append(", ");
                                 }
                                 Object tmp = Array.get(val, pos2);
                                 if (tmp instanceof byte[])
                                 {
-                                    str += GXCommon.toHex((byte[]) tmp);
+                                    sb.append(GXCommon.toHex((byte[]) tmp));
                                 }
                                 else
                                 {
-                                    str += String.valueOf(tmp);
+                                    sb.append(String.valueOf(tmp));
                                 }
                             }
-                            val = str;
+                            val = sb.toString();
                         }                                                                       
                         traceLn(logFile, "Index: " + pos + " Value: " + String.valueOf(val));                    
                     }
@@ -380,11 +706,32 @@ public class sampleclient
                         traceLn(logFile, "Error! Index: " + pos + " " + ex.getMessage());
                         //Continue reading.
                     }
-                }                
-            }            
+                }            
+            }
             ///////////////////////////////////////////////////////////////////
             //Get data of profile generics.
             Object[] cells;
+            GXProfileHarvester harvester = null;
+            if (incremental)
+            {
+                final PrintWriter log = logFile;
+                harvester = new GXProfileHarvester(new GXHighWaterMarks("HighWaterMarks"), new IGXProfileSink()
+                {
+                    @Override
+                    public void store(String meter, GXDLMSProfileGeneric target, Object[] rows) throws Exception
+                    {
+                        for (Object row : rows)
+                        {
+                            traceRow(log, (Object[]) row);
+                        }
+                        log.flush();
+                        if (log.checkError())
+                        {
+                            throw new Exception("Failed to write rows to the log file.");
+                        }
+                    }
+                });
+            }
             for(GXDLMSObject it : profileGenerics)
             {      
                 traceLn(logFile, "-------- Reading " + 
@@ -401,6 +748,18 @@ public class sampleclient
                 {
                     continue;
                 }
+                if (harvester != null)
+                {
+                    try
+                    {
+                        traceLn(logFile, "New rows: " + harvester.harvest(com, meterId, pg, entriesInUse, entries));
+                    }
+                    catch(Exception ex)
+                    {
+                        traceLn(logFile, "Error! Failed to read new rows: " + ex.getMessage());
+                    }
+                    continue;
+                }
                 ///////////////////////////////////////////////////////////////////
                 //Read first item.                
                 try
@@ -448,22 +807,16 @@ public class sampleclient
                     {
                         sorted = pg.getCaptureObjects()[0];
                     }
-                    cells = com.readRowsByRange(it, sorted, start.getTime(), end.getTime());
-                    for(Object rows : cells)
+                    //Rows are written as soon as they are received.
+                    final PrintWriter log = logFile;
+                    com.readRowsByRange(pg, sorted, start.getTime(), end.getTime(), new IGXRowListener()
                     {
-                        for(Object cell : (Object[]) rows)
+                        @Override
+                        public void onRow(Object[] row)
                         {
-                            if (cell instanceof byte[])
-                            {
-                                System.out.print(GXDLMSClient.toHex((byte[]) cell) + " | ");
-                            }
-                            else
-                            {
-                                trace(logFile, cell + " | ");
-                            }
+                            traceRow(log, row);
                         }
-                        traceLn(logFile, "");
-                    }
+                    });
                 }
                 catch(Exception ex)
                 {
@@ -482,12 +835,25 @@ public class sampleclient
             {
                 logFile.close();
             }            
+            if (results != null)
+            {
+                try
+                {
+                    results.close();
+                }
+                catch (IOException ex)
+                {
+                    System.out.println(ex.getMessage());
+                }
+            }
             try
             {
                 ///////////////////////////////////////////////////////////////
                 //Disconnect.
                 if (com != null)
                 {                    
+                    System.out.println(com.getStatistics());
+                    System.out.println(com.getMetrics());
                     com.close();
                 }
             }